@@ -0,0 +1,464 @@
+package com.openscad.standalone;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// Which files each model pulls in through use<>/include<> (plus literal import()/surface() paths), resolved
+// the way OpenSCAD does: next to the including file first, then each OPENSCADPATH entry. A file is re-read
+// only when its mtime or size changes, so checking a model costs one stat per dependency.
+class DependencyGraph {
+
+    private static class Node {
+        final String path;
+        String baseDir;
+        long lastModified;
+        long length;
+        String hash;
+        final List<String> specs = new ArrayList<String>();
+        // Parallel to specs; "" when the spec did not resolve to a file
+        final List<String> resolved = new ArrayList<String>();
+
+        Node(String path, String baseDir) {
+            this.path = path;
+            this.baseDir = baseDir;
+        }
+    }
+
+    static final String HEADER = "# openscad-dependency-graph 1";
+
+    private static final Pattern COMMENTS = Pattern.compile("//[^\\n]*|/\\*.*?\\*/", Pattern.DOTALL);
+    private static final Pattern DIRECTIVE = Pattern.compile("\\b(?:use|include)\\s*<([^>\\n]+)>");
+    private static final Pattern FILE_REFERENCE = Pattern.compile(
+            "\\b(?:import|surface)\\s*\\(\\s*(?:file\\s*=\\s*)?\"([^\"\\n]+)\"");
+
+    private final File storeFile;
+    private final List<File> searchPath;
+    private final Map<String, Node> nodes = new HashMap<String, Node>();
+    // Reverse edges: resolved path -> paths of the files that reference it
+    private final Map<String, Set<String>> dependents = new HashMap<String, Set<String>>();
+    // Last path segment of every spec -> referencing paths, so a newly added library file re-resolves
+    // only the specs that could point at it
+    private final Map<String, Set<String>> byName = new HashMap<String, Set<String>>();
+    private boolean loaded;
+    private boolean dirty;
+
+    DependencyGraph(File storeFile, List<File> searchPath) {
+        this.storeFile = storeFile;
+        this.searchPath = new ArrayList<File>(searchPath);
+    }
+
+    // Hash over everything the code transitively depends on; "" when it has no file dependencies, so
+    // self-contained models keep their plain code-hash cache keys. owner is the project file the code
+    // was loaded from, recorded so affectedBy() can report it.
+    synchronized String fingerprint(String code, File baseDir, File owner) {
+        ensureLoaded();
+        List<String> specs = scan(code);
+        String base = baseDir.getAbsolutePath();
+        List<String> resolved = new ArrayList<String>();
+        for (String spec : specs) {
+            resolved.add(resolve(spec, base));
+        }
+
+        if (owner != null) {
+            String ownerPath = normalize(owner);
+            Node node = nodes.get(ownerPath);
+            if (node == null) {
+                node = new Node(ownerPath, base);
+                nodes.put(ownerPath, node);
+            }
+            String hash = md5Hex(code.getBytes(StandardCharsets.UTF_8));
+            if (!hash.equals(node.hash) || !base.equals(node.baseDir) || !resolved.equals(node.resolved)) {
+                unlink(node);
+                node.baseDir = base;
+                node.hash = hash;
+                node.specs.clear();
+                node.specs.addAll(specs);
+                node.resolved.clear();
+                node.resolved.addAll(resolved);
+                link(node);
+                dirty = true;
+            }
+            node.lastModified = owner.lastModified();
+            node.length = owner.length();
+        }
+
+        if (specs.isEmpty()) {
+            return "";
+        }
+        Map<String, String> closure = new TreeMap<String, String>();
+        for (int i = 0; i < specs.size(); i++) {
+            String path = resolved.get(i);
+            if (path.isEmpty()) {
+                closure.put("?" + specs.get(i), "");
+            } else {
+                collect(path, closure);
+            }
+        }
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, String> entry : closure.entrySet()) {
+            sb.append(entry.getKey()).append('=').append(entry.getValue()).append('\n');
+        }
+        return md5Hex(sb.toString().getBytes(StandardCharsets.UTF_8)).substring(0, 12);
+    }
+
+    // Re-reads the given files and re-resolves specs that could now point at them, then returns every
+    // tracked file that (transitively) depends on one of them, including the changed files themselves.
+    synchronized List<File> affectedBy(Collection<File> changed) {
+        ensureLoaded();
+        Set<String> seeds = new LinkedHashSet<String>();
+        for (File file : changed) {
+            String path = normalize(file);
+            Set<String> candidates = byName.get(file.getName());
+            if (candidates != null) {
+                for (String candidate : new ArrayList<String>(candidates)) {
+                    Node node = nodes.get(candidate);
+                    if (node != null && reresolve(node)) {
+                        seeds.add(candidate);
+                    }
+                }
+            }
+            if (nodes.containsKey(path)) {
+                refresh(path);
+                seeds.add(path);
+            }
+        }
+
+        Set<String> affected = new LinkedHashSet<String>(seeds);
+        ArrayDeque<String> queue = new ArrayDeque<String>(seeds);
+        while (!queue.isEmpty()) {
+            Set<String> next = dependents.get(queue.poll());
+            if (next == null) {
+                continue;
+            }
+            for (String path : next) {
+                if (affected.add(path)) {
+                    queue.add(path);
+                }
+            }
+        }
+
+        List<File> out = new ArrayList<File>();
+        for (String path : affected) {
+            out.add(new File(path));
+        }
+        return out;
+    }
+
+    synchronized void save() throws IOException {
+        if (!dirty) {
+            return;
+        }
+        StringBuilder sb = new StringBuilder(HEADER).append('\n');
+        for (Node node : nodes.values()) {
+            sb.append("F\t").append(node.path)
+                    .append('\t').append(node.baseDir)
+                    .append('\t').append(node.lastModified)
+                    .append('\t').append(node.length)
+                    .append('\t').append(node.hash)
+                    .append('\n');
+            for (int i = 0; i < node.specs.size(); i++) {
+                sb.append("R\t").append(node.specs.get(i)).append('\t').append(node.resolved.get(i)).append('\n');
+            }
+        }
+
+        File tmp = new File(storeFile.getPath() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(tmp, false)) {
+            out.write(sb.toString().getBytes(StandardCharsets.UTF_8));
+        }
+        if (storeFile.exists() && !storeFile.delete()) {
+            throw new IOException("Could not replace " + storeFile);
+        }
+        if (!tmp.renameTo(storeFile)) {
+            throw new IOException("Could not write " + storeFile);
+        }
+        dirty = false;
+    }
+
+    static List<String> scan(String code) {
+        String stripped = COMMENTS.matcher(code).replaceAll(" ");
+        Set<String> specs = new LinkedHashSet<String>();
+        Matcher directive = DIRECTIVE.matcher(stripped);
+        while (directive.find()) {
+            specs.add(directive.group(1).trim());
+        }
+        Matcher reference = FILE_REFERENCE.matcher(stripped);
+        while (reference.find()) {
+            specs.add(reference.group(1).trim());
+        }
+        return new ArrayList<String>(specs);
+    }
+
+    private void collect(String path, Map<String, String> closure) {
+        if (closure.containsKey(path)) {
+            return;
+        }
+        Node node = refresh(path);
+        if (node == null) {
+            closure.put(path, "missing");
+            return;
+        }
+        closure.put(path, node.hash);
+        for (int i = 0; i < node.specs.size(); i++) {
+            String dep = node.resolved.get(i);
+            if (dep.isEmpty()) {
+                closure.put("?" + node.specs.get(i) + "@" + path, "");
+            } else {
+                collect(dep, closure);
+            }
+        }
+    }
+
+    private Node refresh(String path) {
+        File file = new File(path);
+        Node node = nodes.get(path);
+        if (!file.isFile()) {
+            if (node != null) {
+                removeNode(node);
+            }
+            return null;
+        }
+        if (node != null && node.lastModified == file.lastModified() && node.length == file.length()) {
+            return node;
+        }
+
+        byte[] data;
+        try {
+            data = readAll(file);
+        } catch (IOException e) {
+            return node;
+        }
+        if (node == null) {
+            node = new Node(path, file.getParent());
+            nodes.put(path, node);
+        }
+        node.lastModified = file.lastModified();
+        node.length = file.length();
+        node.hash = md5Hex(data);
+        unlink(node);
+        node.specs.clear();
+        node.resolved.clear();
+        if (path.toLowerCase(Locale.US).endsWith(".scad")) {
+            node.specs.addAll(scan(new String(data, StandardCharsets.UTF_8)));
+            for (String spec : node.specs) {
+                node.resolved.add(resolve(spec, node.baseDir));
+            }
+        }
+        link(node);
+        dirty = true;
+        return node;
+    }
+
+    private boolean reresolve(Node node) {
+        List<String> resolved = new ArrayList<String>();
+        for (String spec : node.specs) {
+            resolved.add(resolve(spec, node.baseDir));
+        }
+        if (resolved.equals(node.resolved)) {
+            return false;
+        }
+        unlink(node);
+        node.resolved.clear();
+        node.resolved.addAll(resolved);
+        link(node);
+        dirty = true;
+        return true;
+    }
+
+    private void removeNode(Node node) {
+        unlink(node);
+        nodes.remove(node.path);
+        dirty = true;
+        Set<String> users = dependents.get(node.path);
+        if (users == null) {
+            return;
+        }
+        for (String user : new ArrayList<String>(users)) {
+            Node userNode = nodes.get(user);
+            if (userNode != null) {
+                reresolve(userNode);
+            }
+        }
+    }
+
+    private void link(Node node) {
+        for (int i = 0; i < node.specs.size(); i++) {
+            addEdge(byName, nameOf(node.specs.get(i)), node.path);
+            String dep = node.resolved.get(i);
+            if (!dep.isEmpty()) {
+                addEdge(dependents, dep, node.path);
+            }
+        }
+    }
+
+    private void unlink(Node node) {
+        for (int i = 0; i < node.specs.size(); i++) {
+            removeEdge(byName, nameOf(node.specs.get(i)), node.path);
+            if (i < node.resolved.size() && !node.resolved.get(i).isEmpty()) {
+                removeEdge(dependents, node.resolved.get(i), node.path);
+            }
+        }
+    }
+
+    private String resolve(String spec, String baseDir) {
+        File direct = new File(spec);
+        if (direct.isAbsolute()) {
+            return direct.isFile() ? normalize(direct) : "";
+        }
+        if (baseDir != null) {
+            File local = new File(baseDir, spec);
+            if (local.isFile()) {
+                return normalize(local);
+            }
+        }
+        for (File root : searchPath) {
+            File candidate = new File(root, spec);
+            if (candidate.isFile()) {
+                return normalize(candidate);
+            }
+        }
+        return "";
+    }
+
+    private void ensureLoaded() {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+        if (!storeFile.isFile()) {
+            return;
+        }
+        String[] lines;
+        try (InputStream in = new FileInputStream(storeFile)) {
+            lines = new String(readAll(in), StandardCharsets.UTF_8).split("\n");
+        } catch (IOException e) {
+            return;
+        }
+        if (lines.length == 0 || !HEADER.equals(lines[0].trim())) {
+            return;
+        }
+
+        Node current = null;
+        for (int i = 1; i < lines.length; i++) {
+            String[] parts = lines[i].split("\t", -1);
+            try {
+                if (parts.length == 6 && "F".equals(parts[0])) {
+                    current = new Node(parts[1], parts[2]);
+                    current.lastModified = Long.parseLong(parts[3]);
+                    current.length = Long.parseLong(parts[4]);
+                    current.hash = parts[5];
+                    nodes.put(current.path, current);
+                } else if (parts.length == 3 && "R".equals(parts[0]) && current != null) {
+                    current.specs.add(parts[1]);
+                    current.resolved.add(parts[2]);
+                }
+            } catch (NumberFormatException e) {
+                current = null;
+            }
+        }
+        for (Node node : nodes.values()) {
+            link(node);
+        }
+    }
+
+    private static String nameOf(String spec) {
+        int slash = Math.max(spec.lastIndexOf('/'), spec.lastIndexOf('\\'));
+        return slash >= 0 ? spec.substring(slash + 1) : spec;
+    }
+
+    // Lexical cleanup of "." and ".." only; canonical paths would expand /data/user/0 symlinks and stop
+    // matching the paths the rest of the app uses.
+    private static String normalize(File file) {
+        String path = file.getAbsolutePath();
+        if (!path.contains("/.")) {
+            return path;
+        }
+        List<String> parts = new ArrayList<String>();
+        for (String part : path.split("/")) {
+            if (part.isEmpty() || ".".equals(part)) {
+                continue;
+            }
+            if ("..".equals(part)) {
+                if (!parts.isEmpty()) {
+                    parts.remove(parts.size() - 1);
+                }
+                continue;
+            }
+            parts.add(part);
+        }
+        StringBuilder sb = new StringBuilder();
+        for (String part : parts) {
+            sb.append('/').append(part);
+        }
+        return sb.length() == 0 ? "/" : sb.toString();
+    }
+
+    private static void addEdge(Map<String, Set<String>> edges, String key, String value) {
+        Set<String> set = edges.get(key);
+        if (set == null) {
+            set = new HashSet<String>();
+            edges.put(key, set);
+        }
+        set.add(value);
+    }
+
+    private static void removeEdge(Map<String, Set<String>> edges, String key, String value) {
+        Set<String> set = edges.get(key);
+        if (set == null) {
+            return;
+        }
+        set.remove(value);
+        if (set.isEmpty()) {
+            edges.remove(key);
+        }
+    }
+
+    private static byte[] readAll(File file) throws IOException {
+        try (InputStream in = new FileInputStream(file)) {
+            return readAll(in);
+        }
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[8192];
+        int read;
+        while ((read = in.read(buf)) != -1) {
+            out.write(buf, 0, read);
+        }
+        return out.toByteArray();
+    }
+
+    private static String md5Hex(byte[] data) {
+        try {
+            byte[] digest = MessageDigest.getInstance("MD5").digest(data);
+            StringBuilder sb = new StringBuilder();
+            for (byte b : digest) {
+                sb.append(String.format("%02x", b));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            return String.format("%08x%08x", Arrays.hashCode(data), data.length);
+        }
+    }
+}
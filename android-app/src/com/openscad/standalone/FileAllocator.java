@@ -0,0 +1,22 @@
+package com.openscad.standalone;
+
+import android.system.ErrnoException;
+import android.system.Os;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+// Keeps the android.system calls out of ResumableDownload, so that class also loads on a plain JVM (the
+// stand-in server checks under scripts/download-standin). There, the first call throws NoClassDefFoundError
+// and callers fall back to what they would do without fallocate.
+class FileAllocator {
+
+    // Reserves the first length bytes of file; a no-op where the filesystem cannot do that up front
+    static void reserve(RandomAccessFile file, long length) throws IOException {
+        try {
+            Os.posix_fallocate(file.getFD(), 0, length);
+        } catch (ErrnoException e) {
+            // not supported by every filesystem
+        }
+    }
+}
@@ -0,0 +1,205 @@
+package com.openscad.standalone;
+
+import java.util.Arrays;
+
+// Shared-vertex form of an StlModel: STL repeats every corner once per triangle, this keeps each
+// distinct position once and refers to it by index.
+class IndexedMesh {
+    final float[] positions;
+    final int[] indices;
+    final int vertexCount;
+    final int triangleCount;
+
+    IndexedMesh(float[] positions, int[] indices) {
+        this.positions = positions;
+        this.indices = indices;
+        this.vertexCount = positions.length / 3;
+        this.triangleCount = indices.length / 3;
+    }
+
+    // Welds corners with bit-identical coordinates, which is what OpenSCAD emits for shared vertices.
+    // Open addressing over primitive arrays keeps this to a few bytes per corner even for millions of them.
+    static IndexedMesh weld(StlModel model) {
+        float[] soup = model.vertices;
+        int corners = soup.length / 3;
+        int tableSize = Integer.highestOneBit(Math.max(4, corners * 2 - 1)) << 1;
+        int mask = tableSize - 1;
+        int[] table = new int[tableSize];
+        Arrays.fill(table, -1);
+
+        float[] positions = new float[soup.length];
+        int[] indices = new int[corners];
+        int unique = 0;
+
+        for (int c = 0; c < corners; c++) {
+            int o = c * 3;
+            int x = bits(soup[o]);
+            int y = bits(soup[o + 1]);
+            int z = bits(soup[o + 2]);
+            int slot = mix(x, y, z) & mask;
+            while (true) {
+                int existing = table[slot];
+                if (existing < 0) {
+                    table[slot] = unique;
+                    int p = unique * 3;
+                    // adding +0 turns -0 into 0 so exported files never print "-0.0"
+                    positions[p] = soup[o] + 0f;
+                    positions[p + 1] = soup[o + 1] + 0f;
+                    positions[p + 2] = soup[o + 2] + 0f;
+                    indices[c] = unique;
+                    unique++;
+                    break;
+                }
+                int p = existing * 3;
+                if (bits(positions[p]) == x && bits(positions[p + 1]) == y && bits(positions[p + 2]) == z) {
+                    indices[c] = existing;
+                    break;
+                }
+                slot = (slot + 1) & mask;
+            }
+        }
+
+        return new IndexedMesh(Arrays.copyOf(positions, unique * 3), indices);
+    }
+
+    // Back to the triangle-soup form the viewer draws, with flat per-face normals.
+    StlModel toModel() {
+        float[] vertices = new float[indices.length * 3];
+        float[] normals = new float[indices.length * 3];
+        float minX = Float.POSITIVE_INFINITY;
+        float minY = Float.POSITIVE_INFINITY;
+        float minZ = Float.POSITIVE_INFINITY;
+        float maxX = Float.NEGATIVE_INFINITY;
+        float maxY = Float.NEGATIVE_INFINITY;
+        float maxZ = Float.NEGATIVE_INFINITY;
+
+        for (int t = 0; t < triangleCount; t++) {
+            int o = t * 9;
+            for (int k = 0; k < 3; k++) {
+                int p = indices[t * 3 + k] * 3;
+                vertices[o + k * 3] = positions[p];
+                vertices[o + k * 3 + 1] = positions[p + 1];
+                vertices[o + k * 3 + 2] = positions[p + 2];
+                minX = Math.min(minX, positions[p]);
+                minY = Math.min(minY, positions[p + 1]);
+                minZ = Math.min(minZ, positions[p + 2]);
+                maxX = Math.max(maxX, positions[p]);
+                maxY = Math.max(maxY, positions[p + 1]);
+                maxZ = Math.max(maxZ, positions[p + 2]);
+            }
+            float ux = vertices[o + 3] - vertices[o];
+            float uy = vertices[o + 4] - vertices[o + 1];
+            float uz = vertices[o + 5] - vertices[o + 2];
+            float vx = vertices[o + 6] - vertices[o];
+            float vy = vertices[o + 7] - vertices[o + 1];
+            float vz = vertices[o + 8] - vertices[o + 2];
+            float nx = uy * vz - uz * vy;
+            float ny = uz * vx - ux * vz;
+            float nz = ux * vy - uy * vx;
+            float len = (float) Math.sqrt(nx * nx + ny * ny + nz * nz);
+            if (len > 1e-12f) {
+                nx /= len;
+                ny /= len;
+                nz /= len;
+            } else {
+                nx = 0f;
+                ny = 0f;
+                nz = 1f;
+            }
+            for (int k = 0; k < 3; k++) {
+                normals[o + k * 3] = nx;
+                normals[o + k * 3 + 1] = ny;
+                normals[o + k * 3 + 2] = nz;
+            }
+        }
+
+        float radius = Math.max(maxX - minX, Math.max(maxY - minY, maxZ - minZ)) * 0.6f;
+        if (!(radius >= 0.001f)) {
+            radius = 1f;
+        }
+        return new StlModel(vertices, normals, (minX + maxX) * 0.5f, (minY + maxY) * 0.5f, (minZ + maxZ) * 0.5f,
+                radius);
+    }
+
+    // One entry per distinct undirected edge, as a pair of corner indices (triangle * 3 + k). Corners line
+    // up with the triangle-soup vertices this mesh was welded from, so the pairs index StlModel.vertices.
+    int[] uniqueEdges() {
+        int expected = Math.max(16, triangleCount * 3 / 2);
+        int tableSize = Integer.highestOneBit(expected * 2 - 1) << 1;
+        int mask = tableSize - 1;
+        long[] keys = new long[tableSize];
+        int[] out = new int[expected * 2];
+        int count = 0;
+        for (int t = 0; t < triangleCount; t++) {
+            for (int k = 0; k < 3; k++) {
+                int from = indices[t * 3 + k];
+                int to = indices[t * 3 + (k + 1) % 3];
+                if (from == to) {
+                    continue;
+                }
+                if (count * 2 >= tableSize) {
+                    keys = rehash(keys, tableSize << 1);
+                    tableSize <<= 1;
+                    mask = tableSize - 1;
+                }
+                // (low << 32 | high) + 1, so 0 marks an empty slot
+                long key = (((long) Math.min(from, to) << 32) | Math.max(from, to)) + 1;
+                int slot = mixEdge(key) & mask;
+                while (keys[slot] != 0 && keys[slot] != key) {
+                    slot = (slot + 1) & mask;
+                }
+                if (keys[slot] != 0) {
+                    continue;
+                }
+                keys[slot] = key;
+                if (count * 2 + 2 > out.length) {
+                    out = Arrays.copyOf(out, out.length * 2);
+                }
+                out[count * 2] = t * 3 + k;
+                out[count * 2 + 1] = t * 3 + (k + 1) % 3;
+                count++;
+            }
+        }
+        return Arrays.copyOf(out, count * 2);
+    }
+
+    private static long[] rehash(long[] keys, int size) {
+        long[] grown = new long[size];
+        int mask = size - 1;
+        for (long key : keys) {
+            if (key == 0) {
+                continue;
+            }
+            int slot = mixEdge(key) & mask;
+            while (grown[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            grown[slot] = key;
+        }
+        return grown;
+    }
+
+    private static int mixEdge(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    boolean isDegenerate(int triangle) {
+        int a = indices[triangle * 3];
+        int b = indices[triangle * 3 + 1];
+        int c = indices[triangle * 3 + 2];
+        return a == b || b == c || a == c;
+    }
+
+    // -0.0 and 0.0 are the same point
+    private static int bits(float value) {
+        return value == 0f ? 0 : Float.floatToIntBits(value);
+    }
+
+    private static int mix(int x, int y, int z) {
+        int h = x * 0x9E3779B1;
+        h ^= y * 0x85EBCA77;
+        h ^= z * 0xC2B2AE3D;
+        return h ^ (h >>> 15);
+    }
+}
@@ -0,0 +1,345 @@
+package com.openscad.standalone;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+// Extracts a library archive into its folder under the libraries directory through the content store.
+// Each import leaves a manifest (path, hash, zip CRC, size per file) so that importing a newer version of
+// the same archive rewrites only the files whose content changed and deletes the ones that were dropped.
+//
+// A seekable archive is read through ZipFile, whose central directory gives every entry's CRC and size up
+// front: unchanged entries are skipped without inflating, and the rest are extracted on several threads.
+// Anything else (a pipe from a cloud provider, say) is streamed once through ZipInputStream.
+class LibraryArchiveImport {
+
+    static class Result {
+        final File root;
+        final int total;
+        final int unchanged;
+        // Written or replaced, then deleted: the files whose content changed for dependants
+        final List<File> written = new ArrayList<File>();
+        final List<File> removed = new ArrayList<File>();
+
+        Result(File root, int total, int unchanged) {
+            this.root = root;
+            this.total = total;
+            this.unchanged = unchanged;
+        }
+    }
+
+    private static class Record {
+        final String hash;
+        final long crc;
+        final long size;
+
+        Record(String hash, long crc, long size) {
+            this.hash = hash;
+            this.crc = crc;
+            this.size = size;
+        }
+    }
+
+    static final String MANIFEST_HEADER = "# openscad-library-import 1";
+
+    private static final int MAX_THREADS = 4;
+    private static final int BUFFER_SIZE = 65536;
+
+    private final File root;
+    private final String rootPath;
+    private final LibraryContentStore store;
+    private final File manifestFile;
+    private final Map<String, Record> previous;
+    private final Map<String, Record> current = new HashMap<String, Record>();
+    private final List<File> written = new ArrayList<File>();
+    private int unchanged;
+
+    LibraryArchiveImport(File root, LibraryContentStore store, File manifestFile) throws IOException {
+        this.root = root;
+        this.rootPath = root.getCanonicalPath() + File.separator;
+        this.store = store;
+        this.manifestFile = manifestFile;
+        this.previous = readManifest(manifestFile);
+    }
+
+    static boolean hasManifest(File manifestFile) {
+        return manifestFile.isFile();
+    }
+
+    Result extract(File seekableArchive) throws IOException {
+        try (final ZipFile zip = new ZipFile(seekableArchive)) {
+            final List<ZipEntry> entries = new ArrayList<ZipEntry>();
+            Enumeration<? extends ZipEntry> all = zip.entries();
+            while (all.hasMoreElements()) {
+                ZipEntry entry = all.nextElement();
+                if (!entry.isDirectory() && targetFor(entry.getName()) != null) {
+                    entries.add(entry);
+                }
+            }
+
+            int threads = Math.max(1, Math.min(MAX_THREADS,
+                    Math.min(entries.size(), Runtime.getRuntime().availableProcessors())));
+            final AtomicInteger next = new AtomicInteger();
+            ExecutorService pool = Executors.newFixedThreadPool(threads);
+            try {
+                List<Future<?>> futures = new ArrayList<Future<?>>();
+                for (int t = 0; t < threads; t++) {
+                    futures.add(pool.submit(new Callable<Void>() {
+                        @Override
+                        public Void call() throws IOException {
+                            byte[] buffer = new byte[BUFFER_SIZE];
+                            // entries vary wildly in size, so workers pull the next one instead of taking slices
+                            int i;
+                            while ((i = next.getAndIncrement()) < entries.size()) {
+                                ZipEntry entry = entries.get(i);
+                                String path = normalizeName(entry.getName());
+                                if (isUnchanged(path, entry.getCrc(), entry.getSize())) {
+                                    continue;
+                                }
+                                try (InputStream in = zip.getInputStream(entry)) {
+                                    store(path, entry, in, buffer);
+                                }
+                            }
+                            return null;
+                        }
+                    }));
+                }
+                for (Future<?> future : futures) {
+                    try {
+                        future.get();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new IOException("Import interrupted", e);
+                    } catch (ExecutionException e) {
+                        Throwable cause = e.getCause();
+                        if (cause instanceof IOException) {
+                            throw (IOException) cause;
+                        }
+                        throw new IOException("Import failed: " + cause, cause);
+                    }
+                }
+            } finally {
+                pool.shutdownNow();
+            }
+        }
+        return finish();
+    }
+
+    Result extract(InputStream archive) throws IOException {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        try (ZipInputStream zipIn = new ZipInputStream(archive)) {
+            ZipEntry entry;
+            while ((entry = zipIn.getNextEntry()) != null) {
+                if (entry.isDirectory() || targetFor(entry.getName()) == null) {
+                    continue;
+                }
+                // sizes and CRC may only follow the data here, so every entry is hashed; the store reads the
+                // current entry without closing the archive stream
+                store(normalizeName(entry.getName()), entry, zipIn, buffer);
+            }
+        }
+        return finish();
+    }
+
+    // Skips an entry whose CRC and size match the last import when its file is still in place
+    private boolean isUnchanged(String path, long crc, long size) {
+        Record old = previous.get(path);
+        if (old == null || crc < 0 || size < 0 || old.crc != crc || old.size != size) {
+            return false;
+        }
+        File target = new File(root, path);
+        if (!target.isFile() || target.length() != size || !store.contains(old.hash)) {
+            return false;
+        }
+        synchronized (this) {
+            current.put(path, old);
+            unchanged++;
+        }
+        return true;
+    }
+
+    private void store(String path, ZipEntry entry, InputStream in, byte[] buffer) throws IOException {
+        File target = new File(root, path);
+        CountingInputStream counted = new CountingInputStream(in);
+        String hash = store.put(counted, buffer);
+        // read after the data, when a streamed entry has its CRC filled in
+        long crc = entry.getCrc();
+        long length = counted.count;
+        Record old = previous.get(path);
+        boolean same = old != null && old.hash.equals(hash) && target.isFile() && target.length() == length;
+        if (!same) {
+            store.materialize(hash, target);
+        }
+        synchronized (this) {
+            current.put(path, new Record(hash, crc, length));
+            if (same) {
+                unchanged++;
+            } else {
+                written.add(target);
+            }
+        }
+    }
+
+    private Result finish() throws IOException {
+        if (current.isEmpty()) {
+            throw new IOException("Archive was empty");
+        }
+        Result result = new Result(root, current.size(), unchanged);
+        result.written.addAll(written);
+        for (String path : previous.keySet()) {
+            if (!current.containsKey(path)) {
+                File gone = new File(root, path);
+                if (gone.delete()) {
+                    result.removed.add(gone);
+                }
+            }
+        }
+        writeManifest();
+        return result;
+    }
+
+    // Null for entries that must not be extracted: empty names, parent references, or paths escaping root
+    private File targetFor(String rawName) throws IOException {
+        String name = normalizeName(rawName);
+        if (name.isEmpty() || name.contains("..")) {
+            return null;
+        }
+        File outFile = new File(root, name);
+        if (!outFile.getCanonicalPath().startsWith(rootPath)) {
+            return null;
+        }
+        return outFile;
+    }
+
+    private static String normalizeName(String rawName) {
+        if (rawName == null) {
+            return "";
+        }
+        String name = rawName.trim().replace('\\', '/');
+        while (name.startsWith("/")) {
+            name = name.substring(1);
+        }
+        return name;
+    }
+
+    // Hashes still referenced by any import manifest in dir, for garbage-collecting the store
+    static Set<String> liveHashes(File manifestsDir) {
+        Set<String> live = new HashSet<String>();
+        File[] manifests = manifestsDir.listFiles();
+        if (manifests == null) {
+            return live;
+        }
+        for (File manifest : manifests) {
+            for (Record record : readManifest(manifest).values()) {
+                live.add(record.hash);
+            }
+        }
+        return live;
+    }
+
+    private static Map<String, Record> readManifest(File file) {
+        Map<String, Record> records = new HashMap<String, Record>();
+        if (!file.isFile()) {
+            return records;
+        }
+        String[] lines;
+        try (InputStream in = new FileInputStream(file)) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buf = new byte[8192];
+            int read;
+            while ((read = in.read(buf)) != -1) {
+                out.write(buf, 0, read);
+            }
+            lines = new String(out.toByteArray(), StandardCharsets.UTF_8).split("\n");
+        } catch (IOException e) {
+            return records;
+        }
+        if (lines.length == 0 || !MANIFEST_HEADER.equals(lines[0].trim())) {
+            return records;
+        }
+        for (int i = 1; i < lines.length; i++) {
+            String[] parts = lines[i].split("\t", -1);
+            if (parts.length != 4) {
+                continue;
+            }
+            try {
+                records.put(parts[0], new Record(parts[1], Long.parseLong(parts[2]), Long.parseLong(parts[3])));
+            } catch (NumberFormatException ignored) {
+            }
+        }
+        return records;
+    }
+
+    private void writeManifest() throws IOException {
+        StringBuilder sb = new StringBuilder(MANIFEST_HEADER).append('\n');
+        for (Map.Entry<String, Record> e : current.entrySet()) {
+            Record record = e.getValue();
+            sb.append(e.getKey())
+                    .append('\t').append(record.hash)
+                    .append('\t').append(record.crc)
+                    .append('\t').append(record.size)
+                    .append('\n');
+        }
+        File parent = manifestFile.getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("Could not create " + parent.getAbsolutePath());
+        }
+        File tmp = new File(manifestFile.getPath() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(tmp, false)) {
+            out.write(sb.toString().getBytes(StandardCharsets.UTF_8));
+        }
+        if (manifestFile.exists() && !manifestFile.delete()) {
+            throw new IOException("Could not replace " + manifestFile);
+        }
+        if (!tmp.renameTo(manifestFile)) {
+            throw new IOException("Could not write " + manifestFile);
+        }
+    }
+
+    private static class CountingInputStream extends InputStream {
+        private final InputStream in;
+        long count;
+
+        CountingInputStream(InputStream in) {
+            this.in = in;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = in.read();
+            if (b >= 0) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int read = in.read(buffer, offset, length);
+            if (read > 0) {
+                count += read;
+            }
+            return read;
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package com.openscad.standalone;
+
+import android.system.ErrnoException;
+import android.system.Os;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Content-addressed copies of imported library files (objects/ab/cdef... by SHA-1). Library folders are
+// hard links to these objects, so identical files across libraries or library versions take the disk
+// space once; where links are not supported the file is copied instead.
+class LibraryContentStore {
+
+    private final File objectsDir;
+    private final File tmpDir;
+    private final AtomicLong tmpCounter = new AtomicLong();
+
+    LibraryContentStore(File root) {
+        this.objectsDir = new File(root, "objects");
+        this.tmpDir = new File(root, "tmp");
+    }
+
+    // Streams in into a temporary file while hashing it, then files it under its hash. Returns the hash;
+    // content already in the store is discarded.
+    String put(InputStream in, byte[] buffer) throws IOException {
+        if (!tmpDir.isDirectory() && !tmpDir.mkdirs()) {
+            throw new IOException("Could not create " + tmpDir.getAbsolutePath());
+        }
+        File tmp = new File(tmpDir, Thread.currentThread().getId() + "-" + tmpCounter.incrementAndGet());
+        MessageDigest digest = newDigest();
+        try {
+            try (OutputStream out = new FileOutputStream(tmp)) {
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    digest.update(buffer, 0, read);
+                    out.write(buffer, 0, read);
+                }
+            }
+            String hash = toHex(digest.digest());
+            File object = objectFile(hash);
+            if (object.isFile()) {
+                return hash;
+            }
+            File parent = object.getParentFile();
+            if (!parent.isDirectory() && !parent.mkdirs() && !parent.isDirectory()) {
+                throw new IOException("Could not create " + parent.getAbsolutePath());
+            }
+            // another worker may have stored the same content meanwhile; either copy is fine
+            if (!tmp.renameTo(object) && !object.isFile()) {
+                throw new IOException("Could not store " + object.getAbsolutePath());
+            }
+            return hash;
+        } finally {
+            tmp.delete();
+        }
+    }
+
+    boolean contains(String hash) {
+        return objectFile(hash).isFile();
+    }
+
+    // Replaces target with the stored content for hash
+    void materialize(String hash, File target) throws IOException {
+        File object = objectFile(hash);
+        File parent = target.getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs() && !parent.isDirectory()) {
+            throw new IOException("Could not create " + parent.getAbsolutePath());
+        }
+        File tmp = new File(target.getPath() + ".import");
+        tmp.delete();
+        try {
+            Os.link(object.getAbsolutePath(), tmp.getAbsolutePath());
+        } catch (ErrnoException e) {
+            copy(object, tmp);
+        }
+        if (target.exists() && !target.delete()) {
+            tmp.delete();
+            throw new IOException("Could not replace " + target);
+        }
+        if (!tmp.renameTo(target)) {
+            tmp.delete();
+            throw new IOException("Could not write " + target);
+        }
+    }
+
+    // Drops objects no library refers to any more; returns how many
+    int retainOnly(Set<String> live) {
+        int removed = 0;
+        File[] buckets = objectsDir.listFiles();
+        if (buckets == null) {
+            return 0;
+        }
+        for (File bucket : buckets) {
+            File[] objects = bucket.listFiles();
+            if (objects == null) {
+                continue;
+            }
+            for (File object : objects) {
+                if (!live.contains(bucket.getName() + object.getName()) && object.delete()) {
+                    removed++;
+                }
+            }
+        }
+        return removed;
+    }
+
+    private File objectFile(String hash) {
+        return new File(new File(objectsDir, hash.substring(0, 2)), hash.substring(2));
+    }
+
+    private static void copy(File source, File target) throws IOException {
+        try (InputStream in = new FileInputStream(source);
+                OutputStream out = new FileOutputStream(target)) {
+            byte[] buffer = new byte[65536];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+        }
+    }
+
+    private static MessageDigest newDigest() throws IOException {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException("SHA-1 unavailable", e);
+        }
+    }
+
+    private static String toHex(byte[] digest) {
+        StringBuilder sb = new StringBuilder(digest.length * 2);
+        for (byte b : digest) {
+            sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return sb.toString();
+    }
+}
@@ -3,34 +3,81 @@ package com.openscad.standalone;
 import android.content.Context;
 import android.database.Cursor;
 import android.net.Uri;
+import android.os.ParcelFileDescriptor;
 import android.provider.OpenableColumns;
+import android.system.ErrnoException;
+import android.system.Os;
+import android.system.OsConstants;
 
 import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collections;
-import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipInputStream;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.ZipException;
 
 class LibraryManager {
 
+    static class ImportResult {
+        final String summary;
+        final List<File> files;
+
+        ImportResult(String summary, List<File> files) {
+            this.summary = summary;
+            this.files = files;
+        }
+    }
+
+    // What one directory held at its last scan. Directory mtimes change when entries are added, removed or
+    // renamed, so an unchanged mtime means the names below are still right and only subfolders need a look.
+    private static class DirListing {
+        final long lastModified;
+        final long scannedAt;
+        final List<String> scadPaths;
+        final List<File> subdirs;
+
+        DirListing(long lastModified, long scannedAt, List<String> scadPaths, List<File> subdirs) {
+            this.lastModified = lastModified;
+            this.scannedAt = scannedAt;
+            this.scadPaths = scadPaths;
+            this.subdirs = subdirs;
+        }
+    }
+
+    // A directory modified this close to its scan may change again within the same mtime tick; such
+    // listings are rescanned instead of trusted
+    private static final long MTIME_SLACK_MS = 2000;
+
     private final Context appContext;
     private final File librariesDir;
     private final File librarySourcesDir;
+    private final LibrarySymbolIndex symbolIndex;
+    private final LibraryContentStore contentStore;
+    // One manifest per archive-imported library folder, named like the folder
+    private final File importManifestsDir;
+    private final Map<String, DirListing> dirListings = new HashMap<String, DirListing>();
+    private List<String> cachedLibraries;
 
     LibraryManager(Context context, OpenScadRuntime runtime) {
         this.appContext = context.getApplicationContext();
         this.librariesDir = runtime.getUserLibrariesDir();
         this.librarySourcesDir = runtime.getUserLibrarySourcesDir();
+        this.symbolIndex = new LibrarySymbolIndex(new File(appContext.getFilesDir(), "library_symbols"),
+                librariesDir);
+        File storeRoot = new File(appContext.getFilesDir(), "library_store");
+        this.contentStore = new LibraryContentStore(storeRoot);
+        this.importManifestsDir = new File(storeRoot, "imports");
 
         if (!librariesDir.exists()) {
             librariesDir.mkdirs();
@@ -48,11 +95,33 @@ class LibraryManager {
         return librarySourcesDir;
     }
 
-    List<String> listLibraries() {
+    // Every .scad file under the libraries folder, sorted. Costs one stat per directory when nothing changed,
+    // and returns the very same list instance in that case, so callers can tell a change by identity.
+    synchronized List<String> listLibraries() {
+        Set<String> visited = new HashSet<String>();
         List<String> libs = new ArrayList<String>();
-        collectLibraryScadFiles(librariesDir, librariesDir, libs);
+        boolean changed = collectLibraryScadFiles(librariesDir, libs, visited);
+        if (dirListings.keySet().retainAll(visited)) {
+            changed = true;
+        }
+        if (!changed && cachedLibraries != null) {
+            return cachedLibraries;
+        }
         Collections.sort(libs, String.CASE_INSENSITIVE_ORDER);
-        return libs;
+        cachedLibraries = Collections.unmodifiableList(libs);
+        return cachedLibraries;
+    }
+
+    // Re-parses library files changed since the last run and returns how many; slow on a first run with
+    // large libraries, so callers keep it off the UI thread
+    int refreshSymbols(List<String> libs) {
+        int parsed = symbolIndex.refresh(libs);
+        saveSymbols();
+        return parsed;
+    }
+
+    List<LibrarySymbolIndex.Symbol> symbols() {
+        return symbolIndex.symbols();
     }
 
     String readLibrarySource(String libraryPath) throws IOException {
@@ -66,7 +135,7 @@ class LibraryManager {
         return readTextFile(file);
     }
 
-    String importFromUri(Uri uri) throws IOException {
+    ImportResult importFromUri(Uri uri) throws IOException {
         if (uri == null) {
             throw new IOException("Missing uri");
         }
@@ -78,43 +147,75 @@ class LibraryManager {
 
         String safeName = makeSafeLibraryName(displayName);
         String lower = safeName.toLowerCase(Locale.US);
-        File sourceCopy = resolveUniqueFile(new File(librarySourcesDir, safeName));
-        copyUriToFile(uri, sourceCopy);
-
         if (lower.endsWith(".zip")) {
-            int count = unzipLibraryArchive(sourceCopy, safeName);
-            return safeName + " copied + extracted (" + count + " files)";
+            LibraryArchiveImport.Result result = importArchive(uri, safeName);
+            List<File> changed = new ArrayList<File>(result.written);
+            changed.addAll(result.removed);
+            symbolIndex.update(changed);
+            saveSymbols();
+            return new ImportResult(result.root.getName() + " extracted (" + result.total + " files: "
+                    + result.written.size() + " written, " + result.unchanged + " unchanged, "
+                    + result.removed.size() + " removed)", changed);
         }
 
+        File sourceCopy = resolveUniqueFile(new File(librarySourcesDir, safeName));
+        copyUriToFile(uri, sourceCopy);
+
         if (!lower.endsWith(".scad")) {
             safeName = safeName + ".scad";
         }
         File target = resolveUniqueFile(new File(librariesDir, safeName));
         copyFile(sourceCopy, target);
-        return target.getName() + " copied";
+        symbolIndex.update(Collections.singletonList(target));
+        saveSymbols();
+        return new ImportResult(target.getName() + " copied", Collections.singletonList(target));
     }
 
-    private void collectLibraryScadFiles(File root, File dir, List<String> out) {
-        File[] files = dir.listFiles();
-        if (files == null) {
-            return;
+    private void saveSymbols() {
+        try {
+            symbolIndex.save();
+        } catch (IOException ignored) {
         }
-        Arrays.sort(files, new Comparator<File>() {
-            @Override
-            public int compare(File a, File b) {
-                return a.getName().compareToIgnoreCase(b.getName());
-            }
-        });
-        for (File file : files) {
-            if (file.isDirectory()) {
-                collectLibraryScadFiles(root, file, out);
-            } else if (file.getName().toLowerCase(Locale.US).endsWith(".scad")) {
-                String path = root.toURI().relativize(file.toURI()).getPath();
-                if (path != null && !path.trim().isEmpty()) {
-                    out.add(path);
+    }
+
+    // Returns whether any directory had to be re-read
+    private boolean collectLibraryScadFiles(File dir, List<String> out, Set<String> visited) {
+        String key = dir.getAbsolutePath();
+        visited.add(key);
+        long lastModified = dir.lastModified();
+        DirListing listing = dirListings.get(key);
+        boolean changed = false;
+        if (listing == null || listing.lastModified != lastModified
+                || listing.scannedAt - listing.lastModified < MTIME_SLACK_MS) {
+            listing = scanDirectory(dir, lastModified);
+            dirListings.put(key, listing);
+            changed = true;
+        }
+        out.addAll(listing.scadPaths);
+        for (File subdir : listing.subdirs) {
+            changed |= collectLibraryScadFiles(subdir, out, visited);
+        }
+        return changed;
+    }
+
+    private DirListing scanDirectory(File dir, long lastModified) {
+        long scannedAt = System.currentTimeMillis();
+        List<String> scadPaths = new ArrayList<String>();
+        List<File> subdirs = new ArrayList<File>();
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.isDirectory()) {
+                    subdirs.add(file);
+                } else if (file.getName().toLowerCase(Locale.US).endsWith(".scad")) {
+                    String path = librariesDir.toURI().relativize(file.toURI()).getPath();
+                    if (path != null && !path.trim().isEmpty()) {
+                        scadPaths.add(path);
+                    }
                 }
             }
         }
+        return new DirListing(lastModified, scannedAt, scadPaths, subdirs);
     }
 
     private String queryDisplayName(Uri uri) {
@@ -135,73 +236,70 @@ class LibraryManager {
         return null;
     }
 
-    private int unzipLibraryArchive(File archiveFile, String archiveName) throws IOException {
+    // Extracts straight from the picked document: through ZipFile when the provider hands out a seekable
+    // file, otherwise as one stream. A folder left by an earlier import of the same archive name is updated
+    // in place; any other existing folder gets a fresh unique name.
+    private LibraryArchiveImport.Result importArchive(Uri uri, String archiveName) throws IOException {
         String baseDirName = makeSafeLibraryName(stripExtension(archiveName));
         if (baseDirName.isEmpty()) {
             baseDirName = "library";
         }
-        File importRoot = resolveUniqueDirectory(new File(librariesDir, baseDirName));
+        File importRoot = new File(librariesDir, baseDirName);
+        if (importRoot.exists() && !LibraryArchiveImport.hasManifest(new File(importManifestsDir, baseDirName))) {
+            importRoot = resolveUniqueDirectory(importRoot);
+        }
         if (!importRoot.exists() && !importRoot.mkdirs()) {
             throw new IOException("Could not create " + importRoot.getAbsolutePath());
         }
-
-        try (InputStream baseIn = new FileInputStream(archiveFile);
-                ZipInputStream zipIn = new ZipInputStream(new BufferedInputStream(baseIn))) {
-
-            byte[] buffer = new byte[8192];
-            int writtenFiles = 0;
-            String rootPath = importRoot.getCanonicalPath() + File.separator;
-
-            ZipEntry entry;
-            while ((entry = zipIn.getNextEntry()) != null) {
-                String name = entry.getName();
-                if (name == null || name.trim().isEmpty()) {
-                    zipIn.closeEntry();
-                    continue;
-                }
-                name = name.replace('\\', '/');
-                while (name.startsWith("/")) {
-                    name = name.substring(1);
-                }
-                if (name.contains("..")) {
-                    zipIn.closeEntry();
-                    continue;
-                }
-
-                File outFile = new File(importRoot, name);
-                String outPath = outFile.getCanonicalPath();
-                if (!(outPath.equals(importRoot.getCanonicalPath()) || outPath.startsWith(rootPath))) {
-                    zipIn.closeEntry();
-                    continue;
-                }
-
-                if (entry.isDirectory()) {
-                    outFile.mkdirs();
-                    zipIn.closeEntry();
-                    continue;
-                }
-
-                File parent = outFile.getParentFile();
-                if (parent != null && !parent.exists() && !parent.mkdirs()) {
-                    throw new IOException("Could not create " + parent.getAbsolutePath());
-                }
-
-                try (FileOutputStream out = new FileOutputStream(outFile)) {
-                    int read;
-                    while ((read = zipIn.read(buffer)) != -1) {
-                        out.write(buffer, 0, read);
+        File manifest = new File(importManifestsDir, importRoot.getName());
+
+        LibraryArchiveImport.Result result = null;
+        ParcelFileDescriptor opened;
+        try {
+            opened = appContext.getContentResolver().openFileDescriptor(uri, "r");
+        } catch (FileNotFoundException | SecurityException e) {
+            opened = null;
+        }
+        if (opened != null) {
+            try (ParcelFileDescriptor descriptor = opened) {
+                File seekable = seekablePath(descriptor);
+                if (seekable != null) {
+                    try {
+                        result = new LibraryArchiveImport(importRoot, contentStore, manifest).extract(seekable);
+                    } catch (ZipException e) {
+                        // not a zip ZipFile can read (e.g. no central directory); the stream reader may still cope
+                        result = null;
                     }
-                    out.flush();
                 }
-                writtenFiles++;
-                zipIn.closeEntry();
             }
-
-            if (writtenFiles <= 0) {
-                throw new IOException("Archive was empty");
+        }
+        // reached only without a seekable file or when ZipFile rejected the archive; write errors propagate
+        if (result == null) {
+            try (InputStream in = appContext.getContentResolver().openInputStream(uri)) {
+                if (in == null) {
+                    throw new IOException("Could not open selected file");
+                }
+                result = new LibraryArchiveImport(importRoot, contentStore, manifest)
+                        .extract(new BufferedInputStream(in, 65536));
             }
-            return writtenFiles;
         }
+        contentStore.retainOnly(LibraryArchiveImport.liveHashes(importManifestsDir));
+        return result;
+    }
+
+    // The descriptor's /proc path reopens the same file, so ZipFile gets random access to it; null for pipes
+    // and other descriptors that cannot seek
+    private static File seekablePath(ParcelFileDescriptor descriptor) {
+        if (descriptor.getStatSize() < 0) {
+            return null;
+        }
+        try {
+            Os.lseek(descriptor.getFileDescriptor(), 0, OsConstants.SEEK_SET);
+        } catch (ErrnoException e) {
+            return null;
+        }
+        File seekable = new File("/proc/self/fd/" + descriptor.getFd());
+        return seekable.canRead() ? seekable : null;
     }
 
     private void copyUriToFile(Uri uri, File target) throws IOException {
@@ -0,0 +1,264 @@
+package com.openscad.standalone;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+
+// Type-ahead search over library file paths and indexed symbol names. Keys are packed in one sorted char
+// array, so prefix hits are a binary-searched range; anything else must contain the query as a
+// subsequence, which a per-key character bitmask rejects cheaply for most keys. Each keystroke that extends
+// the previous query only re-checks the previous matches.
+//
+// Built off the UI thread; search() keeps per-instance state and is meant for the UI thread only.
+class LibrarySearch {
+
+    static final int FILES = 1;
+    static final int SYMBOLS = 2;
+
+    static class Hit {
+        final String label;
+        // Library path of the file, or of the file declaring the symbol
+        final String path;
+        // Null for file hits
+        final LibrarySymbolIndex.Symbol symbol;
+
+        Hit(String label, String path, LibrarySymbolIndex.Symbol symbol) {
+            this.label = label;
+            this.path = path;
+            this.symbol = symbol;
+        }
+
+        @Override
+        public String toString() {
+            return label;
+        }
+    }
+
+    private final Hit[] hits;
+    // Lower-cased keys in sorted order, packed back to back: key i is keys[keyStart[i] .. keyStart[i + 1])
+    private final char[] keys;
+    private final int[] keyStart;
+    private final long[] masks;
+    private final int fileCount;
+    private final int symbolCount;
+    // Matches of the last query, in key order, reused while the user keeps typing
+    private String lastQuery = "";
+    private int[] lastMatches;
+    private int lastMatchCount = -1;
+    private int[] spareMatches;
+    // Per entry: whether it contains the last query contiguously; only valid for entries in lastMatches
+    private final boolean[] contiguous;
+
+    LibrarySearch(List<String> files, List<LibrarySymbolIndex.Symbol> symbols) {
+        int n = files.size() + symbols.size();
+        final String[] sortKeys = new String[n];
+        Hit[] unsorted = new Hit[n];
+        int k = 0;
+        for (String path : files) {
+            sortKeys[k] = path.toLowerCase(Locale.US);
+            unsorted[k++] = new Hit(path, path, null);
+        }
+        for (LibrarySymbolIndex.Symbol symbol : symbols) {
+            sortKeys[k] = symbol.name.toLowerCase(Locale.US);
+            unsorted[k++] = new Hit(symbol.name + "(" + symbol.params + ")  " + symbol.path, symbol.path, symbol);
+        }
+        Integer[] order = new Integer[n];
+        for (int i = 0; i < n; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return sortKeys[a].compareTo(sortKeys[b]);
+            }
+        });
+
+        hits = new Hit[n];
+        keyStart = new int[n + 1];
+        masks = new long[n];
+        int total = 0;
+        for (String key : sortKeys) {
+            total += key.length();
+        }
+        keys = new char[total];
+        int at = 0;
+        for (int i = 0; i < n; i++) {
+            String key = sortKeys[order[i]];
+            hits[i] = unsorted[order[i]];
+            keyStart[i] = at;
+            key.getChars(0, key.length(), keys, at);
+            at += key.length();
+            masks[i] = charMask(key);
+        }
+        keyStart[n] = at;
+        lastMatches = new int[n];
+        spareMatches = new int[n];
+        contiguous = new boolean[n];
+        fileCount = files.size();
+        symbolCount = symbols.size();
+    }
+
+    int count(int kinds) {
+        return ((kinds & FILES) != 0 ? fileCount : 0) + ((kinds & SYMBOLS) != 0 ? symbolCount : 0);
+    }
+
+    // Best matches first: keys starting with the query, then keys containing it, then keys containing its
+    // letters in order. Within each tier hits stay in key order.
+    List<Hit> search(String rawQuery, int kinds, int limit) {
+        String query = rawQuery == null ? "" : rawQuery.trim().toLowerCase(Locale.US);
+        List<Hit> out = new ArrayList<Hit>();
+        if (query.isEmpty()) {
+            for (int i = 0; i < hits.length && out.size() < limit; i++) {
+                if (accepts(i, kinds)) {
+                    out.add(hits[i]);
+                }
+            }
+            return out;
+        }
+
+        match(query);
+        int prefixStart = lowerBound(query);
+        int prefixEnd = lowerBound(query + Character.MAX_VALUE);
+        for (int i = prefixStart; i < prefixEnd && out.size() < limit; i++) {
+            if (accepts(i, kinds)) {
+                out.add(hits[i]);
+            }
+        }
+        int tierStart = out.size();
+        List<Hit> scattered = new ArrayList<Hit>();
+        for (int m = 0; m < lastMatchCount && out.size() < limit; m++) {
+            int i = lastMatches[m];
+            if ((i >= prefixStart && i < prefixEnd) || !accepts(i, kinds)) {
+                continue;
+            }
+            if (contiguous[i]) {
+                out.add(hits[i]);
+            } else if (tierStart + scattered.size() < limit) {
+                scattered.add(hits[i]);
+            }
+        }
+        for (int i = 0; i < scattered.size() && out.size() < limit; i++) {
+            out.add(scattered.get(i));
+        }
+        return out;
+    }
+
+    // Fills lastMatches with every entry whose key contains the query as a subsequence
+    private void match(String query) {
+        if (query.equals(lastQuery) && lastMatchCount >= 0) {
+            return;
+        }
+        boolean narrowing = lastMatchCount >= 0 && !lastQuery.isEmpty() && query.startsWith(lastQuery);
+        char[] q = query.toCharArray();
+        long mask = charMask(query);
+        int candidateCount = narrowing ? lastMatchCount : hits.length;
+        int[] matches = spareMatches;
+        int count = 0;
+        for (int c = 0; c < candidateCount; c++) {
+            int i = narrowing ? lastMatches[c] : c;
+            if ((masks[i] & mask) != mask) {
+                continue;
+            }
+            int found = find(q, keyStart[i], keyStart[i + 1]);
+            if (found != 0) {
+                contiguous[i] = found == 2;
+                matches[count++] = i;
+            }
+        }
+        spareMatches = lastMatches;
+        lastQuery = query;
+        lastMatches = matches;
+        lastMatchCount = count;
+    }
+
+    // 0 when the key lacks the query's letters in order, 1 for a scattered match, 2 when the key contains
+    // the query as a substring
+    private int find(char[] q, int start, int end) {
+        int k = start;
+        int first = -1;
+        for (int j = 0; j < q.length; j++) {
+            char c = q[j];
+            while (k < end && keys[k] != c) {
+                k++;
+            }
+            if (k == end) {
+                return 0;
+            }
+            if (j == 0) {
+                first = k;
+            }
+            k++;
+        }
+        if (k - first == q.length) {
+            return 2;
+        }
+        // the greedy match was scattered; look for a contiguous occurrence after its first letter
+        for (int s = first + 1; s + q.length <= end; s++) {
+            int j = 0;
+            while (j < q.length && keys[s + j] == q[j]) {
+                j++;
+            }
+            if (j == q.length) {
+                return 2;
+            }
+        }
+        return 1;
+    }
+
+    private int lowerBound(String key) {
+        int lo = 0;
+        int hi = hits.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (compareKey(mid, key) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    private int compareKey(int i, String other) {
+        int start = keyStart[i];
+        int length = keyStart[i + 1] - start;
+        int common = Math.min(length, other.length());
+        for (int j = 0; j < common; j++) {
+            int diff = keys[start + j] - other.charAt(j);
+            if (diff != 0) {
+                return diff;
+            }
+        }
+        return length - other.length();
+    }
+
+    private boolean accepts(int i, int kinds) {
+        return (kinds & (hits[i].symbol == null ? FILES : SYMBOLS)) != 0;
+    }
+
+    // One bit per letter and digit, plus shared bits for '_', '/', '.' and everything else
+    private static long charMask(String s) {
+        long mask = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            int bit;
+            if (c >= 'a' && c <= 'z') {
+                bit = c - 'a';
+            } else if (c >= '0' && c <= '9') {
+                bit = 26 + (c - '0');
+            } else if (c == '_') {
+                bit = 36;
+            } else if (c == '/') {
+                bit = 37;
+            } else if (c == '.') {
+                bit = 38;
+            } else {
+                bit = 39;
+            }
+            mask |= 1L << bit;
+        }
+        return mask;
+    }
+}
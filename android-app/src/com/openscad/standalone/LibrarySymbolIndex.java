@@ -0,0 +1,348 @@
+package com.openscad.standalone;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// Top-level module and function declarations of every library file, with their parameter lists. A file is
+// re-parsed only when its mtime or size changes, and the whole index persists as one tab-separated file:
+//
+//   # openscad-library-symbols 1
+//   F <relative path> <mtime> <length>
+//   S <m|f> <name> <line> <params>      one per declaration of the preceding file
+class LibrarySymbolIndex {
+
+    static class Symbol {
+        final String name;
+        final boolean function;
+        // Parameter list as written, whitespace collapsed: "size=1, center=false"
+        final String params;
+        // Relative to the libraries folder, as used in use<>/include<>
+        final String path;
+        final int line;
+
+        Symbol(String name, boolean function, String params, String path, int line) {
+            this.name = name;
+            this.function = function;
+            this.params = params;
+            this.path = path;
+            this.line = line;
+        }
+
+        String signature() {
+            return (function ? "function " : "module ") + name + "(" + params + ")";
+        }
+    }
+
+    private static class Entry {
+        final long lastModified;
+        final long length;
+        final List<Symbol> symbols;
+
+        Entry(long lastModified, long length, List<Symbol> symbols) {
+            this.lastModified = lastModified;
+            this.length = length;
+            this.symbols = symbols;
+        }
+    }
+
+    static final String HEADER = "# openscad-library-symbols 1";
+
+    private static final Pattern DECLARATION = Pattern.compile(
+            "\\b(module|function)\\s+([A-Za-z_$][A-Za-z0-9_$]*)\\s*\\(");
+    private static final int MAX_PARAMS_LENGTH = 240;
+
+    private final File storeFile;
+    private final File root;
+    // Sorted by path so listings and the saved file are stable
+    private final Map<String, Entry> entries = new TreeMap<String, Entry>();
+    private boolean loaded;
+    private boolean dirty;
+    private List<Symbol> snapshot;
+
+    LibrarySymbolIndex(File storeFile, File root) {
+        this.storeFile = storeFile;
+        this.root = root;
+    }
+
+    // Brings the index in line with the whole libraries folder; returns how many files were re-parsed
+    synchronized int refresh(List<String> libraryPaths) {
+        ensureLoaded();
+        int parsed = 0;
+        Set<String> present = new HashSet<String>(libraryPaths);
+        for (String path : new ArrayList<String>(entries.keySet())) {
+            if (!present.contains(path)) {
+                entries.remove(path);
+                dirty = true;
+                snapshot = null;
+            }
+        }
+        for (String path : libraryPaths) {
+            if (refreshFile(path)) {
+                parsed++;
+            }
+        }
+        return parsed;
+    }
+
+    // Incremental update for files just written by an import
+    synchronized int update(Collection<File> files) {
+        ensureLoaded();
+        String rootPath = root.getAbsolutePath() + File.separator;
+        int parsed = 0;
+        for (File file : files) {
+            String absolute = file.getAbsolutePath();
+            if (!absolute.startsWith(rootPath) || !absolute.toLowerCase(Locale.US).endsWith(".scad")) {
+                continue;
+            }
+            if (refreshFile(absolute.substring(rootPath.length()).replace(File.separatorChar, '/'))) {
+                parsed++;
+            }
+        }
+        return parsed;
+    }
+
+    synchronized List<Symbol> symbols() {
+        ensureLoaded();
+        if (snapshot == null) {
+            List<Symbol> all = new ArrayList<Symbol>();
+            for (Entry entry : entries.values()) {
+                all.addAll(entry.symbols);
+            }
+            snapshot = all;
+        }
+        return snapshot;
+    }
+
+    synchronized void save() throws IOException {
+        if (!dirty) {
+            return;
+        }
+        StringBuilder sb = new StringBuilder(HEADER).append('\n');
+        for (Map.Entry<String, Entry> e : entries.entrySet()) {
+            Entry entry = e.getValue();
+            sb.append("F\t").append(e.getKey())
+                    .append('\t').append(entry.lastModified)
+                    .append('\t').append(entry.length)
+                    .append('\n');
+            for (Symbol symbol : entry.symbols) {
+                sb.append("S\t").append(symbol.function ? 'f' : 'm')
+                        .append('\t').append(symbol.name)
+                        .append('\t').append(symbol.line)
+                        .append('\t').append(symbol.params)
+                        .append('\n');
+            }
+        }
+
+        File tmp = new File(storeFile.getPath() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(tmp, false)) {
+            out.write(sb.toString().getBytes(StandardCharsets.UTF_8));
+        }
+        if (storeFile.exists() && !storeFile.delete()) {
+            throw new IOException("Could not replace " + storeFile);
+        }
+        if (!tmp.renameTo(storeFile)) {
+            throw new IOException("Could not write " + storeFile);
+        }
+        dirty = false;
+    }
+
+    private boolean refreshFile(String path) {
+        File file = new File(root, path);
+        Entry entry = entries.get(path);
+        if (!file.isFile()) {
+            if (entry != null) {
+                entries.remove(path);
+                dirty = true;
+                snapshot = null;
+            }
+            return false;
+        }
+        long lastModified = file.lastModified();
+        long length = file.length();
+        if (entry != null && entry.lastModified == lastModified && entry.length == length) {
+            return false;
+        }
+        List<Symbol> symbols;
+        try {
+            symbols = parse(new String(readAll(file), StandardCharsets.UTF_8), path);
+        } catch (IOException e) {
+            symbols = new ArrayList<Symbol>();
+        }
+        entries.put(path, new Entry(lastModified, length, symbols));
+        dirty = true;
+        snapshot = null;
+        return true;
+    }
+
+    // Declarations at brace depth zero; nested modules are local to their parent and not callable from
+    // outside, so they are left out.
+    static List<Symbol> parse(String code, String path) {
+        String stripped = strip(code, true);
+        // same offsets, but with string literals kept for default values in the parameter text
+        String uncommented = strip(code, false);
+        List<Symbol> out = new ArrayList<Symbol>();
+        Matcher m = DECLARATION.matcher(stripped);
+        int depth = 0;
+        int line = 1;
+        int scanned = 0;
+        while (m.find()) {
+            for (int i = scanned; i < m.start(); i++) {
+                char c = stripped.charAt(i);
+                if (c == '{') {
+                    depth++;
+                } else if (c == '}') {
+                    depth = Math.max(0, depth - 1);
+                } else if (c == '\n') {
+                    line++;
+                }
+            }
+            scanned = m.start();
+            if (depth != 0) {
+                continue;
+            }
+            int open = m.end() - 1;
+            int close = matchingParen(stripped, open);
+            if (close < 0) {
+                break;
+            }
+            String params = uncommented.substring(open + 1, close).replaceAll("\\s+", " ").trim();
+            if (params.length() > MAX_PARAMS_LENGTH) {
+                params = params.substring(0, MAX_PARAMS_LENGTH) + "...";
+            }
+            out.add(new Symbol(m.group(2), "function".equals(m.group(1)), params, path, line));
+        }
+        return out;
+    }
+
+    private static int matchingParen(String code, int open) {
+        int depth = 0;
+        for (int i = open; i < code.length(); i++) {
+            char c = code.charAt(i);
+            if (c == '(') {
+                depth++;
+            } else if (c == ')') {
+                depth--;
+                if (depth == 0) {
+                    return i;
+                }
+            }
+        }
+        return -1;
+    }
+
+    // Blanks comments (and string contents when asked) with spaces, keeping newlines and offsets so line
+    // numbers and positions match the original text
+    private static String strip(String code, boolean strings) {
+        char[] out = code.toCharArray();
+        int n = out.length;
+        int i = 0;
+        while (i < n) {
+            char c = out[i];
+            if (c == '/' && i + 1 < n && out[i + 1] == '/') {
+                while (i < n && out[i] != '\n') {
+                    out[i++] = ' ';
+                }
+            } else if (c == '/' && i + 1 < n && out[i + 1] == '*') {
+                out[i++] = ' ';
+                out[i++] = ' ';
+                while (i < n && !(out[i] == '*' && i + 1 < n && out[i + 1] == '/')) {
+                    if (out[i] != '\n') {
+                        out[i] = ' ';
+                    }
+                    i++;
+                }
+                if (i < n) {
+                    out[i++] = ' ';
+                    out[i++] = ' ';
+                }
+            } else if (c == '"') {
+                i++;
+                while (i < n && out[i] != '"' && out[i] != '\n') {
+                    if (out[i] == '\\' && i + 1 < n && out[i + 1] != '\n') {
+                        if (strings) {
+                            out[i] = ' ';
+                        }
+                        i++;
+                    }
+                    if (strings) {
+                        out[i] = ' ';
+                    }
+                    i++;
+                }
+                i++;
+            } else {
+                i++;
+            }
+        }
+        return new String(out);
+    }
+
+    private void ensureLoaded() {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+        if (!storeFile.isFile()) {
+            return;
+        }
+        String[] lines;
+        try {
+            lines = new String(readAll(storeFile), StandardCharsets.UTF_8).split("\n");
+        } catch (IOException e) {
+            return;
+        }
+        if (lines.length == 0 || !HEADER.equals(lines[0].trim())) {
+            return;
+        }
+
+        String path = null;
+        List<Symbol> symbols = null;
+        for (int i = 1; i < lines.length; i++) {
+            String[] parts = lines[i].split("\t", -1);
+            try {
+                if (parts.length == 4 && "F".equals(parts[0])) {
+                    path = parts[1];
+                    symbols = new ArrayList<Symbol>();
+                    entries.put(path, new Entry(Long.parseLong(parts[2]), Long.parseLong(parts[3]), symbols));
+                } else if (parts.length == 5 && "S".equals(parts[0]) && symbols != null) {
+                    symbols.add(new Symbol(parts[2], "f".equals(parts[1]), parts[4], path,
+                            Integer.parseInt(parts[3])));
+                }
+            } catch (NumberFormatException e) {
+                // an unreadable entry is dropped and re-parsed on the next refresh
+                if (path != null) {
+                    entries.remove(path);
+                }
+                path = null;
+                symbols = null;
+            }
+        }
+    }
+
+    private static byte[] readAll(File file) throws IOException {
+        try (InputStream in = new FileInputStream(file)) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buf = new byte[8192];
+            int read;
+            while ((read = in.read(buf)) != -1) {
+                out.write(buf, 0, read);
+            }
+            return out.toByteArray();
+        }
+    }
+}
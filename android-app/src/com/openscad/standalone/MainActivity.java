@@ -2,9 +2,11 @@ package com.openscad.standalone;
 
 import android.app.Activity;
 import android.app.AlertDialog;
+import android.content.ComponentCallbacks2;
 import android.content.ContentValues;
 import android.content.DialogInterface;
 import android.content.Intent;
+import android.content.SharedPreferences;
 import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Paint;
@@ -22,6 +24,7 @@ import android.text.InputType;
 import android.text.Spannable;
 import android.text.SpannableStringBuilder;
 import android.text.TextUtils;
+import android.text.TextWatcher;
 import android.text.style.ForegroundColorSpan;
 import android.util.TypedValue;
 import android.view.Gravity;
@@ -34,6 +37,7 @@ import android.widget.EditText;
 import android.widget.FrameLayout;
 import android.widget.LinearLayout;
 import android.widget.ListView;
+import android.widget.ProgressBar;
 import android.widget.ScrollView;
 import android.widget.TextView;
 import android.widget.Toast;
@@ -48,8 +52,10 @@ import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.Comparator;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -76,6 +82,18 @@ public class MainActivity extends Activity {
 
     private static final String DEFAULT_FILE = "example.scad";
     private static final int RC_IMPORT_LIBRARY = 4001;
+    private static final int LIVE_LOG_LINE_LIMIT = 400;
+    private static final int EXPORT_PROGRESS_MAX = 1000;
+    // Corners closer than this (mm) count as the same point when comparing two renders
+    private static final float DIFF_TOLERANCE = 0.001f;
+    // Layer height (mm) of the slicer preview, a common FDM default
+    private static final float SLICE_LAYER_HEIGHT = 0.2f;
+    private static final String SESSION_PREFS = "session_prefs";
+    private static final String KEY_ARTIFACT_PREFIX = "last_artifact:";
+    // Share of triangles kept by the quadric-error simplifier; the first entry is the unmodified mesh
+    private static final float[] DETAIL_LEVELS = { 1f, 0.5f, 0.25f, 0.1f };
+    // Rows shown by the library search dialogs; typing narrows the list
+    private static final int LIBRARY_SEARCH_LIMIT = 300;
 
     private static final String DEFAULT_CODE = "// OpenSCAD Example - Parametric Box\n" +
             "box_width = 30;\n" +
@@ -110,15 +128,18 @@ public class MainActivity extends Activity {
 
     private OpenScadRuntime runtime;
     private LibraryManager libraryManager;
+    private RenderTelemetry telemetry;
     private RuntimeUpdateManager runtimeUpdateManager;
     private ExecutorService executor;
     private Handler mainHandler;
     private RuntimeUpdateManager.RuntimeStatus lastRuntimeStatus;
+    private RenderBatch activeBatch;
 
     private boolean compactLayout;
     private boolean rendering;
     private boolean wireframeMode;
     private boolean axisLinesVisible = true;
+    private int viewerDetailIndex;
     private boolean libraryPreviewMode;
     private String activeLibraryPath;
 
@@ -132,13 +153,39 @@ public class MainActivity extends Activity {
     private ListView fileList;
     private ArrayAdapter<String> fileAdapter;
     private Button renderButton;
+    private Button sweepButton;
     private Button viewerModeButton;
     private Button axisLinesButton;
+    private Button detailButton;
+    private Button diffButton;
     private TextView previewHint;
     private StlGlSurfaceView previewSurface;
 
     private String currentFile = DEFAULT_FILE;
     private File lastRenderedStl;
+    private StlModel lastModel;
+    private MeshStats lastStats;
+    private String lastModelProject;
+    // The project's model from the render before lastModel, for the diff view
+    private StlModel previousModel;
+    private boolean diffMode;
+    // Slicer layers of lastModel, computed on first use
+    private MeshSlicer.Result lastSlices;
+    private StlModel lastSlicesModel;
+    private SharedPreferences sessionPrefs;
+    // Restores the last rendered model off the main executor so it overlaps runtime preparation
+    private ExecutorService restoreExecutor;
+    // Library indexing and scans, kept apart from renders
+    private ExecutorService libraryExecutor;
+    // Snapshots of the library listing and symbol index; null until the first background refresh finishes
+    private List<String> libraryFiles;
+    private List<LibrarySymbolIndex.Symbol> librarySymbols;
+    // Type-ahead search over library files and librarySymbols, rebuilt with each snapshot
+    private LibrarySearch librarySearch;
+    // Listing the snapshots were built from; only touched on libraryExecutor
+    private List<String> indexedLibraries;
+    // Bumped whenever the viewer's subject changes; a restore that finishes late is dropped
+    private int viewerGeneration;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -146,8 +193,12 @@ public class MainActivity extends Activity {
 
         runtime = new OpenScadRuntime(this);
         libraryManager = new LibraryManager(this, runtime);
+        telemetry = new RenderTelemetry(new File(getFilesDir(), "render_telemetry.json"));
         runtimeUpdateManager = new RuntimeUpdateManager(this, runtime);
         executor = Executors.newSingleThreadExecutor();
+        restoreExecutor = Executors.newSingleThreadExecutor();
+        libraryExecutor = Executors.newSingleThreadExecutor();
+        sessionPrefs = getSharedPreferences(SESSION_PREFS, MODE_PRIVATE);
         mainHandler = new Handler(Looper.getMainLooper());
         compactLayout = getResources().getConfiguration().screenWidthDp < 700;
 
@@ -157,6 +208,7 @@ public class MainActivity extends Activity {
         refreshFiles();
         openFile(DEFAULT_FILE);
         warmUpRuntime();
+        indexLibraries(true, null);
         checkRuntimeUpdateOnBoot();
     }
 
@@ -165,6 +217,18 @@ public class MainActivity extends Activity {
         if (executor != null) {
             executor.shutdownNow();
         }
+        if (restoreExecutor != null) {
+            restoreExecutor.shutdownNow();
+        }
+        if (libraryExecutor != null) {
+            libraryExecutor.shutdownNow();
+        }
+        if (activeBatch != null) {
+            activeBatch.cancel();
+        }
+        if (runtime != null) {
+            runtime.releaseWarmWorker();
+        }
         super.onDestroy();
     }
 
@@ -174,6 +238,23 @@ public class MainActivity extends Activity {
         if (previewSurface != null) {
             previewSurface.onResume();
         }
+        if (runtime != null && executor != null && !executor.isShutdown()) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    runtime.prewarm();
+                }
+            });
+        }
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        // The spare openscad process holds its linked libraries in memory; give that back first
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW && runtime != null) {
+            runtime.releaseWarmWorker();
+        }
     }
 
     @Override
@@ -268,6 +349,20 @@ public class MainActivity extends Activity {
         });
         toolbar.addView(renderButton);
 
+        sweepButton = makeToolbarButton("Sweep", false);
+        sweepButton.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View view) {
+                if (activeBatch != null) {
+                    activeBatch.cancel();
+                    setStatus("Cancelling sweep...");
+                    return;
+                }
+                showSweepDialog();
+            }
+        });
+        toolbar.addView(sweepButton);
+
         Button saveButton = makeToolbarButton("Save", false);
         saveButton.setOnClickListener(new View.OnClickListener() {
             @Override
@@ -491,6 +586,36 @@ public class MainActivity extends Activity {
         });
         header.addView(axisLinesButton);
 
+        detailButton = makeToolbarButton(detailLabel(viewerDetailIndex), false);
+        detailButton.setTextSize(TypedValue.COMPLEX_UNIT_SP, 11);
+        detailButton.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View view) {
+                cycleViewerDetail();
+            }
+        });
+        header.addView(detailButton);
+
+        diffButton = makeToolbarButton("Diff Off", false);
+        diffButton.setTextSize(TypedValue.COMPLEX_UNIT_SP, 11);
+        diffButton.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View view) {
+                toggleDiffMode();
+            }
+        });
+        header.addView(diffButton);
+
+        Button layersButton = makeToolbarButton("Layers", false);
+        layersButton.setTextSize(TypedValue.COMPLEX_UNIT_SP, 11);
+        layersButton.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View view) {
+                showLayers();
+            }
+        });
+        header.addView(layersButton);
+
         Button resetButton = makeToolbarButton("Reset", false);
         resetButton.setTextSize(TypedValue.COMPLEX_UNIT_SP, 11);
         resetButton.setOnClickListener(new View.OnClickListener() {
@@ -636,6 +761,16 @@ public class MainActivity extends Activity {
         View spacer = new View(this);
         header.addView(spacer, new LinearLayout.LayoutParams(0, 1, 1f));
 
+        Button stats = makeToolbarButton("Timings", false);
+        stats.setTextSize(TypedValue.COMPLEX_UNIT_SP, 11);
+        stats.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View view) {
+                showTelemetryDialog();
+            }
+        });
+        header.addView(stats);
+
         Button clear = makeToolbarButton("Clear", false);
         clear.setTextSize(TypedValue.COMPLEX_UNIT_SP, 11);
         clear.setOnClickListener(new View.OnClickListener() {
@@ -797,11 +932,16 @@ public class MainActivity extends Activity {
             public void run() {
                 try {
                     runtime.prepareRuntime();
+                    runtime.prewarm();
+                    final RuntimeExtractor.Stats stats = runtime.getLastExtractionStats();
                     mainHandler.post(new Runnable() {
                         @Override
                         public void run() {
                             setStatus("Ready");
                             appendLog("Runtime ready", C_GREEN);
+                            if (stats != null) {
+                                appendLog(describeExtraction(stats), C_TEXT_2);
+                            }
                         }
                     });
                 } catch (final Exception e) {
@@ -818,6 +958,62 @@ public class MainActivity extends Activity {
         });
     }
 
+    // Brings the library listing and symbol index up to date in the background and publishes snapshots for
+    // the library dialogs. Unless forced, an unchanged listing costs one stat per library folder and nothing
+    // is rebuilt. then, if given, runs on the main thread once the snapshots are current.
+    private void indexLibraries(final boolean force, final Runnable then) {
+        libraryExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                long startMs = System.currentTimeMillis();
+                final List<String> libs = libraryManager.listLibraries();
+                if (!force && libs == indexedLibraries) {
+                    if (then != null) {
+                        mainHandler.post(then);
+                    }
+                    return;
+                }
+                indexedLibraries = libs;
+                final int parsed = libraryManager.refreshSymbols(libs);
+                final List<LibrarySymbolIndex.Symbol> symbols = libraryManager.symbols();
+                final LibrarySearch search = new LibrarySearch(libs, symbols);
+                final long elapsedMs = System.currentTimeMillis() - startMs;
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        libraryFiles = libs;
+                        librarySymbols = symbols;
+                        librarySearch = search;
+                        if (parsed > 0) {
+                            appendLog("Library index: " + parsed + " files parsed, " + symbols.size()
+                                    + " modules/functions (" + elapsedMs + " ms)", C_TEXT_2);
+                        }
+                        if (then != null) {
+                            then.run();
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    private String describeExtraction(RuntimeExtractor.Stats stats) {
+        if (!stats.usedManifest) {
+            return String.format(Locale.US, "Runtime extracted (full asset walk) in %d ms", stats.durationMs);
+        }
+        String summary = String.format(Locale.US,
+                "Runtime extracted in %d ms: %d files / %.1f MB copied, %d unchanged, %d removed",
+                stats.durationMs,
+                stats.copiedFiles,
+                stats.copiedBytes / (1024f * 1024f),
+                stats.unchangedFiles,
+                stats.removedFiles);
+        if (stats.deferredFiles > 0) {
+            summary += ", " + stats.deferredFiles + " more extracting in background";
+        }
+        return summary;
+    }
+
     private void checkRuntimeUpdateOnBoot() {
         lastRuntimeStatus = runtimeUpdateManager.getCachedStatus();
         executor.execute(new Runnable() {
@@ -1207,6 +1403,7 @@ public class MainActivity extends Activity {
             refreshFiles();
             setStatus("Opened " + fileName);
             appendLog("Opened " + fileName, C_TEXT_2);
+            restoreLastModel(fileName);
         } catch (IOException e) {
             setStatus("Open failed");
             appendLog("Open failed: " + e.getMessage(), C_RED);
@@ -1300,35 +1497,98 @@ public class MainActivity extends Activity {
             renderBase = new File(activeLibraryPath).getName();
         }
         final String baseName = renderBase == null ? "model.scad" : renderBase;
+        final String artifactProject = libraryPreviewMode ? null : currentFile;
+        viewerGeneration++;
+        final RenderLogStreamer streamer = new RenderLogStreamer();
+        final RenderTrace trace = new RenderTrace(baseName);
+        final long traceStartNs = trace.begin();
+        final float viewerDetail = DETAIL_LEVELS[viewerDetailIndex];
 
         executor.execute(new Runnable() {
             @Override
             public void run() {
-                final OpenScadRuntime.RenderResult result = runtime.render(code, baseName);
+                final OpenScadRuntime.RenderResult result = runtime.render(code, baseName, streamer, trace);
                 StlModel parsedModel = null;
+                IndexedMesh indexed = null;
                 String parseError = null;
 
-                if (result.success && result.stlFile != null && result.stlFile.exists()) {
+                if (result.success && result.model != null) {
+                    parsedModel = result.model;
+                } else if (result.success && result.stlFile != null && result.stlFile.exists()) {
+                    // A reused STL usually still has its mesh cache from the render that produced it
+                    long cacheNs = trace.begin();
+                    MeshCache.Loaded cached = null;
                     try {
-                        parsedModel = StlParser.parse(result.stlFile);
-                    } catch (Exception e) {
-                        parseError = e.getMessage();
+                        cached = MeshCache.load(result.stlFile);
+                    } catch (IOException ignored) {
+                    }
+                    if (cached != null) {
+                        trace.end("MeshCache.load", cacheNs);
+                        parsedModel = cached.model;
+                        indexed = cached.mesh;
+                    } else {
+                        long parseNs = trace.begin();
+                        try {
+                            parsedModel = StlParser.parse(result.stlFile);
+                        } catch (Exception e) {
+                            parseError = e.getMessage();
+                        }
+                        trace.end("StlParser.parse", parseNs);
+                    }
+                }
+
+                StlModel viewerModel = parsedModel;
+                MeshDecimator.Result decimated = null;
+                MeshStats stats = null;
+                boolean writeCache = false;
+                if (parsedModel != null) {
+                    if (indexed == null) {
+                        long weldNs = trace.begin();
+                        indexed = IndexedMesh.weld(parsedModel);
+                        parsedModel = parsedModel.withEdges(indexed.uniqueEdges());
+                        viewerModel = parsedModel;
+                        trace.end("IndexedMesh.weld", weldNs);
+                        writeCache = result.stlFile != null;
+                    }
+                    long statsNs = trace.begin();
+                    stats = MeshStats.analyze(indexed);
+                    trace.end("MeshStats", statsNs);
+                    if (viewerDetail < 1f) {
+                        long decimateNs = trace.begin();
+                        decimated = MeshDecimator.decimate(indexed, viewerDetail);
+                        viewerModel = decimated.mesh.toModel();
+                        trace.end("MeshDecimator", decimateNs);
                     }
                 }
 
+                final StlModel finalViewerModel = viewerModel;
+                final MeshStats finalStats = stats;
+                final MeshDecimator.Result finalDecimated = decimated;
                 final StlModel finalParsedModel = parsedModel;
                 final String finalParseError = parseError;
                 mainHandler.post(new Runnable() {
                     @Override
                     public void run() {
+                        streamer.finish();
                         rendering = false;
                         renderButton.setEnabled(true);
                         renderButton.setText("Render");
 
                         if (result.success) {
                             lastRenderedStl = result.stlFile;
+                            rememberArtifact(artifactProject, result.stlFile);
+                            if (finalParsedModel != null) {
+                                boolean sameProject = artifactProject != null
+                                        && artifactProject.equals(lastModelProject);
+                                previousModel = sameProject ? lastModel : null;
+                                lastModelProject = artifactProject;
+                            }
+                            lastModel = finalParsedModel;
+                            lastStats = finalStats;
                             if (finalParsedModel != null) {
-                                previewSurface.setModel(finalParsedModel);
+                                long uploadNs = trace.begin();
+                                previewSurface.setModel(finalViewerModel);
+                                trace.end("setModel", uploadNs);
                                 previewHint.setVisibility(View.GONE);
                                 appendLog(
                                         "Viewer mesh loaded: " + finalParsedModel.vertexCount + " vertices, radius " +
@@ -1338,6 +1598,15 @@ public class MainActivity extends Activity {
                                                 String.format(Locale.US, "%.3f", finalParsedModel.centerY) + "," +
                                                 String.format(Locale.US, "%.3f", finalParsedModel.centerZ) + ")",
                                         C_TEXT_2);
+                                if (finalStats != null) {
+                                    logMeshStats(finalStats);
+                                }
+                                if (finalDecimated != null) {
+                                    logDecimation("Viewer", finalDecimated);
+                                }
+                                if (diffMode) {
+                                    showDiff();
+                                }
                             } else {
                                 previewHint.setText("Model generated but viewer could not load STL.");
                                 previewHint.setVisibility(View.VISIBLE);
@@ -1349,41 +1618,546 @@ public class MainActivity extends Activity {
                             String duration = String.format(Locale.US, "%.2fs", result.durationMs / 1000f);
                             setStatus("Rendered in " + duration);
                             appendLog("Render success in " + duration, C_GREEN);
-                            if (result.log != null && !result.log.trim().isEmpty()) {
+                            if (!streamer.hasOutput() && result.log != null && !result.log.trim().isEmpty()) {
                                 appendLog(result.log.trim(), C_TEXT_2);
                             }
+                            logStageTimings(result);
                         } else {
                             setStatus("Render failed");
                             String error = result.error == null ? "Unknown error" : result.error;
-                            appendLog("Render failed: " + error, C_RED);
-                            if (result.log != null && !result.log.trim().isEmpty()) {
-                                appendLog(result.log.trim(), C_YELLOW);
+                            if (streamer.hasOutput() && error.equals(result.log)) {
+                                appendLog("Render failed (see output above)", C_RED);
+                            } else {
+                                appendLog("Render failed: " + error, C_RED);
+                                if (!streamer.hasOutput() && result.log != null && !result.log.trim().isEmpty()) {
+                                    appendLog(result.log.trim(), C_YELLOW);
+                                }
                             }
+                            logStageTimings(result);
                             showConsole();
                         }
+                        trace.end("total", traceStartNs);
+                        recordTrace(trace);
+                    }
+                });
+
+                // Written after the viewer has the model, so only the next load of this STL benefits
+                if (writeCache) {
+                    try {
+                        MeshCache.write(result.stlFile, indexed, parsedModel, parsedModel.edges);
+                    } catch (IOException e) {
+                        MeshCache.delete(result.stlFile);
+                    }
+                }
+            }
+        });
+    }
+
+    private void rememberArtifact(String project, File stlFile) {
+        if (project == null || stlFile == null) {
+            return;
+        }
+        sessionPrefs.edit().putString(KEY_ARTIFACT_PREFIX + project, stlFile.getAbsolutePath()).apply();
+    }
+
+    // Shows the model from the project's last successful render without running OpenSCAD: the mapped mesh
+    // cache when it is current, otherwise a parse of the STL (which then writes the cache for next time).
+    private void restoreLastModel(final String project) {
+        final int generation = ++viewerGeneration;
+        String path = sessionPrefs.getString(KEY_ARTIFACT_PREFIX + project, null);
+        if (path == null) {
+            return;
+        }
+        final File stlFile = new File(path);
+        final float viewerDetail = DETAIL_LEVELS[viewerDetailIndex];
+        restoreExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                long startMs = System.currentTimeMillis();
+                StlModel model;
+                IndexedMesh indexed;
+                boolean fromCache;
+                try {
+                    if (!stlFile.isFile()) {
+                        sessionPrefs.edit().remove(KEY_ARTIFACT_PREFIX + project).apply();
+                        return;
+                    }
+                    MeshCache.Loaded cached = MeshCache.load(stlFile);
+                    fromCache = cached != null;
+                    if (cached != null) {
+                        model = cached.model;
+                        indexed = cached.mesh;
+                    } else {
+                        model = StlParser.parse(stlFile);
+                        indexed = IndexedMesh.weld(model);
+                        model = model.withEdges(indexed.uniqueEdges());
+                    }
+                } catch (final IOException e) {
+                    mainHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            appendLog("Could not restore last render of " + project + ": " + e.getMessage(),
+                                    C_YELLOW);
+                        }
+                    });
+                    return;
+                }
+                StlModel viewerModel = model;
+                if (viewerDetail < 1f) {
+                    viewerModel = MeshDecimator.decimate(indexed, viewerDetail).mesh.toModel();
+                }
+
+                final StlModel finalModel = model;
+                final StlModel finalViewerModel = viewerModel;
+                final long loadMs = System.currentTimeMillis() - startMs;
+                final boolean finalFromCache = fromCache;
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (generation != viewerGeneration) {
+                            return;
+                        }
+                        lastRenderedStl = stlFile;
+                        lastModel = finalModel;
+                        lastModelProject = project;
+                        previousModel = null;
+                        lastStats = null;
+                        previewSurface.setModel(finalViewerModel);
+                        previewHint.setVisibility(View.GONE);
+                        appendLog("Restored last render of " + project + " in " + loadMs + " ms"
+                                + (finalFromCache ? " (mesh cache)" : " (parsed STL)"), C_TEXT_2);
+                    }
+                });
+
+                if (!fromCache) {
+                    try {
+                        MeshCache.write(stlFile, indexed, model, model.edges);
+                    } catch (IOException e) {
+                        MeshCache.delete(stlFile);
+                    }
+                }
+                final MeshStats stats = MeshStats.analyze(indexed);
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (generation != viewerGeneration) {
+                            return;
+                        }
+                        lastStats = stats;
+                        logMeshStats(stats);
+                    }
+                });
+            }
+        });
+    }
+
+    private void recordTrace(final RenderTrace trace) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                telemetry.record(trace);
+                try {
+                    telemetry.save();
+                } catch (IOException ignored) {
+                }
+            }
+        });
+    }
+
+    private void showTelemetryDialog() {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final List<RenderTelemetry.Summary> summaries = telemetry.summaries();
+                final int traces = telemetry.traceCount();
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        showTelemetryDialog(summaries, traces);
+                    }
+                });
+            }
+        });
+    }
+
+    private void showTelemetryDialog(List<RenderTelemetry.Summary> summaries, int traces) {
+        StringBuilder sb = new StringBuilder();
+        if (summaries.isEmpty()) {
+            sb.append("No renders recorded yet.");
+        } else {
+            sb.append(String.format(Locale.US, "%-22s %4s %8s %8s %8s%n", "stage", "n", "p50", "p90", "max"));
+            for (RenderTelemetry.Summary summary : summaries) {
+                sb.append(String.format(Locale.US, "%-22s %4d %8s %8s %8s%n",
+                        summary.stage,
+                        summary.count,
+                        formatMicros(summary.p50Us),
+                        formatMicros(summary.p90Us),
+                        formatMicros(summary.maxUs)));
+            }
+        }
+
+        TextView body = new TextView(this);
+        body.setText(sb.toString());
+        body.setTypeface(Typeface.MONOSPACE);
+        body.setTextSize(TypedValue.COMPLEX_UNIT_SP, 11);
+        body.setTextColor(C_TEXT);
+        body.setPadding(dp(16), dp(12), dp(16), dp(12));
+        body.setHorizontallyScrolling(true);
+        ScrollView scroll = new ScrollView(this);
+        scroll.addView(body);
+
+        AlertDialog.Builder builder = new AlertDialog.Builder(this)
+                .setTitle("Render timings (last " + traces + " traces this session)")
+                .setView(scroll)
+                .setNegativeButton("Close", null)
+                .setNeutralButton("Reset", new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialogInterface, int which) {
+                        executor.execute(new Runnable() {
+                            @Override
+                            public void run() {
+                                telemetry.reset();
+                            }
+                        });
+                        appendLog("Render timings cleared", C_TEXT_2);
+                    }
+                });
+        if (traces > 0) {
+            builder.setPositiveButton("Export trace", new DialogInterface.OnClickListener() {
+                @Override
+                public void onClick(DialogInterface dialogInterface, int which) {
+                    exportTrace();
+                }
+            });
+        }
+        builder.show();
+    }
+
+    private void exportTrace() {
+        final String fileName = "openscad-trace-"
+                + new SimpleDateFormat("yyyyMMdd-HHmmss", Locale.US).format(new Date()) + ".json";
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    File tmp = new File(getCacheDir(), fileName);
+                    telemetry.exportChromeTrace(tmp);
+                    exportToPublicDocuments(tmp, fileName, "application/json");
+                    tmp.delete();
+                    mainHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            appendLog("Exported trace to Documents/OpenSCAD: " + fileName
+                                    + " (open in chrome://tracing or ui.perfetto.dev)", C_GREEN);
+                        }
+                    });
+                } catch (final IOException e) {
+                    mainHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            appendLog("Trace export failed: " + e.getMessage(), C_RED);
+                        }
+                    });
+                }
+            }
+        });
+    }
+
+    private static String formatMicros(long us) {
+        if (us >= 1000000L) {
+            return String.format(Locale.US, "%.2fs", us / 1000000f);
+        }
+        if (us >= 1000L) {
+            return String.format(Locale.US, "%.1fms", us / 1000f);
+        }
+        return us + "us";
+    }
+
+    private void showSweepDialog() {
+        final EditText input = new EditText(this);
+        input.setHint("One variant per line, e.g.\nwidth=30; height=15\nwidth=40; height=20");
+        input.setTypeface(Typeface.MONOSPACE);
+        input.setInputType(InputType.TYPE_CLASS_TEXT |
+                InputType.TYPE_TEXT_FLAG_MULTI_LINE |
+                InputType.TYPE_TEXT_FLAG_NO_SUGGESTIONS);
+        input.setMinLines(4);
+
+        new AlertDialog.Builder(this)
+                .setTitle("Parameter sweep (-D name=value)")
+                .setView(input)
+                .setPositiveButton("Render all", new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialogInterface, int which) {
+                        String text = input.getText() == null ? "" : input.getText().toString();
+                        try {
+                            startSweep(parseParameterSets(text));
+                        } catch (IllegalArgumentException e) {
+                            setStatus("Sweep not started");
+                            appendLog("Sweep: " + e.getMessage(), C_YELLOW);
+                        }
+                    }
+                })
+                .setNegativeButton("Cancel", null)
+                .show();
+    }
+
+    private static List<Map<String, String>> parseParameterSets(String text) {
+        List<Map<String, String>> sets = new ArrayList<Map<String, String>>();
+        for (String rawLine : text.split("\\r?\\n")) {
+            String line = rawLine.trim();
+            if (line.isEmpty() || line.startsWith("//")) {
+                continue;
+            }
+            Map<String, String> params = new LinkedHashMap<String, String>();
+            for (String assignment : splitAssignments(line)) {
+                String part = assignment.trim();
+                if (part.isEmpty()) {
+                    continue;
+                }
+                int eq = part.indexOf('=');
+                String name = eq > 0 ? part.substring(0, eq).trim() : "";
+                String value = eq > 0 ? part.substring(eq + 1).trim() : "";
+                if (!name.matches("[A-Za-z_$][A-Za-z0-9_]*") || value.isEmpty()) {
+                    throw new IllegalArgumentException("Invalid assignment: " + part);
+                }
+                params.put(name, value);
+            }
+            if (!params.isEmpty()) {
+                sets.add(params);
+            }
+        }
+        if (sets.isEmpty()) {
+            throw new IllegalArgumentException("No parameter sets given");
+        }
+        return sets;
+    }
+
+    // Splits on ';' outside OpenSCAD string literals, so a value like "a;b" stays one assignment
+    private static List<String> splitAssignments(String line) {
+        List<String> parts = new ArrayList<String>();
+        boolean quoted = false;
+        int from = 0;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted && c == '\\') {
+                i++;
+            } else if (c == '"') {
+                quoted = !quoted;
+            } else if (c == ';' && !quoted) {
+                parts.add(line.substring(from, i));
+                from = i + 1;
+            }
+        }
+        if (quoted) {
+            throw new IllegalArgumentException("Unterminated string: " + line);
+        }
+        parts.add(line.substring(from));
+        return parts;
+    }
+
+    private void startSweep(final List<Map<String, String>> sets) {
+        final String code = editor.getText().toString();
+        if (code.trim().isEmpty()) {
+            setStatus("Editor is empty");
+            appendLog("Cannot render empty file", C_YELLOW);
+            return;
+        }
+        saveCurrentFile(true);
+
+        String baseName = currentFile == null ? "model.scad" : currentFile;
+        if (libraryPreviewMode && activeLibraryPath != null && !activeLibraryPath.trim().isEmpty()) {
+            baseName = new File(activeLibraryPath).getName();
+        }
+
+        activeBatch = runtime.renderBatch(code, baseName, sets, new RenderBatch.Listener() {
+            @Override
+            public void onResult(final int index, final Map<String, String> parameters,
+                    final OpenScadRuntime.RenderResult result) {
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        String label = "Variant " + (index + 1) + "/" + sets.size() + " " + parameters;
+                        String duration = String.format(Locale.US, "%.2fs", result.durationMs / 1000f);
+                        if (result.success) {
+                            appendLog(label + ": ok in " + duration + " -> " + result.stlFile.getName(), C_GREEN);
+                        } else {
+                            String error = result.error == null ? "Unknown error" : result.error.trim();
+                            appendLog(label + ": failed: " + error, C_RED);
+                        }
+                    }
+                });
+            }
+
+            @Override
+            public void onFinished(final int completed, final int total, final boolean cancelled) {
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        activeBatch = null;
+                        sweepButton.setText("Sweep");
+                        setStatus(cancelled ? "Sweep cancelled" : "Sweep done");
+                        appendLog("Sweep " + (cancelled ? "cancelled" : "finished") + ": " + completed + "/" + total
+                                + " variants", cancelled ? C_YELLOW : C_ACCENT);
                     }
                 });
             }
         });
+
+        sweepButton.setText("Cancel");
+        setStatus("Sweeping " + sets.size() + " variants...");
+        appendLog("Sweep started: " + sets.size() + " variants on " + activeBatch.workers + " workers", C_ACCENT);
+        showConsole();
+    }
+
+    private void logStageTimings(OpenScadRuntime.RenderResult result) {
+        if (result.stageTimings == null || result.stageTimings.isEmpty()) {
+            return;
+        }
+        String line = "Stages: " + RenderStageTracker.formatTimings(result.stageTimings);
+        if (result.openScadReportedMs >= 0) {
+            line += String.format(Locale.US, " (OpenSCAD total %.2fs)", result.openScadReportedMs / 1000f);
+        }
+        appendLog(line, C_TEXT_2);
+    }
+
+    // Collects OpenSCAD output on the drainer thread and flushes it to the console in batches,
+    // so a chatty echo() loop does not flood the main looper with one post per line.
+    private class RenderLogStreamer implements OpenScadRuntime.RenderListener {
+        private final List<String> pending = new ArrayList<String>();
+        private boolean flushPosted;
+        private int shownLines;
+        private int hiddenLines;
+
+        private final Runnable flushTask = new Runnable() {
+            @Override
+            public void run() {
+                flush();
+            }
+        };
+
+        @Override
+        public void onOutputLine(String line) {
+            synchronized (pending) {
+                if (shownLines + pending.size() >= LIVE_LOG_LINE_LIMIT) {
+                    hiddenLines++;
+                    return;
+                }
+                pending.add(line);
+                if (!flushPosted) {
+                    flushPosted = true;
+                    mainHandler.post(flushTask);
+                }
+            }
+        }
+
+        @Override
+        public void onStage(final RenderStageTracker.Stage stage, final long elapsedMs) {
+            mainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (!rendering || stage == RenderStageTracker.Stage.DONE) {
+                        return;
+                    }
+                    setStatus(stage.label + "... " + String.format(Locale.US, "%.1fs", elapsedMs / 1000f));
+                }
+            });
+        }
+
+        boolean hasOutput() {
+            synchronized (pending) {
+                return shownLines > 0 || hiddenLines > 0;
+            }
+        }
+
+        void flush() {
+            String block;
+            synchronized (pending) {
+                flushPosted = false;
+                if (pending.isEmpty()) {
+                    return;
+                }
+                block = TextUtils.join("\n", pending);
+                shownLines += pending.size();
+                pending.clear();
+            }
+            appendLog(block, C_TEXT_2);
+        }
+
+        void finish() {
+            flush();
+            int hidden;
+            synchronized (pending) {
+                hidden = hiddenLines;
+            }
+            if (hidden > 0) {
+                appendLog("... " + hidden + " more output lines not shown live", C_YELLOW);
+            }
+        }
     }
 
     private void exportLastStl() {
-        if (lastRenderedStl == null || !lastRenderedStl.exists()) {
+        boolean haveStl = lastRenderedStl != null && lastRenderedStl.exists();
+        if (!haveStl && lastModel == null) {
             setStatus("Nothing to export");
             appendLog("No STL available. Render first.", C_YELLOW);
             return;
         }
 
+        if (lastStats != null && !lastStats.problems().isEmpty()) {
+            appendLog("Exporting a mesh with problems: " + lastStats.problems(), C_YELLOW);
+        }
+
+        final MeshExporter.Format[] formats = MeshExporter.Format.values();
+        String[] labels = new String[formats.length];
+        for (int i = 0; i < formats.length; i++) {
+            labels[i] = formats[i].label + " (" + formats[i].extension + ")";
+        }
+        new AlertDialog.Builder(this)
+                .setTitle("Export Format")
+                .setItems(labels, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialogInterface, int which) {
+                        promptExportDetail(formats[which]);
+                    }
+                })
+                .setNegativeButton("Cancel", null)
+                .show();
+    }
+
+    private void promptExportDetail(final MeshExporter.Format format) {
+        if (lastModel == null) {
+            promptExportName(format, 1f);
+            return;
+        }
+        String[] labels = new String[DETAIL_LEVELS.length];
+        int triangles = lastModel.vertexCount / 3;
+        for (int i = 0; i < DETAIL_LEVELS.length; i++) {
+            int kept = (int) Math.ceil(triangles * (double) DETAIL_LEVELS[i]);
+            labels[i] = (i == 0 ? "Full detail" : "Simplify to " + detailLabel(i)) + " (" + kept + " triangles)";
+        }
+        new AlertDialog.Builder(this)
+                .setTitle("Export Detail")
+                .setItems(labels, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialogInterface, int which) {
+                        promptExportName(format, DETAIL_LEVELS[which]);
+                    }
+                })
+                .setNegativeButton("Cancel", null)
+                .show();
+    }
+
+    private void promptExportName(final MeshExporter.Format format, final float detail) {
         String stem = currentFile == null ? "model" : currentFile.replace(".scad", "");
         long ts = System.currentTimeMillis();
-        final String suggestion = stem + "_" + ts + ".stl";
+        final String suggestion = stem + "_" + ts + format.extension;
         final EditText input = new EditText(this);
         input.setText(suggestion);
-        int extPos = suggestion.toLowerCase(Locale.US).lastIndexOf(".stl");
+        int extPos = suggestion.toLowerCase(Locale.US).lastIndexOf(format.extension);
         input.setSelection(0, extPos > 0 ? extPos : suggestion.length());
 
         new AlertDialog.Builder(this)
-                .setTitle("Export STL As")
+                .setTitle("Export " + format.label + " As")
                 .setView(input)
                 .setPositiveButton("Export", new DialogInterface.OnClickListener() {
                     @Override
@@ -1396,36 +2170,133 @@ public class MainActivity extends Activity {
                         }
 
                         String safeName = name.replace('\\', '_').replace('/', '_');
-                        if (!safeName.toLowerCase(Locale.US).endsWith(".stl")) {
-                            safeName = safeName + ".stl";
+                        if (!safeName.toLowerCase(Locale.US).endsWith(format.extension)) {
+                            safeName = safeName + format.extension;
                         }
-                        doExportWithFileName(safeName);
+                        doExportWithFileName(safeName, format, detail);
                     }
                 })
                 .setNegativeButton("Cancel", null)
                 .show();
     }
 
-    private void doExportWithFileName(String fileName) {
-        try {
-            Uri outUri = exportToPublicDocuments(lastRenderedStl, fileName);
-            setStatus("Exported");
-            appendLog("Exported STL to Documents/OpenSCAD: " + fileName, C_GREEN);
-            Toast.makeText(this, "Saved to Documents/OpenSCAD/" + fileName, Toast.LENGTH_LONG).show();
-        } catch (IOException e) {
+    private void doExportWithFileName(final String fileName, final MeshExporter.Format format,
+            final float detail) {
+        final File stl = lastRenderedStl;
+        final StlModel model = lastModel;
+        // A plain STL export is a byte copy of what OpenSCAD wrote; everything else is encoded from the mesh
+        final boolean copyStl = format == MeshExporter.Format.STL_BINARY && detail >= 1f
+                && stl != null && stl.exists();
+        if (!copyStl && model == null) {
             setStatus("Export failed");
-            appendLog("Export failed: " + e.getMessage(), C_RED);
+            appendLog("Export failed: the rendered mesh is not loaded in the viewer", C_RED);
+            return;
         }
+
+        final ProgressBar progressBar = new ProgressBar(this, null, android.R.attr.progressBarStyleHorizontal);
+        progressBar.setMax(EXPORT_PROGRESS_MAX);
+        progressBar.setIndeterminate(copyStl);
+        progressBar.setPadding(dp(20), dp(16), dp(20), dp(8));
+        final AlertDialog progressDialog = new AlertDialog.Builder(this)
+                .setTitle("Exporting " + fileName)
+                .setView(progressBar)
+                .setCancelable(false)
+                .show();
+        setStatus("Exporting...");
+
+        final MeshExporter.ProgressListener progress = new MeshExporter.ProgressListener() {
+            @Override
+            public void onProgress(long done, long total) {
+                final int value = total <= 0 ? EXPORT_PROGRESS_MAX : (int) (done * EXPORT_PROGRESS_MAX / total);
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        progressBar.setProgress(value);
+                    }
+                });
+            }
+        };
+
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final long startMs = System.currentTimeMillis();
+                try {
+                    MeshDecimator.Result simplified = null;
+                    if (copyStl) {
+                        exportToPublicDocuments(stl, fileName);
+                    } else {
+                        final StlModel source;
+                        if (detail < 1f) {
+                            simplified = MeshDecimator.decimate(model, detail);
+                            source = simplified.mesh.toModel();
+                        } else {
+                            source = model;
+                        }
+                        exportToPublicDocuments(fileName, format.mimeType, new ExportWriter() {
+                            @Override
+                            public void write(OutputStream out) throws IOException {
+                                MeshExporter.export(source, format, out, progress);
+                            }
+                        });
+                    }
+                    final MeshDecimator.Result finalSimplified = simplified;
+                    mainHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (finalSimplified != null) {
+                                logDecimation("Export", finalSimplified);
+                            }
+                            setStatus("Exported");
+                            appendLog("Exported " + format.label + " to Documents/OpenSCAD: " + fileName + " ("
+                                    + (System.currentTimeMillis() - startMs) + " ms)", C_GREEN);
+                            Toast.makeText(MainActivity.this, "Saved to Documents/OpenSCAD/" + fileName,
+                                    Toast.LENGTH_LONG).show();
+                        }
+                    });
+                } catch (IOException | RuntimeException | OutOfMemoryError e) {
+                    // simplifying or writing a huge mesh can run out of memory; the dialog must still close
+                    final String message = e.getMessage() != null ? e.getMessage() : e.toString();
+                    mainHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            setStatus("Export failed");
+                            appendLog("Export failed: " + message, C_RED);
+                        }
+                    });
+                } finally {
+                    mainHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            progressDialog.dismiss();
+                        }
+                    });
+                }
+            }
+        });
     }
 
     private void showLibrariesDialog() {
-        final List<String> libs = libraryManager.listLibraries();
+        final List<String> libs = libraryFiles;
+        if (libs == null) {
+            // the first listing is still running; open once it lands
+            indexLibraries(false, new Runnable() {
+                @Override
+                public void run() {
+                    showLibrariesDialog();
+                }
+            });
+            return;
+        }
+        // picks up files changed outside the app for the next time the dialog opens
+        indexLibraries(false, null);
         final List<String> options = new ArrayList<String>();
         options.add("Import .scad/.zip");
         options.add("Browse libraries");
         if (!libs.isEmpty()) {
             options.add("Insert use <...>;");
             options.add("Insert include <...>;");
+            options.add("Insert module/function");
         }
         options.add("Show library folder");
         options.add("Show source-copy folder");
@@ -1443,7 +2314,7 @@ public class MainActivity extends Activity {
 
                         int next = 1;
                         if (which == next) {
-                            showLibraryBrowserDialog();
+                            showLibraryBrowserDialog(libs);
                             return;
                         }
                         next++;
@@ -1459,6 +2330,11 @@ public class MainActivity extends Activity {
                                 return;
                             }
                             next++;
+                            if (which == next) {
+                                showInsertSymbolDialog(libs);
+                                return;
+                            }
+                            next++;
                         }
 
                         if (which == next) {
@@ -1480,52 +2356,102 @@ public class MainActivity extends Activity {
                 .show();
     }
 
-    private void showLibraryBrowserDialog() {
-        final List<String> libs = libraryManager.listLibraries();
+    private void showLibraryBrowserDialog(List<String> libs) {
         if (libs.isEmpty()) {
             Toast.makeText(this, "No imported .scad libraries yet", Toast.LENGTH_SHORT).show();
             return;
         }
 
+        showLibrarySearchDialog("Imported Libraries", libs, LibrarySearch.FILES | LibrarySearch.SYMBOLS,
+                new LibraryHitCallback() {
+                    @Override
+                    public void onHit(LibrarySearch.Hit hit) {
+                        final String selected = hit.path;
+                        new AlertDialog.Builder(MainActivity.this)
+                                .setTitle(hit.symbol == null ? selected : hit.symbol.signature())
+                                .setItems(new String[] { "View code in editor", "Insert use <...>;",
+                                        "Insert include <...>;" },
+                                        new DialogInterface.OnClickListener() {
+                                            @Override
+                                            public void onClick(DialogInterface dialogInterface, int which) {
+                                                if (which == 0) {
+                                                    viewLibraryCodeInEditor(selected);
+                                                } else if (which == 1) {
+                                                    insertLibraryDirective(selected, false);
+                                                } else if (which == 2) {
+                                                    insertLibraryDirective(selected, true);
+                                                }
+                                            }
+                                        })
+                                .setNegativeButton("Cancel", null)
+                                .show();
+                    }
+                });
+    }
+
+    // A search box over a list of library files and/or symbols; the list updates as the user types
+    private void showLibrarySearchDialog(String title, List<String> libs, final int kinds,
+            final LibraryHitCallback callback) {
+        LibrarySearch current = librarySearch;
+        if (current == null) {
+            // the first index is still building; files alone are quick to sort
+            current = new LibrarySearch(libs, new ArrayList<LibrarySymbolIndex.Symbol>());
+        }
+        final LibrarySearch search = current;
+
+        LinearLayout content = new LinearLayout(this);
+        content.setOrientation(LinearLayout.VERTICAL);
+        final EditText query = new EditText(this);
+        query.setHint((kinds & LibrarySearch.SYMBOLS) != 0 ? "Search files, modules, functions" : "Search files");
+        query.setSingleLine(true);
+        query.setInputType(InputType.TYPE_CLASS_TEXT | InputType.TYPE_TEXT_FLAG_NO_SUGGESTIONS);
+        content.addView(query, new LinearLayout.LayoutParams(
+                ViewGroup.LayoutParams.MATCH_PARENT, ViewGroup.LayoutParams.WRAP_CONTENT));
+
         final ListView listView = new ListView(this);
         listView.setDividerHeight(0);
         listView.setBackgroundColor(Color.TRANSPARENT);
-        final ArrayAdapter<String> adapter = new ArrayAdapter<String>(
+        final List<LibrarySearch.Hit> shown = new ArrayList<LibrarySearch.Hit>(
+                search.search("", kinds, LIBRARY_SEARCH_LIMIT));
+        final ArrayAdapter<LibrarySearch.Hit> adapter = new ArrayAdapter<LibrarySearch.Hit>(
                 this,
                 android.R.layout.simple_list_item_1,
-                libs);
+                shown);
         listView.setAdapter(adapter);
+        content.addView(listView, new LinearLayout.LayoutParams(
+                ViewGroup.LayoutParams.MATCH_PARENT, ViewGroup.LayoutParams.WRAP_CONTENT));
 
         final AlertDialog dialog = new AlertDialog.Builder(this)
-                .setTitle("Imported Libraries (" + libs.size() + ")")
-                .setView(listView)
+                .setTitle(title + " (" + search.count(kinds) + ")")
+                .setView(content)
                 .setNegativeButton("Close", null)
                 .create();
 
+        query.addTextChangedListener(new TextWatcher() {
+            @Override
+            public void beforeTextChanged(CharSequence text, int start, int count, int after) {
+            }
+
+            @Override
+            public void onTextChanged(CharSequence text, int start, int before, int count) {
+            }
+
+            @Override
+            public void afterTextChanged(Editable text) {
+                List<LibrarySearch.Hit> hits = search.search(text.toString(), kinds, LIBRARY_SEARCH_LIMIT);
+                adapter.clear();
+                adapter.addAll(hits);
+            }
+        });
         listView.setOnItemClickListener(new AdapterView.OnItemClickListener() {
             @Override
             public void onItemClick(AdapterView<?> parent, View view, int position, long id) {
-                if (position < 0 || position >= libs.size()) {
+                LibrarySearch.Hit hit = adapter.getItem(position);
+                if (hit == null) {
                     return;
                 }
-                final String selected = libs.get(position);
-                new AlertDialog.Builder(MainActivity.this)
-                        .setTitle(selected)
-                        .setItems(new String[] { "View code in editor", "Insert use <...>;", "Insert include <...>;" },
-                                new DialogInterface.OnClickListener() {
-                                    @Override
-                                    public void onClick(DialogInterface dialogInterface, int which) {
-                                        if (which == 0) {
-                                            viewLibraryCodeInEditor(selected);
-                                        } else if (which == 1) {
-                                            insertLibraryDirective(selected, false);
-                                        } else if (which == 2) {
-                                            insertLibraryDirective(selected, true);
-                                        }
-                                    }
-                                })
-                        .setNegativeButton("Cancel", null)
-                        .show();
+                dialog.dismiss();
+                callback.onHit(hit);
             }
         });
 
@@ -1570,20 +2496,46 @@ public class MainActivity extends Activity {
             return;
         }
 
-        final String[] items = libs.toArray(new String[0]);
-        new AlertDialog.Builder(this)
-                .setTitle(include ? "Insert include <...>;" : "Insert use <...>;")
-                .setItems(items, new DialogInterface.OnClickListener() {
+        showLibrarySearchDialog(include ? "Insert include <...>;" : "Insert use <...>;", libs,
+                LibrarySearch.FILES | LibrarySearch.SYMBOLS, new LibraryHitCallback() {
                     @Override
-                    public void onClick(DialogInterface dialogInterface, int which) {
-                        if (which < 0 || which >= items.length) {
-                            return;
-                        }
-                        insertLibraryDirective(items[which], include);
+                    public void onHit(LibrarySearch.Hit hit) {
+                        insertLibraryDirective(hit.path, include);
                     }
-                })
-                .setNegativeButton("Cancel", null)
-                .show();
+                });
+    }
+
+    private void showInsertSymbolDialog(List<String> libs) {
+        List<LibrarySymbolIndex.Symbol> symbols = librarySymbols;
+        if (symbols == null) {
+            Toast.makeText(this, "Library index is still building", Toast.LENGTH_SHORT).show();
+            return;
+        }
+        if (symbols.isEmpty()) {
+            Toast.makeText(this, "No modules or functions found in imported libraries", Toast.LENGTH_SHORT).show();
+            return;
+        }
+
+        showLibrarySearchDialog("Insert module/function", libs, LibrarySearch.SYMBOLS, new LibraryHitCallback() {
+            @Override
+            public void onHit(LibrarySearch.Hit hit) {
+                insertLibrarySymbol(hit.symbol);
+            }
+        });
+    }
+
+    // Inserts a call at the cursor, plus a use <...>; at the top when the file does not pull the library in yet
+    private void insertLibrarySymbol(LibrarySymbolIndex.Symbol symbol) {
+        Editable editable = editor.getText();
+        if (editable == null) {
+            return;
+        }
+        int pos = Math.max(0, editor.getSelectionStart());
+        editable.insert(pos, symbol.name + (symbol.function ? "()" : "();"));
+        if (!DependencyGraph.scan(editable.toString()).contains(symbol.path)) {
+            editable.insert(0, "use <" + symbol.path + ">;\n");
+        }
+        setStatus("Inserted " + symbol.name);
     }
 
     private void insertLibraryDirective(String libraryPath, boolean include) {
@@ -1624,12 +2576,23 @@ public class MainActivity extends Activity {
             @Override
             public void run() {
                 try {
-                    final String imported = libraryManager.importFromUri(uri);
+                    final LibraryManager.ImportResult imported = libraryManager.importFromUri(uri);
+                    final List<File> affected = runtime.affectedProjects(imported.files);
                     mainHandler.post(new Runnable() {
                         @Override
                         public void run() {
                             setStatus("Library imported");
-                            appendLog("Imported library: " + imported, C_GREEN);
+                            appendLog("Imported library: " + imported.summary, C_GREEN);
+                            // importFromUri already indexed the new files; this refreshes listing and search
+                            indexLibraries(false, null);
+                            if (!affected.isEmpty()) {
+                                List<String> names = new ArrayList<String>();
+                                for (File file : affected) {
+                                    names.add(file.getName());
+                                }
+                                appendLog("Projects using the updated files (re-render to refresh): "
+                                        + TextUtils.join(", ", names), C_YELLOW);
+                            }
                         }
                     });
                 } catch (final Exception e) {
@@ -1647,10 +2610,23 @@ public class MainActivity extends Activity {
     }
 
     private Uri exportToPublicDocuments(File source, String fileName) throws IOException {
+        return exportToPublicDocuments(source, fileName, "model/stl");
+    }
+
+    private Uri exportToPublicDocuments(final File source, String fileName, String mimeType) throws IOException {
+        return exportToPublicDocuments(fileName, mimeType, new ExportWriter() {
+            @Override
+            public void write(OutputStream out) throws IOException {
+                copyFileToStream(source, out);
+            }
+        });
+    }
+
+    private Uri exportToPublicDocuments(String fileName, String mimeType, ExportWriter writer) throws IOException {
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
             ContentValues values = new ContentValues();
             values.put(MediaStore.MediaColumns.DISPLAY_NAME, fileName);
-            values.put(MediaStore.MediaColumns.MIME_TYPE, "model/stl");
+            values.put(MediaStore.MediaColumns.MIME_TYPE, mimeType);
             values.put(MediaStore.MediaColumns.RELATIVE_PATH, Environment.DIRECTORY_DOCUMENTS + "/OpenSCAD");
             values.put(MediaStore.MediaColumns.IS_PENDING, 1);
 
@@ -1665,7 +2641,7 @@ public class MainActivity extends Activity {
                     getContentResolver().delete(item, null, null);
                     throw new IOException("Could not open output stream");
                 }
-                copyFileToStream(source, out);
+                writer.write(out);
             } catch (IOException e) {
                 getContentResolver().delete(item, null, null);
                 throw e;
@@ -1683,7 +2659,12 @@ public class MainActivity extends Activity {
             throw new IOException("Could not create Documents/OpenSCAD");
         }
         File outFile = new File(exportDir, fileName);
-        copyFile(source, outFile);
+        try (OutputStream out = new FileOutputStream(outFile)) {
+            writer.write(out);
+        } catch (IOException e) {
+            outFile.delete();
+            throw e;
+        }
         return Uri.fromFile(outFile);
     }
 
@@ -1709,6 +2690,177 @@ public class MainActivity extends Activity {
         appendLog("RGB axes: " + (axisLinesVisible ? "on" : "off"), C_TEXT_2);
     }
 
+    private void cycleViewerDetail() {
+        viewerDetailIndex = (viewerDetailIndex + 1) % DETAIL_LEVELS.length;
+        if (detailButton != null) {
+            detailButton.setText(detailLabel(viewerDetailIndex));
+        }
+        appendLog("Viewer detail: " + detailLabel(viewerDetailIndex), C_TEXT_2);
+        if (diffMode) {
+            appendLog("Detail applies once the diff view is off", C_TEXT_2);
+            return;
+        }
+        showViewerModel();
+    }
+
+    // Puts lastModel in the viewer at the selected detail level
+    private void showViewerModel() {
+        final StlModel model = lastModel;
+        final float detail = DETAIL_LEVELS[viewerDetailIndex];
+        if (model == null) {
+            return;
+        }
+        if (detail >= 1f) {
+            previewSurface.setModel(model);
+            return;
+        }
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final MeshDecimator.Result result = MeshDecimator.decimate(model, detail);
+                final StlModel simplified = result.mesh.toModel();
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        // a newer render, detail change or the diff view has replaced what this was computed for
+                        if (lastModel != model || DETAIL_LEVELS[viewerDetailIndex] != detail || diffMode) {
+                            return;
+                        }
+                        previewSurface.setModel(simplified);
+                        logDecimation("Viewer", result);
+                    }
+                });
+            }
+        });
+    }
+
+    private void toggleDiffMode() {
+        diffMode = !diffMode;
+        if (diffButton != null) {
+            diffButton.setText(diffMode ? "Diff On" : "Diff Off");
+        }
+        appendLog("Diff view: " + (diffMode ? "on" : "off"), C_TEXT_2);
+        if (diffMode) {
+            showDiff();
+        } else {
+            showViewerModel();
+        }
+    }
+
+    // Colours the current render against the previous one of the same project: green added, red removed
+    private void showDiff() {
+        final StlModel previous = previousModel;
+        final StlModel current = lastModel;
+        if (current == null || previous == null) {
+            appendLog("Nothing to compare yet: render this project twice to see what changed", C_YELLOW);
+            return;
+        }
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final MeshDiff diff = MeshDiff.compare(previous, current, DIFF_TOLERANCE);
+                final StlModel overlay = diff.overlay(previous, current);
+                final byte[] tags = diff.overlayTags();
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (!diffMode || lastModel != current) {
+                            return;
+                        }
+                        previewSurface.setModel(overlay, tags);
+                        appendLog("Diff against previous render: " + diff.added + " added, " + diff.removed
+                                + " removed, " + diff.unchanged + " unchanged triangles (" + diff.durationMs
+                                + " ms)", diff.added + diff.removed == 0 ? C_TEXT_2 : C_ACCENT);
+                    }
+                });
+            }
+        });
+    }
+
+    // Slices lastModel once per model, then lets the user pick a layer to outline in the viewer
+    private void showLayers() {
+        final StlModel model = lastModel;
+        if (model == null) {
+            appendLog("Nothing to slice yet: render a model first", C_YELLOW);
+            return;
+        }
+        if (lastSlicesModel == model) {
+            showLayerPicker(lastSlices);
+            return;
+        }
+        appendLog("Slicing model...", C_TEXT_2);
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final MeshSlicer.Result slices = MeshSlicer.slice(IndexedMesh.weld(model), SLICE_LAYER_HEIGHT);
+                int open = 0;
+                for (MeshSlicer.Layer layer : slices.layers) {
+                    if (layer.openLoops > 0) {
+                        open++;
+                    }
+                }
+                final int openLayers = open;
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (lastModel != model) {
+                            return;
+                        }
+                        lastSlices = slices;
+                        lastSlicesModel = model;
+                        appendLog(String.format(Locale.US, "Sliced into %d layers of %.2f mm in %d ms",
+                                slices.layers.length, slices.layerHeight, slices.durationMs), C_TEXT_2);
+                        if (openLayers > 0) {
+                            appendLog(openLayers + " layers have contours that do not close", C_YELLOW);
+                        }
+                        showLayerPicker(slices);
+                    }
+                });
+            }
+        });
+    }
+
+    private void showLayerPicker(final MeshSlicer.Result slices) {
+        String[] labels = new String[slices.layers.length + 1];
+        labels[0] = "Hide layer";
+        for (int i = 0; i < slices.layers.length; i++) {
+            MeshSlicer.Layer layer = slices.layers[i];
+            labels[i + 1] = String.format(Locale.US, "Layer %d  z=%.2f mm  %d loops%s", i + 1, layer.z,
+                    layer.loopCount(), layer.openLoops > 0 ? " (" + layer.openLoops + " open)" : "");
+        }
+        new AlertDialog.Builder(this)
+                .setTitle("Layers")
+                .setItems(labels, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialogInterface, int which) {
+                        previewSurface.setSliceLayer(which == 0 ? null : slices.layers[which - 1]);
+                    }
+                })
+                .setNegativeButton("Cancel", null)
+                .show();
+    }
+
+    private static String detailLabel(int index) {
+        float detail = DETAIL_LEVELS[index];
+        return detail >= 1f ? "Full" : Math.round(detail * 100) + "%";
+    }
+
+    private void logMeshStats(MeshStats stats) {
+        appendLog("Mesh: " + stats.summary() + " (checked in " + stats.durationMs + " ms)", C_TEXT_2);
+        String problems = stats.problems();
+        if (problems.isEmpty()) {
+            appendLog("Mesh is closed and manifold", C_GREEN);
+        } else {
+            appendLog("Mesh problems: " + problems, C_YELLOW);
+        }
+    }
+
+    private void logDecimation(String target, MeshDecimator.Result result) {
+        appendLog(target + " mesh simplified: " + result.inputTriangles + " -> " + result.outputTriangles
+                + " triangles in " + result.durationMs + " ms (max deviation "
+                + String.format(Locale.US, "%.4f", result.maxError) + ")", C_TEXT_2);
+    }
+
     private void toggleConsole() {
         if (consolePanel.getVisibility() == View.VISIBLE) {
             consolePanel.setVisibility(View.GONE);
@@ -1777,18 +2929,6 @@ public class MainActivity extends Activity {
                 .show();
     }
 
-    private static void copyFile(File source, File target) throws IOException {
-        try (FileInputStream in = new FileInputStream(source);
-                FileOutputStream out = new FileOutputStream(target)) {
-            byte[] buffer = new byte[8192];
-            int read;
-            while ((read = in.read(buffer)) != -1) {
-                out.write(buffer, 0, read);
-            }
-            out.flush();
-        }
-    }
-
     private static void copyFileToStream(File source, OutputStream out) throws IOException {
         try (FileInputStream in = new FileInputStream(source)) {
             byte[] buffer = new byte[8192];
@@ -1822,4 +2962,12 @@ public class MainActivity extends Activity {
     private interface NameCallback {
         void onName(String fileName);
     }
+
+    private interface LibraryHitCallback {
+        void onHit(LibrarySearch.Hit hit);
+    }
+
+    private interface ExportWriter {
+        void write(OutputStream out) throws IOException;
+    }
 }
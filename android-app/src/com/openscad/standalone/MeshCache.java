@@ -0,0 +1,231 @@
+package com.openscad.standalone;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Locale;
+
+// Welded mesh stored next to its STL (<name>.stl -> <name>.mesh) so a reload is a memory map and a few bulk
+// copies instead of an STL parse. Every section is 4-byte little-endian data:
+//
+//   header   magic, version, stl length, stl mtime (2 ints), vertex, triangle and edge counts,
+//            bounds (6 floats), center and radius (4 floats)
+//   vertices float[vertexCount * 3]
+//   indices  int[triangleCount * 3]
+//   normals  float[triangleCount * 3], one per face
+//   edges    int[edgeCount * 2], corner pairs as returned by IndexedMesh.uniqueEdges()
+class MeshCache {
+
+    static class Loaded {
+        final IndexedMesh mesh;
+        final StlModel model;
+        // minX, minY, minZ, maxX, maxY, maxZ
+        final float[] bounds;
+
+        Loaded(IndexedMesh mesh, StlModel model, float[] bounds) {
+            this.mesh = mesh;
+            this.model = model;
+            this.bounds = bounds;
+        }
+    }
+
+    private static final int MAGIC = 0x434d534f; // "OSMC"
+    private static final int VERSION = 1;
+    private static final int HEADER_INTS = 8;
+    private static final int HEADER_FLOATS = 10;
+    private static final int HEADER_BYTES = (HEADER_INTS + HEADER_FLOATS) * 4;
+    private static final String SUFFIX = ".mesh";
+
+    static File cacheFileFor(File stlFile) {
+        String name = stlFile.getName();
+        if (name.toLowerCase(Locale.US).endsWith(".stl")) {
+            name = name.substring(0, name.length() - 4);
+        }
+        return new File(stlFile.getParentFile(), name + SUFFIX);
+    }
+
+    static void write(File stlFile, IndexedMesh mesh, StlModel model, int[] edges) throws IOException {
+        File target = cacheFileFor(stlFile);
+        File tmp = new File(target.getPath() + ".tmp");
+        long bytes = HEADER_BYTES + 4L * (mesh.positions.length + mesh.indices.length * 2L + edges.length);
+        if (bytes > Integer.MAX_VALUE) {
+            throw new IOException("Mesh too large to cache");
+        }
+        float[] bounds = bounds(mesh);
+
+        try (RandomAccessFile raf = new RandomAccessFile(tmp, "rw")) {
+            raf.setLength(bytes);
+            FileChannel channel = raf.getChannel();
+            MappedByteBuffer out = channel.map(FileChannel.MapMode.READ_WRITE, 0, bytes);
+            out.order(ByteOrder.LITTLE_ENDIAN);
+            long mtime = stlFile.lastModified();
+            out.putInt(MAGIC);
+            out.putInt(VERSION);
+            out.putInt((int) stlFile.length());
+            out.putInt((int) (mtime >>> 32));
+            out.putInt((int) mtime);
+            out.putInt(mesh.vertexCount);
+            out.putInt(mesh.triangleCount);
+            out.putInt(edges.length / 2);
+            for (float b : bounds) {
+                out.putFloat(b);
+            }
+            out.putFloat(model.centerX);
+            out.putFloat(model.centerY);
+            out.putFloat(model.centerZ);
+            out.putFloat(model.radius);
+
+            out.asFloatBuffer().put(mesh.positions);
+            out.position(out.position() + mesh.positions.length * 4);
+            out.asIntBuffer().put(mesh.indices);
+            out.position(out.position() + mesh.indices.length * 4);
+            out.asFloatBuffer().put(faceNormals(mesh));
+            out.position(out.position() + mesh.indices.length * 4);
+            out.asIntBuffer().put(edges);
+            // The rename below must not land before the mapped pages do, or a crash leaves a torn cache
+            out.force();
+            channel.force(true);
+        } catch (IOException e) {
+            tmp.delete();
+            throw e;
+        }
+        if (target.exists() && !target.delete()) {
+            tmp.delete();
+            throw new IOException("Could not replace " + target);
+        }
+        if (!tmp.renameTo(target)) {
+            tmp.delete();
+            throw new IOException("Could not write " + target);
+        }
+    }
+
+    // Null when there is no cache for this STL, or it was written for a different STL or format version
+    static Loaded load(File stlFile) throws IOException {
+        File file = cacheFileFor(stlFile);
+        if (!file.isFile() || !stlFile.isFile()) {
+            return null;
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            FileChannel channel = raf.getChannel();
+            long size = channel.size();
+            if (size < HEADER_BYTES) {
+                return null;
+            }
+            MappedByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            in.order(ByteOrder.LITTLE_ENDIAN);
+            if (in.getInt() != MAGIC || in.getInt() != VERSION) {
+                return null;
+            }
+            int stlLength = in.getInt();
+            long mtime = ((long) in.getInt() << 32) | (in.getInt() & 0xffffffffL);
+            if (stlLength != (int) stlFile.length() || mtime != stlFile.lastModified()) {
+                return null;
+            }
+            int vertexCount = in.getInt();
+            int triangleCount = in.getInt();
+            int edgeCount = in.getInt();
+            long expected = HEADER_BYTES + 4L * (vertexCount * 3L + triangleCount * 6L + edgeCount * 2L);
+            if (vertexCount < 0 || triangleCount <= 0 || edgeCount < 0 || expected != size) {
+                return null;
+            }
+            float[] bounds = new float[6];
+            for (int i = 0; i < bounds.length; i++) {
+                bounds[i] = in.getFloat();
+            }
+            float centerX = in.getFloat();
+            float centerY = in.getFloat();
+            float centerZ = in.getFloat();
+            float radius = in.getFloat();
+
+            float[] positions = new float[vertexCount * 3];
+            int[] indices = new int[triangleCount * 3];
+            float[] faceNormals = new float[triangleCount * 3];
+            int[] edges = new int[edgeCount * 2];
+            in.asFloatBuffer().get(positions);
+            in.position(in.position() + positions.length * 4);
+            in.asIntBuffer().get(indices);
+            in.position(in.position() + indices.length * 4);
+            in.asFloatBuffer().get(faceNormals);
+            in.position(in.position() + faceNormals.length * 4);
+            in.asIntBuffer().get(edges);
+
+            IndexedMesh mesh = new IndexedMesh(positions, indices);
+            float[] vertices = new float[triangleCount * 9];
+            float[] normals = new float[triangleCount * 9];
+            for (int c = 0; c < indices.length; c++) {
+                int v = indices[c];
+                if (v < 0 || v >= vertexCount) {
+                    return null;
+                }
+                int f = (c / 3) * 3;
+                vertices[c * 3] = positions[v * 3];
+                vertices[c * 3 + 1] = positions[v * 3 + 1];
+                vertices[c * 3 + 2] = positions[v * 3 + 2];
+                normals[c * 3] = faceNormals[f];
+                normals[c * 3 + 1] = faceNormals[f + 1];
+                normals[c * 3 + 2] = faceNormals[f + 2];
+            }
+            for (int edge : edges) {
+                if (edge < 0 || edge >= indices.length) {
+                    return null;
+                }
+            }
+            StlModel model = new StlModel(vertices, normals, centerX, centerY, centerZ, radius, edges);
+            return new Loaded(mesh, model, bounds);
+        }
+    }
+
+    static void delete(File stlFile) {
+        File file = cacheFileFor(stlFile);
+        if (file.exists()) {
+            file.delete();
+        }
+    }
+
+    private static float[] bounds(IndexedMesh mesh) {
+        float[] b = { Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY,
+                Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY };
+        float[] p = mesh.positions;
+        for (int i = 0; i < p.length; i += 3) {
+            b[0] = Math.min(b[0], p[i]);
+            b[1] = Math.min(b[1], p[i + 1]);
+            b[2] = Math.min(b[2], p[i + 2]);
+            b[3] = Math.max(b[3], p[i]);
+            b[4] = Math.max(b[4], p[i + 1]);
+            b[5] = Math.max(b[5], p[i + 2]);
+        }
+        return b;
+    }
+
+    private static float[] faceNormals(IndexedMesh mesh) {
+        float[] p = mesh.positions;
+        int[] idx = mesh.indices;
+        float[] out = new float[mesh.triangleCount * 3];
+        for (int t = 0; t < mesh.triangleCount; t++) {
+            int a = idx[t * 3] * 3;
+            int b = idx[t * 3 + 1] * 3;
+            int c = idx[t * 3 + 2] * 3;
+            float ux = p[b] - p[a];
+            float uy = p[b + 1] - p[a + 1];
+            float uz = p[b + 2] - p[a + 2];
+            float vx = p[c] - p[a];
+            float vy = p[c + 1] - p[a + 1];
+            float vz = p[c + 2] - p[a + 2];
+            float nx = uy * vz - uz * vy;
+            float ny = uz * vx - ux * vz;
+            float nz = ux * vy - uy * vx;
+            float len = (float) Math.sqrt(nx * nx + ny * ny + nz * nz);
+            if (len > 1e-8f) {
+                out[t * 3] = nx / len;
+                out[t * 3 + 1] = ny / len;
+                out[t * 3 + 2] = nz / len;
+            } else {
+                out[t * 3 + 2] = 1f;
+            }
+        }
+        return out;
+    }
+}
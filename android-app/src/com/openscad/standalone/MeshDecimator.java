@@ -0,0 +1,573 @@
+package com.openscad.standalone;
+
+import java.util.Arrays;
+
+// Garland-Heckbert edge collapse: every vertex carries the summed plane quadric of its faces, the cheapest
+// edge is collapsed into the point that minimises that error, and the neighbourhood is re-queued. All
+// state lives in primitive arrays so a million-triangle mesh does not allocate per edge or per face.
+class MeshDecimator {
+
+    static class Result {
+        final IndexedMesh mesh;
+        final int inputTriangles;
+        final int outputTriangles;
+        final double maxError;
+        final long durationMs;
+
+        Result(IndexedMesh mesh, int inputTriangles, int outputTriangles, double maxError, long durationMs) {
+            this.mesh = mesh;
+            this.inputTriangles = inputTriangles;
+            this.outputTriangles = outputTriangles;
+            this.maxError = maxError;
+            this.durationMs = durationMs;
+        }
+    }
+
+    // Min-heap of candidate collapses. Entries are never updated in place: a collapse bumps the version of
+    // the surviving vertex, and popped entries whose versions no longer match are dropped.
+    private static class EdgeHeap {
+        double[] cost;
+        int[] a;
+        int[] b;
+        int[] versionA;
+        int[] versionB;
+        int size;
+
+        EdgeHeap(int capacity) {
+            cost = new double[capacity];
+            a = new int[capacity];
+            b = new int[capacity];
+            versionA = new int[capacity];
+            versionB = new int[capacity];
+        }
+
+        boolean isFull() {
+            return size == cost.length;
+        }
+
+        void grow() {
+            int grown = cost.length + (cost.length >> 1) + 16;
+            cost = Arrays.copyOf(cost, grown);
+            a = Arrays.copyOf(a, grown);
+            b = Arrays.copyOf(b, grown);
+            versionA = Arrays.copyOf(versionA, grown);
+            versionB = Arrays.copyOf(versionB, grown);
+        }
+
+        void push(double c, int va, int vb, int verA, int verB) {
+            if (isFull()) {
+                grow();
+            }
+            int i = size++;
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (cost[parent] <= c) {
+                    break;
+                }
+                move(parent, i);
+                i = parent;
+            }
+            cost[i] = c;
+            a[i] = va;
+            b[i] = vb;
+            versionA[i] = verA;
+            versionB[i] = verB;
+        }
+
+        // Removes the root; the caller reads it from slot size before the next push
+        void pop() {
+            int last = --size;
+            double c = cost[last];
+            int va = a[last];
+            int vb = b[last];
+            int verA = versionA[last];
+            int verB = versionB[last];
+            // park the root past the end so it stays readable
+            swapToEnd(last);
+            int i = 0;
+            while (true) {
+                int child = i * 2 + 1;
+                if (child >= last) {
+                    break;
+                }
+                if (child + 1 < last && cost[child + 1] < cost[child]) {
+                    child++;
+                }
+                if (cost[child] >= c) {
+                    break;
+                }
+                move(child, i);
+                i = child;
+            }
+            if (last > 0) {
+                cost[i] = c;
+                a[i] = va;
+                b[i] = vb;
+                versionA[i] = verA;
+                versionB[i] = verB;
+            }
+        }
+
+        // Restores heap order after entries were dropped in place
+        void heapify() {
+            for (int i = size / 2 - 1; i >= 0; i--) {
+                double c = cost[i];
+                int va = a[i];
+                int vb = b[i];
+                int verA = versionA[i];
+                int verB = versionB[i];
+                int at = i;
+                while (true) {
+                    int child = at * 2 + 1;
+                    if (child >= size) {
+                        break;
+                    }
+                    if (child + 1 < size && cost[child + 1] < cost[child]) {
+                        child++;
+                    }
+                    if (cost[child] >= c) {
+                        break;
+                    }
+                    move(child, at);
+                    at = child;
+                }
+                cost[at] = c;
+                a[at] = va;
+                b[at] = vb;
+                versionA[at] = verA;
+                versionB[at] = verB;
+            }
+        }
+
+        private void swapToEnd(int last) {
+            cost[last] = cost[0];
+            a[last] = a[0];
+            b[last] = b[0];
+            versionA[last] = versionA[0];
+            versionB[last] = versionB[0];
+        }
+
+        private void move(int from, int to) {
+            cost[to] = cost[from];
+            a[to] = a[from];
+            b[to] = b[from];
+            versionA[to] = versionA[from];
+            versionB[to] = versionB[from];
+        }
+    }
+
+    private final int vertexCount;
+    private final int triangleCount;
+    private final double[] positions;
+    private final double[] quadrics;
+    private final int[] indices;
+    private final int[] version;
+    private final boolean[] vertexAlive;
+    private final boolean[] faceAlive;
+    // Corners (face * 3 + k) incident to each vertex, as singly linked lists
+    private final int[] cornerHead;
+    private final int[] cornerNext;
+    private final int[] mark;
+    private int markStamp;
+    private final double[] candidate = new double[3];
+    private final EdgeHeap heap;
+    private int liveTriangles;
+
+    private MeshDecimator(IndexedMesh mesh) {
+        vertexCount = mesh.vertexCount;
+        triangleCount = mesh.triangleCount;
+        positions = new double[vertexCount * 3];
+        for (int i = 0; i < positions.length; i++) {
+            positions[i] = mesh.positions[i];
+        }
+        indices = Arrays.copyOf(mesh.indices, mesh.indices.length);
+        quadrics = new double[vertexCount * 10];
+        version = new int[vertexCount];
+        vertexAlive = new boolean[vertexCount];
+        faceAlive = new boolean[triangleCount];
+        cornerHead = new int[vertexCount];
+        cornerNext = new int[triangleCount * 3];
+        mark = new int[vertexCount];
+        // a closed mesh has 1.5 edges per face; the slack absorbs re-queued edges between prunes
+        heap = new EdgeHeap(triangleCount * 2 + 16);
+        Arrays.fill(cornerHead, -1);
+    }
+
+    // Simplifies until at most targetTriangles remain or no edge can be collapsed safely
+    static Result decimate(IndexedMesh mesh, int targetTriangles) {
+        long startMs = System.currentTimeMillis();
+        MeshDecimator decimator = new MeshDecimator(mesh);
+        decimator.initialise();
+        double reached = decimator.run(Math.max(targetTriangles, 4));
+        IndexedMesh out = decimator.compact();
+        return new Result(out, mesh.triangleCount, out.triangleCount, Math.sqrt(reached),
+                System.currentTimeMillis() - startMs);
+    }
+
+    static Result decimate(StlModel model, float ratio) {
+        return decimate(IndexedMesh.weld(model), ratio);
+    }
+
+    static Result decimate(IndexedMesh mesh, float ratio) {
+        int target = (int) Math.ceil(mesh.triangleCount * (double) ratio);
+        return decimate(mesh, target);
+    }
+
+    private void initialise() {
+        for (int f = 0; f < triangleCount; f++) {
+            int ia = indices[f * 3];
+            int ib = indices[f * 3 + 1];
+            int ic = indices[f * 3 + 2];
+            if (ia == ib || ib == ic || ia == ic) {
+                continue;
+            }
+            faceAlive[f] = true;
+            liveTriangles++;
+            for (int k = 0; k < 3; k++) {
+                int v = indices[f * 3 + k];
+                vertexAlive[v] = true;
+                cornerNext[f * 3 + k] = cornerHead[v];
+                cornerHead[v] = f * 3 + k;
+            }
+            addFacePlane(ia, ib, ic);
+        }
+        for (int f = 0; f < triangleCount; f++) {
+            if (!faceAlive[f]) {
+                continue;
+            }
+            for (int k = 0; k < 3; k++) {
+                int u = indices[f * 3 + k];
+                int v = indices[f * 3 + (k + 1) % 3];
+                // each interior edge is seen from both faces; queue it once
+                if (u < v) {
+                    queue(u, v);
+                }
+            }
+        }
+    }
+
+    private double run(int targetTriangles) {
+        double reached = 0;
+        double[] target = new double[3];
+        while (liveTriangles > targetTriangles && heap.size > 0) {
+            heap.pop();
+            int slot = heap.size;
+            double cost = heap.cost[slot];
+            int u = heap.a[slot];
+            int v = heap.b[slot];
+            if (!vertexAlive[u] || !vertexAlive[v] || version[u] != heap.versionA[slot]
+                    || version[v] != heap.versionB[slot]) {
+                continue;
+            }
+            optimalPosition(u, v, target);
+            if (!canCollapse(u, v, target)) {
+                continue;
+            }
+            collapse(u, v, target);
+            reached = Math.max(reached, cost);
+        }
+        return reached;
+    }
+
+    private void pruneHeap() {
+        int kept = 0;
+        for (int i = 0; i < heap.size; i++) {
+            int u = heap.a[i];
+            int v = heap.b[i];
+            if (vertexAlive[u] && vertexAlive[v] && version[u] == heap.versionA[i]
+                    && version[v] == heap.versionB[i]) {
+                heap.cost[kept] = heap.cost[i];
+                heap.a[kept] = u;
+                heap.b[kept] = v;
+                heap.versionA[kept] = heap.versionA[i];
+                heap.versionB[kept] = heap.versionB[i];
+                kept++;
+            }
+        }
+        heap.size = kept;
+        heap.heapify();
+    }
+
+    private void queue(int u, int v) {
+        // Drop stale entries before growing; only grow if that did not free a useful amount
+        if (heap.isFull()) {
+            pruneHeap();
+            if (heap.size > heap.cost.length - (heap.cost.length >> 2)) {
+                heap.grow();
+            }
+        }
+        double cost = optimalPosition(u, v, candidate);
+        heap.push(cost, u, v, version[u], version[v]);
+    }
+
+    // Writes the collapse point for (u, v) and returns its quadric error
+    private double optimalPosition(int u, int v, double[] out) {
+        int qu = u * 10;
+        int qv = v * 10;
+        double a00 = quadrics[qu] + quadrics[qv];
+        double a01 = quadrics[qu + 1] + quadrics[qv + 1];
+        double a02 = quadrics[qu + 2] + quadrics[qv + 2];
+        double b0 = quadrics[qu + 3] + quadrics[qv + 3];
+        double a11 = quadrics[qu + 4] + quadrics[qv + 4];
+        double a12 = quadrics[qu + 5] + quadrics[qv + 5];
+        double b1 = quadrics[qu + 6] + quadrics[qv + 6];
+        double a22 = quadrics[qu + 7] + quadrics[qv + 7];
+        double b2 = quadrics[qu + 8] + quadrics[qv + 8];
+        double c = quadrics[qu + 9] + quadrics[qv + 9];
+
+        double det = a00 * (a11 * a22 - a12 * a12) - a01 * (a01 * a22 - a12 * a02) + a02 * (a01 * a12 - a11 * a02);
+        double scale = Math.abs(a00) + Math.abs(a11) + Math.abs(a22);
+        if (Math.abs(det) > 1e-9 * scale * scale * scale && scale > 0) {
+            double inv = 1.0 / det;
+            out[0] = -inv * (b0 * (a11 * a22 - a12 * a12) - a01 * (b1 * a22 - a12 * b2) + a02 * (b1 * a12 - a11 * b2));
+            out[1] = -inv * (a00 * (b1 * a22 - a12 * b2) - b0 * (a01 * a22 - a12 * a02) + a02 * (a01 * b2 - b1 * a02));
+            out[2] = -inv * (a00 * (a11 * b2 - b1 * a12) - a01 * (a01 * b2 - b1 * a02) + b0 * (a01 * a12 - a11 * a02));
+            return Math.max(0, error(a00, a01, a02, b0, a11, a12, b1, a22, b2, c, out[0], out[1], out[2]));
+        }
+
+        // Flat or linear neighbourhood: pick the best of the two ends and the midpoint
+        double best = Double.POSITIVE_INFINITY;
+        for (int i = 0; i < 3; i++) {
+            double t = i * 0.5;
+            double x = positions[u * 3] + (positions[v * 3] - positions[u * 3]) * t;
+            double y = positions[u * 3 + 1] + (positions[v * 3 + 1] - positions[u * 3 + 1]) * t;
+            double z = positions[u * 3 + 2] + (positions[v * 3 + 2] - positions[u * 3 + 2]) * t;
+            double e = error(a00, a01, a02, b0, a11, a12, b1, a22, b2, c, x, y, z);
+            if (e < best) {
+                best = e;
+                out[0] = x;
+                out[1] = y;
+                out[2] = z;
+            }
+        }
+        return Math.max(0, best);
+    }
+
+    private static double error(double a00, double a01, double a02, double b0, double a11, double a12, double b1,
+            double a22, double b2, double c, double x, double y, double z) {
+        return a00 * x * x + 2 * a01 * x * y + 2 * a02 * x * z + 2 * b0 * x
+                + a11 * y * y + 2 * a12 * y * z + 2 * b1 * y
+                + a22 * z * z + 2 * b2 * z + c;
+    }
+
+    // Rejects collapses that would pinch the surface (more than two shared neighbours) or flip a face
+    private boolean canCollapse(int u, int v, double[] target) {
+        nextStamp();
+        for (int c = cornerHead[u]; c >= 0; c = cornerNext[c]) {
+            int f = c / 3;
+            if (!faceAlive[f]) {
+                continue;
+            }
+            for (int k = 0; k < 3; k++) {
+                mark[indices[f * 3 + k]] = markStamp;
+            }
+        }
+        int shared = 0;
+        int sharedStamp = markStamp + 1;
+        for (int c = cornerHead[v]; c >= 0; c = cornerNext[c]) {
+            int f = c / 3;
+            if (!faceAlive[f]) {
+                continue;
+            }
+            for (int k = 0; k < 3; k++) {
+                int w = indices[f * 3 + k];
+                if (w != u && w != v && mark[w] == markStamp) {
+                    mark[w] = sharedStamp;
+                    shared++;
+                }
+            }
+        }
+        markStamp = sharedStamp;
+        if (shared > 2) {
+            return false;
+        }
+        return !flips(u, v, target) && !flips(v, u, target);
+    }
+
+    // True when moving 'moved' to target turns any of its faces that do not also contain 'other' upside down
+    private boolean flips(int moved, int other, double[] target) {
+        double mx = positions[moved * 3];
+        double my = positions[moved * 3 + 1];
+        double mz = positions[moved * 3 + 2];
+        for (int c = cornerHead[moved]; c >= 0; c = cornerNext[c]) {
+            int f = c / 3;
+            if (!faceAlive[f]) {
+                continue;
+            }
+            int k = c % 3;
+            int p = indices[f * 3 + (k + 1) % 3] * 3;
+            int q = indices[f * 3 + (k + 2) % 3] * 3;
+            if (p == other * 3 || q == other * 3) {
+                continue;
+            }
+            double px = positions[p];
+            double py = positions[p + 1];
+            double pz = positions[p + 2];
+            double qx = positions[q];
+            double qy = positions[q + 1];
+            double qz = positions[q + 2];
+
+            // the edge p-q is shared by both versions of the face, so compare (p - m) x (q - m)
+            double ex = qx - px;
+            double ey = qy - py;
+            double ez = qz - pz;
+            double bx = (py - my) * ez - (pz - mz) * ey;
+            double by = (pz - mz) * ex - (px - mx) * ez;
+            double bz = (px - mx) * ey - (py - my) * ex;
+            double ax = (py - target[1]) * ez - (pz - target[2]) * ey;
+            double ay = (pz - target[2]) * ex - (px - target[0]) * ez;
+            double az = (px - target[0]) * ey - (py - target[1]) * ex;
+
+            double dot = bx * ax + by * ay + bz * az;
+            double lb = Math.sqrt(bx * bx + by * by + bz * bz);
+            double la = Math.sqrt(ax * ax + ay * ay + az * az);
+            if (la <= 0 || dot <= 0.2 * lb * la) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void collapse(int u, int v, double[] target) {
+        positions[u * 3] = target[0];
+        positions[u * 3 + 1] = target[1];
+        positions[u * 3 + 2] = target[2];
+        for (int i = 0; i < 10; i++) {
+            quadrics[u * 10 + i] += quadrics[v * 10 + i];
+        }
+        vertexAlive[v] = false;
+        version[u]++;
+
+        // Faces on the collapsed edge vanish, v's other faces move over to u
+        int tail = -1;
+        for (int c = cornerHead[v]; c >= 0; ) {
+            int next = cornerNext[c];
+            int f = c / 3;
+            if (faceAlive[f]) {
+                if (indices[f * 3] == u || indices[f * 3 + 1] == u || indices[f * 3 + 2] == u) {
+                    faceAlive[f] = false;
+                    liveTriangles--;
+                } else {
+                    indices[c] = u;
+                    cornerNext[c] = tail;
+                    tail = c;
+                }
+            }
+            c = next;
+        }
+        cornerHead[v] = -1;
+
+        // Rebuild u's list without dead faces, then append the moved corners
+        int head = tail;
+        for (int c = cornerHead[u]; c >= 0; ) {
+            int next = cornerNext[c];
+            if (faceAlive[c / 3]) {
+                cornerNext[c] = head;
+                head = c;
+            }
+            c = next;
+        }
+        cornerHead[u] = head;
+
+        // Re-queue each edge around u once; neighbours' versions are unchanged, so entries for their
+        // other edges stay valid
+        nextStamp();
+        for (int c = cornerHead[u]; c >= 0; c = cornerNext[c]) {
+            int f = c / 3;
+            int k = c % 3;
+            queueOnce(u, indices[f * 3 + (k + 1) % 3]);
+            queueOnce(u, indices[f * 3 + (k + 2) % 3]);
+        }
+    }
+
+    private void queueOnce(int u, int w) {
+        if (mark[w] == markStamp) {
+            return;
+        }
+        mark[w] = markStamp;
+        if (u < w) {
+            queue(u, w);
+        } else {
+            queue(w, u);
+        }
+    }
+
+    private void nextStamp() {
+        if (markStamp >= Integer.MAX_VALUE - 2) {
+            Arrays.fill(mark, 0);
+            markStamp = 0;
+        }
+        markStamp++;
+    }
+
+    // Quadric stored as the upper triangle of the 4x4 plane product: xx xy xz xd yy yz yd zz zd dd
+    private void addFacePlane(int ia, int ib, int ic) {
+        double x0 = positions[ia * 3];
+        double y0 = positions[ia * 3 + 1];
+        double z0 = positions[ia * 3 + 2];
+        double ux = positions[ib * 3] - x0;
+        double uy = positions[ib * 3 + 1] - y0;
+        double uz = positions[ib * 3 + 2] - z0;
+        double vx = positions[ic * 3] - x0;
+        double vy = positions[ic * 3 + 1] - y0;
+        double vz = positions[ic * 3 + 2] - z0;
+        double nx = uy * vz - uz * vy;
+        double ny = uz * vx - ux * vz;
+        double nz = ux * vy - uy * vx;
+        double len = Math.sqrt(nx * nx + ny * ny + nz * nz);
+        if (len <= 0) {
+            return;
+        }
+        nx /= len;
+        ny /= len;
+        nz /= len;
+        double d = -(nx * x0 + ny * y0 + nz * z0);
+        addPlane(ia, nx, ny, nz, d);
+        addPlane(ib, nx, ny, nz, d);
+        addPlane(ic, nx, ny, nz, d);
+    }
+
+    private void addPlane(int v, double nx, double ny, double nz, double d) {
+        int q = v * 10;
+        quadrics[q] += nx * nx;
+        quadrics[q + 1] += nx * ny;
+        quadrics[q + 2] += nx * nz;
+        quadrics[q + 3] += nx * d;
+        quadrics[q + 4] += ny * ny;
+        quadrics[q + 5] += ny * nz;
+        quadrics[q + 6] += ny * d;
+        quadrics[q + 7] += nz * nz;
+        quadrics[q + 8] += nz * d;
+        quadrics[q + 9] += d * d;
+    }
+
+    private IndexedMesh compact() {
+        int[] remap = new int[vertexCount];
+        Arrays.fill(remap, -1);
+        int[] outIndices = new int[liveTriangles * 3];
+        int next = 0;
+        int out = 0;
+        for (int f = 0; f < triangleCount; f++) {
+            if (!faceAlive[f]) {
+                continue;
+            }
+            for (int k = 0; k < 3; k++) {
+                int v = indices[f * 3 + k];
+                if (remap[v] < 0) {
+                    remap[v] = next++;
+                }
+                outIndices[out++] = remap[v];
+            }
+        }
+        float[] outPositions = new float[next * 3];
+        for (int v = 0; v < vertexCount; v++) {
+            int r = remap[v];
+            if (r >= 0) {
+                outPositions[r * 3] = (float) positions[v * 3];
+                outPositions[r * 3 + 1] = (float) positions[v * 3 + 1];
+                outPositions[r * 3 + 2] = (float) positions[v * 3 + 2];
+            }
+        }
+        return new IndexedMesh(outPositions, Arrays.copyOf(outIndices, out));
+    }
+}
@@ -0,0 +1,261 @@
+package com.openscad.standalone;
+
+// Triangle-level comparison of two renders. Each triangle is reduced to a 64-bit key of its corners snapped
+// to a tolerance grid (corner order ignored), and keys are matched as a multiset: a triangle is unchanged
+// if the other render has one with the same key, otherwise it was added or removed.
+class MeshDiff {
+
+    static final byte UNCHANGED = 0;
+    static final byte ADDED = 1;
+    static final byte REMOVED = 2;
+
+    private static final int MIN_TRIANGLES_PER_SHARD = 50000;
+
+    final int unchanged;
+    final int added;
+    final int removed;
+    // Per triangle of the newer model: UNCHANGED or ADDED
+    final byte[] currentTags;
+    // Per triangle of the older model: UNCHANGED or REMOVED
+    final byte[] previousTags;
+    final long durationMs;
+
+    private MeshDiff(int unchanged, int added, int removed, byte[] currentTags, byte[] previousTags,
+            long durationMs) {
+        this.unchanged = unchanged;
+        this.added = added;
+        this.removed = removed;
+        this.currentTags = currentTags;
+        this.previousTags = previousTags;
+        this.durationMs = durationMs;
+    }
+
+    static MeshDiff compare(final StlModel previous, final StlModel current, float tolerance) {
+        long startMs = System.currentTimeMillis();
+        final double scale = 1.0 / Math.max(tolerance, 1e-9f);
+        final int previousCount = previous.vertexCount / 3;
+        final int currentCount = current.vertexCount / 3;
+
+        final long[] previousKeys = new long[previousCount];
+        final long[] currentKeys = new long[currentCount];
+        int keyShards = ParallelRanges.shardCount(previousCount + currentCount, MIN_TRIANGLES_PER_SHARD);
+        ParallelRanges.run(previousCount, keyShards, new ParallelRanges.ShardTask() {
+            @Override
+            public void run(int shard, int start, int end) {
+                computeKeys(previous.vertices, scale, start, end, previousKeys);
+            }
+        });
+        ParallelRanges.run(currentCount, keyShards, new ParallelRanges.ShardTask() {
+            @Override
+            public void run(int shard, int start, int end) {
+                computeKeys(current.vertices, scale, start, end, currentKeys);
+            }
+        });
+
+        // Keys are partitioned by hash, so each shard matches its own slice of both meshes in a private table
+        final byte[] previousTags = new byte[previousCount];
+        final byte[] currentTags = new byte[currentCount];
+        final int shards = ParallelRanges.shardCount(Math.max(previousCount, currentCount),
+                MIN_TRIANGLES_PER_SHARD);
+        final int[][] counts = new int[shards][];
+        ParallelRanges.run(shards, shards, new ParallelRanges.ShardTask() {
+            @Override
+            public void run(int shard, int start, int end) {
+                counts[shard] = match(previousKeys, currentKeys, previousTags, currentTags, shard, shards);
+            }
+        });
+
+        int unchanged = 0;
+        int added = 0;
+        int removed = 0;
+        for (int[] c : counts) {
+            unchanged += c[0];
+            added += c[1];
+            removed += c[2];
+        }
+        return new MeshDiff(unchanged, added, removed, currentTags, previousTags,
+                System.currentTimeMillis() - startMs);
+    }
+
+    // One model holding the newer render plus the removed triangles of the older one, with a tag per
+    // triangle for the viewer's colouring.
+    StlModel overlay(StlModel previous, StlModel current) {
+        float[] vertices = new float[(current.vertexCount + removed * 3) * 3];
+        float[] normals = new float[vertices.length];
+        System.arraycopy(current.vertices, 0, vertices, 0, current.vertices.length);
+        System.arraycopy(current.normals, 0, normals, 0, current.normals.length);
+        int at = current.vertices.length;
+        for (int t = 0; t < previousTags.length; t++) {
+            if (previousTags[t] == REMOVED) {
+                System.arraycopy(previous.vertices, t * 9, vertices, at, 9);
+                System.arraycopy(previous.normals, t * 9, normals, at, 9);
+                at += 9;
+            }
+        }
+
+        float minX = Float.POSITIVE_INFINITY;
+        float minY = Float.POSITIVE_INFINITY;
+        float minZ = Float.POSITIVE_INFINITY;
+        float maxX = Float.NEGATIVE_INFINITY;
+        float maxY = Float.NEGATIVE_INFINITY;
+        float maxZ = Float.NEGATIVE_INFINITY;
+        for (int i = 0; i < vertices.length; i += 3) {
+            minX = Math.min(minX, vertices[i]);
+            minY = Math.min(minY, vertices[i + 1]);
+            minZ = Math.min(minZ, vertices[i + 2]);
+            maxX = Math.max(maxX, vertices[i]);
+            maxY = Math.max(maxY, vertices[i + 1]);
+            maxZ = Math.max(maxZ, vertices[i + 2]);
+        }
+        float radius = Math.max(maxX - minX, Math.max(maxY - minY, maxZ - minZ)) * 0.6f;
+        if (!(radius >= 0.001f)) {
+            radius = 1f;
+        }
+        return new StlModel(vertices, normals, (minX + maxX) * 0.5f, (minY + maxY) * 0.5f,
+                (minZ + maxZ) * 0.5f, radius);
+    }
+
+    // Tags in the same order as overlay()'s triangles
+    byte[] overlayTags() {
+        byte[] tags = new byte[currentTags.length + removed];
+        System.arraycopy(currentTags, 0, tags, 0, currentTags.length);
+        for (int i = currentTags.length; i < tags.length; i++) {
+            tags[i] = REMOVED;
+        }
+        return tags;
+    }
+
+    private static void computeKeys(float[] vertices, double scale, int start, int end, long[] out) {
+        for (int t = start; t < end; t++) {
+            int o = t * 9;
+            long a = cornerHash(vertices, o, scale);
+            long b = cornerHash(vertices, o + 3, scale);
+            long c = cornerHash(vertices, o + 6, scale);
+            // sort the three corners so rotated copies of a triangle produce the same key
+            if (a > b) {
+                long x = a;
+                a = b;
+                b = x;
+            }
+            if (b > c) {
+                long x = b;
+                b = c;
+                c = x;
+            }
+            if (a > b) {
+                long x = a;
+                a = b;
+                b = x;
+            }
+            long key = mix(mix(mix(a) ^ b) ^ c);
+            // 0 marks an empty table slot
+            out[t] = key == 0 ? 1 : key;
+        }
+    }
+
+    private static long cornerHash(float[] v, int o, double scale) {
+        long x = Math.round(v[o] * scale);
+        long y = Math.round(v[o + 1] * scale);
+        long z = Math.round(v[o + 2] * scale);
+        return mix(x * 0x9E3779B97F4A7C15L ^ y * 0xC2B2AE3D27D4EB4FL ^ z * 0x165667B19E3779F9L);
+    }
+
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    private static int shardOf(long key, int shards) {
+        return (int) ((key >>> 40) % shards);
+    }
+
+    // Returns {unchanged, added, removed} for the keys owned by this shard
+    private static int[] match(long[] previousKeys, long[] currentKeys, byte[] previousTags, byte[] currentTags,
+            int shard, int shards) {
+        int expected = Math.max(16, previousKeys.length / shards);
+        int tableSize = Integer.highestOneBit(expected * 2 - 1) << 2;
+        int mask = tableSize - 1;
+        long[] keys = new long[tableSize];
+        int[] remaining = new int[tableSize];
+        int used = 0;
+
+        for (long key : previousKeys) {
+            if (shards > 1 && shardOf(key, shards) != shard) {
+                continue;
+            }
+            if (used * 2 >= tableSize) {
+                long[] oldKeys = keys;
+                int[] oldRemaining = remaining;
+                tableSize <<= 1;
+                mask = tableSize - 1;
+                keys = new long[tableSize];
+                remaining = new int[tableSize];
+                for (int i = 0; i < oldKeys.length; i++) {
+                    if (oldKeys[i] != 0) {
+                        int slot = (int) oldKeys[i] & mask;
+                        while (keys[slot] != 0) {
+                            slot = (slot + 1) & mask;
+                        }
+                        keys[slot] = oldKeys[i];
+                        remaining[slot] = oldRemaining[i];
+                    }
+                }
+            }
+            int slot = (int) key & mask;
+            while (keys[slot] != 0 && keys[slot] != key) {
+                slot = (slot + 1) & mask;
+            }
+            if (keys[slot] == 0) {
+                keys[slot] = key;
+                used++;
+            }
+            remaining[slot]++;
+        }
+
+        int unchanged = 0;
+        int added = 0;
+        for (int t = 0; t < currentKeys.length; t++) {
+            long key = currentKeys[t];
+            if (shards > 1 && shardOf(key, shards) != shard) {
+                continue;
+            }
+            int slot = (int) key & mask;
+            while (keys[slot] != 0 && keys[slot] != key) {
+                slot = (slot + 1) & mask;
+            }
+            if (keys[slot] == key && remaining[slot] > 0) {
+                remaining[slot]--;
+                currentTags[t] = UNCHANGED;
+                unchanged++;
+            } else {
+                currentTags[t] = ADDED;
+                added++;
+            }
+        }
+
+        // Whatever is left unmatched in the table was removed; tag that many of the older triangles
+        int removed = 0;
+        for (int t = 0; t < previousKeys.length; t++) {
+            long key = previousKeys[t];
+            if (shards > 1 && shardOf(key, shards) != shard) {
+                continue;
+            }
+            int slot = (int) key & mask;
+            while (keys[slot] != key) {
+                slot = (slot + 1) & mask;
+            }
+            if (remaining[slot] > 0) {
+                remaining[slot]--;
+                previousTags[t] = REMOVED;
+                removed++;
+            } else {
+                previousTags[t] = UNCHANGED;
+            }
+        }
+        return new int[] { unchanged, added, removed };
+    }
+}
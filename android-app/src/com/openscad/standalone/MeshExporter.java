@@ -0,0 +1,258 @@
+package com.openscad.standalone;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+// Writes the in-memory mesh in other formats. Everything goes through one 256 KB ByteBuffer drained
+// into a channel, so a large export costs a handful of big writes instead of one call per number.
+class MeshExporter {
+
+    enum Format {
+        STL_BINARY("Binary STL", ".stl", "model/stl"),
+        STL_GZIP("Binary STL (gzip)", ".stl.gz", "application/gzip"),
+        THREE_MF("3MF", ".3mf", "model/3mf"),
+        OBJ("OBJ", ".obj", "model/obj");
+
+        final String label;
+        final String extension;
+        final String mimeType;
+
+        Format(String label, String extension, String mimeType) {
+            this.label = label;
+            this.extension = extension;
+            this.mimeType = mimeType;
+        }
+    }
+
+    interface ProgressListener {
+        void onProgress(long done, long total);
+    }
+
+    private static class ChannelSink {
+        private final WritableByteChannel channel;
+        private final ByteBuffer buffer;
+
+        ChannelSink(OutputStream out) {
+            this.channel = Channels.newChannel(out);
+            this.buffer = ByteBuffer.allocate(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        }
+
+        void ascii(String text) throws IOException {
+            int length = text.length();
+            for (int i = 0; i < length; i++) {
+                if (!buffer.hasRemaining()) {
+                    drain();
+                }
+                buffer.put((byte) text.charAt(i));
+            }
+        }
+
+        void number(float value) throws IOException {
+            ascii(Float.toString(value));
+        }
+
+        void number(int value) throws IOException {
+            ascii(Integer.toString(value));
+        }
+
+        void putFloatLe(float value) throws IOException {
+            ensure(4);
+            buffer.putFloat(value);
+        }
+
+        void putIntLe(int value) throws IOException {
+            ensure(4);
+            buffer.putInt(value);
+        }
+
+        void putShortLe(short value) throws IOException {
+            ensure(2);
+            buffer.putShort(value);
+        }
+
+        // Writes exactly length bytes, zero-padding past the end of data
+        void padded(byte[] data, int length) throws IOException {
+            for (int i = 0; i < length; i++) {
+                ensure(1);
+                buffer.put(i < data.length ? data[i] : 0);
+            }
+        }
+
+        void drain() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        private void ensure(int bytes) throws IOException {
+            if (buffer.remaining() < bytes) {
+                drain();
+            }
+        }
+    }
+
+    private static final int BUFFER_SIZE = 256 * 1024;
+    private static final int PROGRESS_STEP = 64 * 1024;
+
+    private static final String CONTENT_TYPES = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+            + "<Types xmlns=\"http://schemas.openxmlformats.org/package/2006/content-types\">"
+            + "<Default Extension=\"rels\" ContentType=\"application/vnd.openxmlformats-package.relationships+xml\"/>"
+            + "<Default Extension=\"model\" ContentType=\"application/vnd.ms-package.3dmanufacturing-3dmodel+xml\"/>"
+            + "</Types>\n";
+    private static final String RELATIONSHIPS = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+            + "<Relationships xmlns=\"http://schemas.openxmlformats.org/package/2006/relationships\">"
+            + "<Relationship Target=\"/3D/3dmodel.model\" Id=\"rel0\" "
+            + "Type=\"http://schemas.microsoft.com/3dmanufacturing/2013/01/3dmodel\"/>"
+            + "</Relationships>\n";
+
+    static void export(StlModel model, Format format, OutputStream out, ProgressListener listener)
+            throws IOException {
+        switch (format) {
+            case STL_BINARY:
+                writeBinaryStl(model, out, listener);
+                break;
+            case STL_GZIP:
+                GZIPOutputStream gzip = new GZIPOutputStream(out, BUFFER_SIZE);
+                writeBinaryStl(model, gzip, listener);
+                gzip.finish();
+                break;
+            case THREE_MF:
+                write3mf(IndexedMesh.weld(model), out, listener);
+                break;
+            case OBJ:
+                writeObj(IndexedMesh.weld(model), out, listener);
+                break;
+            default:
+                throw new IOException("Unsupported export format: " + format);
+        }
+        out.flush();
+    }
+
+    static void writeBinaryStl(StlModel model, OutputStream out, ProgressListener listener) throws IOException {
+        ChannelSink sink = new ChannelSink(out);
+        int triangles = model.vertexCount / 3;
+        byte[] header = "OpenSCAD Standalone export".getBytes("US-ASCII");
+        sink.padded(header, 80);
+        sink.putIntLe(triangles);
+        for (int t = 0; t < triangles; t++) {
+            int o = t * 9;
+            sink.putFloatLe(model.normals[o]);
+            sink.putFloatLe(model.normals[o + 1]);
+            sink.putFloatLe(model.normals[o + 2]);
+            for (int k = 0; k < 9; k++) {
+                sink.putFloatLe(model.vertices[o + k]);
+            }
+            sink.putShortLe((short) 0);
+            report(listener, t + 1, triangles);
+        }
+        sink.drain();
+        if (listener != null) {
+            listener.onProgress(triangles, triangles);
+        }
+    }
+
+    static void writeObj(IndexedMesh mesh, OutputStream out, ProgressListener listener) throws IOException {
+        ChannelSink sink = new ChannelSink(out);
+        long total = (long) mesh.vertexCount + mesh.triangleCount;
+        sink.ascii("# OpenSCAD Standalone export\n");
+        sink.ascii("# " + mesh.vertexCount + " vertices, " + mesh.triangleCount + " triangles\n");
+        for (int v = 0; v < mesh.vertexCount; v++) {
+            sink.ascii("v ");
+            sink.number(mesh.positions[v * 3]);
+            sink.ascii(" ");
+            sink.number(mesh.positions[v * 3 + 1]);
+            sink.ascii(" ");
+            sink.number(mesh.positions[v * 3 + 2]);
+            sink.ascii("\n");
+            report(listener, v + 1, total);
+        }
+        for (int t = 0; t < mesh.triangleCount; t++) {
+            if (mesh.isDegenerate(t)) {
+                continue;
+            }
+            // OBJ indices are 1-based
+            sink.ascii("f ");
+            sink.number(mesh.indices[t * 3] + 1);
+            sink.ascii(" ");
+            sink.number(mesh.indices[t * 3 + 1] + 1);
+            sink.ascii(" ");
+            sink.number(mesh.indices[t * 3 + 2] + 1);
+            sink.ascii("\n");
+            report(listener, (long) mesh.vertexCount + t + 1, total);
+        }
+        sink.drain();
+        if (listener != null) {
+            listener.onProgress(total, total);
+        }
+    }
+
+    static void write3mf(IndexedMesh mesh, OutputStream out, ProgressListener listener) throws IOException {
+        ZipOutputStream zip = new ZipOutputStream(out);
+        zip.setLevel(Deflater.DEFAULT_COMPRESSION);
+
+        zip.putNextEntry(new ZipEntry("[Content_Types].xml"));
+        zip.write(CONTENT_TYPES.getBytes("UTF-8"));
+        zip.closeEntry();
+
+        zip.putNextEntry(new ZipEntry("_rels/.rels"));
+        zip.write(RELATIONSHIPS.getBytes("UTF-8"));
+        zip.closeEntry();
+
+        zip.putNextEntry(new ZipEntry("3D/3dmodel.model"));
+        ChannelSink sink = new ChannelSink(zip);
+        long total = (long) mesh.vertexCount + mesh.triangleCount;
+        sink.ascii("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+        sink.ascii("<model unit=\"millimeter\" xml:lang=\"en-US\" "
+                + "xmlns=\"http://schemas.microsoft.com/3dmanufacturing/core/2015/02\">\n");
+        sink.ascii("<resources>\n<object id=\"1\" type=\"model\">\n<mesh>\n<vertices>\n");
+        for (int v = 0; v < mesh.vertexCount; v++) {
+            sink.ascii("<vertex x=\"");
+            sink.number(mesh.positions[v * 3]);
+            sink.ascii("\" y=\"");
+            sink.number(mesh.positions[v * 3 + 1]);
+            sink.ascii("\" z=\"");
+            sink.number(mesh.positions[v * 3 + 2]);
+            sink.ascii("\"/>\n");
+            report(listener, v + 1, total);
+        }
+        sink.ascii("</vertices>\n<triangles>\n");
+        for (int t = 0; t < mesh.triangleCount; t++) {
+            // 3MF rejects triangles that reuse a vertex
+            if (mesh.isDegenerate(t)) {
+                continue;
+            }
+            sink.ascii("<triangle v1=\"");
+            sink.number(mesh.indices[t * 3]);
+            sink.ascii("\" v2=\"");
+            sink.number(mesh.indices[t * 3 + 1]);
+            sink.ascii("\" v3=\"");
+            sink.number(mesh.indices[t * 3 + 2]);
+            sink.ascii("\"/>\n");
+            report(listener, (long) mesh.vertexCount + t + 1, total);
+        }
+        sink.ascii("</triangles>\n</mesh>\n</object>\n</resources>\n");
+        sink.ascii("<build>\n<item objectid=\"1\"/>\n</build>\n</model>\n");
+        sink.drain();
+        zip.closeEntry();
+        zip.finish();
+        if (listener != null) {
+            listener.onProgress(total, total);
+        }
+    }
+
+    private static void report(ProgressListener listener, long done, long total) {
+        if (listener != null && done % PROGRESS_STEP == 0) {
+            listener.onProgress(done, total);
+        }
+    }
+}
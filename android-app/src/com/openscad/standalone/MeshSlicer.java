@@ -0,0 +1,308 @@
+package com.openscad.standalone;
+
+import java.util.Arrays;
+
+// Cuts the welded mesh with horizontal planes, one per layer at mid-layer height like a slicer does.
+// Triangles are bucketed by the layers their Z range spans; within a layer each crossing triangle gives
+// one segment between two mesh edges, and segments are chained into loops through a hash keyed by edge.
+class MeshSlicer {
+
+    static class Layer {
+        final int index;
+        final float z;
+        // x, y pairs of all loops back to back
+        final float[] points;
+        // Start of each loop in points (in points, not floats), plus a final entry equal to the point count
+        final int[] loopStarts;
+        final boolean[] loopClosed;
+        // Loops that did not close, which means holes or non-manifold edges at this height
+        final int openLoops;
+
+        Layer(int index, float z, float[] points, int[] loopStarts, boolean[] loopClosed, int openLoops) {
+            this.index = index;
+            this.z = z;
+            this.points = points;
+            this.loopStarts = loopStarts;
+            this.loopClosed = loopClosed;
+            this.openLoops = openLoops;
+        }
+
+        int loopCount() {
+            return loopStarts.length - 1;
+        }
+    }
+
+    static class Result {
+        final Layer[] layers;
+        final float layerHeight;
+        final long durationMs;
+
+        Result(Layer[] layers, float layerHeight, long durationMs) {
+            this.layers = layers;
+            this.layerHeight = layerHeight;
+            this.durationMs = durationMs;
+        }
+    }
+
+    private static final int MIN_LAYERS_PER_SHARD = 16;
+    private static final int MAX_LAYERS = 20000;
+
+    private final IndexedMesh mesh;
+    private final float minZ;
+    private final float layerHeight;
+    private final int layerCount;
+    // Triangles per layer in CSR form: bucket i is triangles[bucketStart[i] .. bucketStart[i + 1])
+    private final int[] bucketStart;
+    private final int[] triangles;
+
+    private MeshSlicer(IndexedMesh mesh, float minZ, float maxZ, float layerHeight) {
+        this.mesh = mesh;
+        this.minZ = minZ;
+        this.layerHeight = layerHeight;
+        this.layerCount = mesh.triangleCount == 0 ? 0 : Math.max(1, (int) Math.ceil((maxZ - minZ) / layerHeight));
+
+        int[] counts = new int[layerCount + 1];
+        for (int t = 0; t < mesh.triangleCount; t++) {
+            int first = firstLayer(t);
+            int last = lastLayer(t);
+            for (int l = first; l <= last; l++) {
+                counts[l + 1]++;
+            }
+        }
+        for (int l = 0; l < layerCount; l++) {
+            counts[l + 1] += counts[l];
+        }
+        this.bucketStart = counts;
+        this.triangles = new int[counts[layerCount]];
+        int[] fill = Arrays.copyOf(counts, layerCount);
+        for (int t = 0; t < mesh.triangleCount; t++) {
+            int first = firstLayer(t);
+            int last = lastLayer(t);
+            for (int l = first; l <= last; l++) {
+                triangles[fill[l]++] = t;
+            }
+        }
+    }
+
+    static Result slice(IndexedMesh mesh, float layerHeight) {
+        long startMs = System.currentTimeMillis();
+        float[] p = mesh.positions;
+        float lo = Float.POSITIVE_INFINITY;
+        float hi = Float.NEGATIVE_INFINITY;
+        for (int i = 2; i < p.length; i += 3) {
+            lo = Math.min(lo, p[i]);
+            hi = Math.max(hi, p[i]);
+        }
+        // keep pathological heights from allocating a layer per micron
+        float height = Math.max(layerHeight, (hi - lo) / MAX_LAYERS);
+        final MeshSlicer slicer = new MeshSlicer(mesh, lo, hi, height);
+        final Layer[] layers = new Layer[slicer.layerCount];
+        int shards = ParallelRanges.shardCount(slicer.layerCount, MIN_LAYERS_PER_SHARD);
+        ParallelRanges.run(slicer.layerCount, shards, new ParallelRanges.ShardTask() {
+            @Override
+            public void run(int shard, int start, int end) {
+                LoopBuilder builder = new LoopBuilder();
+                for (int l = start; l < end; l++) {
+                    layers[l] = slicer.sliceLayer(l, builder);
+                }
+            }
+        });
+        return new Result(layers, height, System.currentTimeMillis() - startMs);
+    }
+
+    private float planeZ(int layer) {
+        return minZ + (layer + 0.5f) * layerHeight;
+    }
+
+    // Layers whose plane lies inside the triangle's Z range
+    private int firstLayer(int t) {
+        float z = Math.min(vz(t, 0), Math.min(vz(t, 1), vz(t, 2)));
+        int l = (int) Math.ceil((z - minZ) / layerHeight - 0.5f);
+        return Math.max(0, Math.min(layerCount - 1, l));
+    }
+
+    private int lastLayer(int t) {
+        float z = Math.max(vz(t, 0), Math.max(vz(t, 1), vz(t, 2)));
+        int l = (int) Math.floor((z - minZ) / layerHeight - 0.5f);
+        return Math.max(0, Math.min(layerCount - 1, l));
+    }
+
+    private float vz(int t, int k) {
+        return mesh.positions[mesh.indices[t * 3 + k] * 3 + 2];
+    }
+
+    private Layer sliceLayer(int layer, LoopBuilder builder) {
+        float z = planeZ(layer);
+        float[] p = mesh.positions;
+        int[] idx = mesh.indices;
+        builder.reset(bucketStart[layer + 1] - bucketStart[layer]);
+        for (int i = bucketStart[layer]; i < bucketStart[layer + 1]; i++) {
+            int t = triangles[i];
+            if (mesh.isDegenerate(t)) {
+                continue;
+            }
+            int a = idx[t * 3];
+            int b = idx[t * 3 + 1];
+            int c = idx[t * 3 + 2];
+            // a vertex exactly on the plane counts as below, so every crossing is between two distinct edges
+            boolean aa = p[a * 3 + 2] > z;
+            boolean ba = p[b * 3 + 2] > z;
+            boolean ca = p[c * 3 + 2] > z;
+            if (aa == ba && ba == ca) {
+                continue;
+            }
+            // Rotate (keeping the winding) so the vertex alone on its side comes first. The edge crossing
+            // downwards is the segment's start and the one crossing upwards its end; a neighbour sharing the
+            // end edge traverses it the other way and starts there, so outer loops of an outward-facing mesh
+            // come out counter-clockwise seen from above and holes clockwise.
+            int lone;
+            int next;
+            int prev;
+            boolean loneAbove;
+            if (aa != ba && aa != ca) {
+                lone = a;
+                next = b;
+                prev = c;
+                loneAbove = aa;
+            } else if (ba != aa && ba != ca) {
+                lone = b;
+                next = c;
+                prev = a;
+                loneAbove = ba;
+            } else {
+                lone = c;
+                next = a;
+                prev = b;
+                loneAbove = ca;
+            }
+            if (loneAbove) {
+                builder.addSegment(edgeKey(lone, next), edgeKey(prev, lone), p, lone, next, z);
+            } else {
+                builder.addSegment(edgeKey(prev, lone), edgeKey(lone, next), p, prev, lone, z);
+            }
+        }
+        return builder.build(layer, z);
+    }
+
+    private static long edgeKey(int a, int b) {
+        int low = Math.min(a, b);
+        int high = Math.max(a, b);
+        return (((long) low << 32) | high) + 1;
+    }
+
+    // Per-thread scratch: segments of one layer and an open-addressing map from start edge to segment
+    private static class LoopBuilder {
+        long[] starts = new long[256];
+        long[] ends = new long[256];
+        float[] xs = new float[256];
+        float[] ys = new float[256];
+        boolean[] used = new boolean[256];
+        long[] tableKeys = new long[512];
+        int[] tableValues = new int[512];
+        int count;
+
+        void reset(int expected) {
+            count = 0;
+            if (starts.length < expected) {
+                int size = Math.max(expected, starts.length * 2);
+                starts = new long[size];
+                ends = new long[size];
+                xs = new float[size];
+                ys = new float[size];
+                used = new boolean[size];
+            }
+        }
+
+        // The segment's point is where the start edge (from -> to) crosses the plane
+        void addSegment(long start, long end, float[] p, int from, int to, float z) {
+            if (count == starts.length) {
+                int size = count * 2;
+                starts = Arrays.copyOf(starts, size);
+                ends = Arrays.copyOf(ends, size);
+                xs = Arrays.copyOf(xs, size);
+                ys = Arrays.copyOf(ys, size);
+                used = Arrays.copyOf(used, size);
+            }
+            float t = (z - p[from * 3 + 2]) / (p[to * 3 + 2] - p[from * 3 + 2]);
+            starts[count] = start;
+            ends[count] = end;
+            xs[count] = p[from * 3] + (p[to * 3] - p[from * 3]) * t;
+            ys[count] = p[from * 3 + 1] + (p[to * 3 + 1] - p[from * 3 + 1]) * t;
+            count++;
+        }
+
+        Layer build(int layer, float z) {
+            int tableSize = Integer.highestOneBit(Math.max(4, count * 2 - 1)) << 1;
+            if (tableKeys.length < tableSize) {
+                tableKeys = new long[tableSize];
+                tableValues = new int[tableSize];
+            } else {
+                tableSize = tableKeys.length;
+                Arrays.fill(tableKeys, 0L);
+            }
+            int mask = tableSize - 1;
+            for (int s = 0; s < count; s++) {
+                int slot = mix(starts[s]) & mask;
+                while (tableKeys[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                tableKeys[slot] = starts[s];
+                tableValues[slot] = s;
+                used[s] = false;
+            }
+
+            float[] points = new float[count * 2];
+            int[] loopStarts = new int[count + 1];
+            boolean[] closedLoops = new boolean[count];
+            int loops = 0;
+            int written = 0;
+            int open = 0;
+            for (int s = 0; s < count; s++) {
+                if (used[s]) {
+                    continue;
+                }
+                loopStarts[loops++] = written;
+                int at = s;
+                boolean closed = false;
+                while (true) {
+                    used[at] = true;
+                    points[written * 2] = xs[at];
+                    points[written * 2 + 1] = ys[at];
+                    written++;
+                    int next = find(ends[at], mask);
+                    if (next == s) {
+                        closed = true;
+                        break;
+                    }
+                    if (next < 0 || used[next]) {
+                        break;
+                    }
+                    at = next;
+                }
+                closedLoops[loops - 1] = closed;
+                if (!closed) {
+                    open++;
+                }
+            }
+            loopStarts[loops] = written;
+            return new Layer(layer, z, Arrays.copyOf(points, written * 2), Arrays.copyOf(loopStarts, loops + 1),
+                    Arrays.copyOf(closedLoops, loops), open);
+        }
+
+        private int find(long key, int mask) {
+            int slot = mix(key) & mask;
+            while (tableKeys[slot] != 0) {
+                if (tableKeys[slot] == key) {
+                    return tableValues[slot];
+                }
+                slot = (slot + 1) & mask;
+            }
+            return -1;
+        }
+
+        private static int mix(long key) {
+            long h = key * 0x9E3779B97F4A7C15L;
+            return (int) (h ^ (h >>> 32));
+        }
+    }
+}
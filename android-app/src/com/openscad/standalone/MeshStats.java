@@ -0,0 +1,278 @@
+package com.openscad.standalone;
+
+import java.util.Locale;
+
+// One pass over the welded mesh for the numbers that matter before printing: size, volume, area, and
+// whether every edge is shared by exactly two consistently wound triangles.
+class MeshStats {
+
+    private static final int MIN_TRIANGLES_PER_SHARD = 100000;
+    // Squared sine of the smallest corner angle still counted as a real triangle
+    private static final double DEGENERATE_SIN2 = 1e-12;
+
+    final int vertexCount;
+    final int triangleCount;
+    final double volume;
+    final double area;
+    final float minX;
+    final float minY;
+    final float minZ;
+    final float maxX;
+    final float maxY;
+    final float maxZ;
+    final int manifoldEdges;
+    final int boundaryEdges;
+    final int nonManifoldEdges;
+    // Shared by two triangles that traverse it in the same direction, i.e. one of them is flipped
+    final int misorientedEdges;
+    final int degenerateTriangles;
+    final long durationMs;
+
+    private MeshStats(int vertexCount, int triangleCount, double volume, double area, float[] bounds,
+            int[] edges, int degenerateTriangles, long durationMs) {
+        this.vertexCount = vertexCount;
+        this.triangleCount = triangleCount;
+        this.volume = volume;
+        this.area = area;
+        this.minX = bounds[0];
+        this.minY = bounds[1];
+        this.minZ = bounds[2];
+        this.maxX = bounds[3];
+        this.maxY = bounds[4];
+        this.maxZ = bounds[5];
+        this.manifoldEdges = edges[0];
+        this.boundaryEdges = edges[1];
+        this.nonManifoldEdges = edges[2];
+        this.misorientedEdges = edges[3];
+        this.degenerateTriangles = degenerateTriangles;
+        this.durationMs = durationMs;
+    }
+
+    boolean isWatertight() {
+        return boundaryEdges == 0 && nonManifoldEdges == 0 && misorientedEdges == 0;
+    }
+
+    String summary() {
+        return String.format(Locale.US, "%d triangles, %d vertices, volume %.3f mm3, area %.3f mm2, "
+                + "size %.3f x %.3f x %.3f", triangleCount, vertexCount, volume, area,
+                maxX - minX, maxY - minY, maxZ - minZ);
+    }
+
+    // Empty when the mesh is a clean closed solid
+    String problems() {
+        StringBuilder out = new StringBuilder();
+        appendProblem(out, boundaryEdges, "boundary edges (holes)");
+        appendProblem(out, nonManifoldEdges, "non-manifold edges");
+        appendProblem(out, misorientedEdges, "flipped-face edges");
+        appendProblem(out, degenerateTriangles, "degenerate triangles");
+        if (volume < 0) {
+            if (out.length() > 0) {
+                out.append(", ");
+            }
+            out.append("negative volume (inside-out)");
+        }
+        return out.toString();
+    }
+
+    private static void appendProblem(StringBuilder out, int count, String label) {
+        if (count <= 0) {
+            return;
+        }
+        if (out.length() > 0) {
+            out.append(", ");
+        }
+        out.append(count).append(' ').append(label);
+    }
+
+    static MeshStats analyze(final IndexedMesh mesh) {
+        long startMs = System.currentTimeMillis();
+        final int triangles = mesh.triangleCount;
+        int shards = ParallelRanges.shardCount(triangles, MIN_TRIANGLES_PER_SHARD);
+
+        // Geometry: each shard sums its own slice of triangles
+        final double[] volumes = new double[shards];
+        final double[] areas = new double[shards];
+        final int[] degenerate = new int[shards];
+        final float[][] shardBounds = new float[shards][];
+        ParallelRanges.run(triangles, shards, new ParallelRanges.ShardTask() {
+            @Override
+            public void run(int shard, int start, int end) {
+                float[] p = mesh.positions;
+                int[] idx = mesh.indices;
+                float[] b = { Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY,
+                        Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY };
+                double volume = 0;
+                double area = 0;
+                int bad = 0;
+                for (int t = start; t < end; t++) {
+                    int a = idx[t * 3] * 3;
+                    int bi = idx[t * 3 + 1] * 3;
+                    int c = idx[t * 3 + 2] * 3;
+                    for (int k = 0; k < 3; k++) {
+                        int v = idx[t * 3 + k] * 3;
+                        b[0] = Math.min(b[0], p[v]);
+                        b[1] = Math.min(b[1], p[v + 1]);
+                        b[2] = Math.min(b[2], p[v + 2]);
+                        b[3] = Math.max(b[3], p[v]);
+                        b[4] = Math.max(b[4], p[v + 1]);
+                        b[5] = Math.max(b[5], p[v + 2]);
+                    }
+                    double ax = p[a];
+                    double ay = p[a + 1];
+                    double az = p[a + 2];
+                    double ux = p[bi] - ax;
+                    double uy = p[bi + 1] - ay;
+                    double uz = p[bi + 2] - az;
+                    double vx = p[c] - ax;
+                    double vy = p[c + 1] - ay;
+                    double vz = p[c + 2] - az;
+                    double nx = uy * vz - uz * vy;
+                    double ny = uz * vx - ux * vz;
+                    double nz = ux * vy - uy * vx;
+                    double cross2 = nx * nx + ny * ny + nz * nz;
+                    double scale2 = (ux * ux + uy * uy + uz * uz) * (vx * vx + vy * vy + vz * vz);
+                    if (a == bi || bi == c || a == c || cross2 <= DEGENERATE_SIN2 * scale2) {
+                        bad++;
+                    }
+                    area += Math.sqrt(cross2) * 0.5;
+                    // signed tetrahedron volume against the origin: a . (b x c) / 6, expanded around a
+                    volume += (ax * nx + ay * ny + az * nz) / 6.0;
+                }
+                volumes[shard] = volume;
+                areas[shard] = area;
+                degenerate[shard] = bad;
+                shardBounds[shard] = b;
+            }
+        });
+
+        double volume = 0;
+        double area = 0;
+        int degenerateTotal = 0;
+        float[] bounds = { Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY,
+                Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY };
+        for (int s = 0; s < shards; s++) {
+            volume += volumes[s];
+            area += areas[s];
+            degenerateTotal += degenerate[s];
+            for (int k = 0; k < 3; k++) {
+                bounds[k] = Math.min(bounds[k], shardBounds[s][k]);
+                bounds[k + 3] = Math.max(bounds[k + 3], shardBounds[s][k + 3]);
+            }
+        }
+        if (triangles == 0) {
+            bounds = new float[6];
+        }
+
+        // Topology: edges are partitioned by hash, so every shard owns a disjoint table and needs no locks
+        final int[][] edgeCounts = new int[shards][];
+        final int edgeShards = shards;
+        ParallelRanges.run(shards, shards, new ParallelRanges.ShardTask() {
+            @Override
+            public void run(int shard, int start, int end) {
+                edgeCounts[shard] = countEdges(mesh, shard, edgeShards);
+            }
+        });
+        int[] edges = new int[4];
+        for (int s = 0; s < shards; s++) {
+            for (int k = 0; k < 4; k++) {
+                edges[k] += edgeCounts[s][k];
+            }
+        }
+
+        return new MeshStats(mesh.vertexCount, triangles, volume, area, bounds, edges, degenerateTotal,
+                System.currentTimeMillis() - startMs);
+    }
+
+    // Returns {manifold, boundary, nonManifold, misoriented} for the edges whose hash falls in this shard
+    private static int[] countEdges(IndexedMesh mesh, int shard, int shards) {
+        int[] idx = mesh.indices;
+        int expected = Math.max(16, (int) ((long) mesh.triangleCount * 3 / 2 / shards));
+        int tableSize = Integer.highestOneBit(expected * 2 - 1) << 1;
+        int mask = tableSize - 1;
+        // key is (low << 32 | high) + 1 so that 0 marks an empty slot
+        long[] keys = new long[tableSize];
+        int[] uses = new int[tableSize];
+        // +1 for each low->high traversal, -1 for high->low; a consistently wound pair sums to zero
+        int[] winding = new int[tableSize];
+        int used = 0;
+
+        for (int t = 0; t < mesh.triangleCount; t++) {
+            // a triangle that reuses a vertex has no area and contributes no real edges
+            if (mesh.isDegenerate(t)) {
+                continue;
+            }
+            for (int k = 0; k < 3; k++) {
+                int from = idx[t * 3 + k];
+                int to = idx[t * 3 + (k + 1) % 3];
+                int low = Math.min(from, to);
+                int high = Math.max(from, to);
+                long key = (((long) low << 32) | (high & 0xffffffffL)) + 1;
+                if (shards > 1 && shardOf(key, shards) != shard) {
+                    continue;
+                }
+                if (used * 2 >= tableSize) {
+                    // more edges than a closed mesh would have; rebuild at double size
+                    long[] oldKeys = keys;
+                    int[] oldUses = uses;
+                    int[] oldWinding = winding;
+                    tableSize <<= 1;
+                    mask = tableSize - 1;
+                    keys = new long[tableSize];
+                    uses = new int[tableSize];
+                    winding = new int[tableSize];
+                    for (int i = 0; i < oldKeys.length; i++) {
+                        if (oldKeys[i] == 0) {
+                            continue;
+                        }
+                        int slot = mix(oldKeys[i]) & mask;
+                        while (keys[slot] != 0) {
+                            slot = (slot + 1) & mask;
+                        }
+                        keys[slot] = oldKeys[i];
+                        uses[slot] = oldUses[i];
+                        winding[slot] = oldWinding[i];
+                    }
+                }
+                int slot = mix(key) & mask;
+                while (keys[slot] != 0 && keys[slot] != key) {
+                    slot = (slot + 1) & mask;
+                }
+                if (keys[slot] == 0) {
+                    keys[slot] = key;
+                    used++;
+                }
+                uses[slot]++;
+                winding[slot] += from < to ? 1 : -1;
+            }
+        }
+
+        int[] out = new int[4];
+        for (int i = 0; i < tableSize; i++) {
+            if (keys[i] == 0) {
+                continue;
+            }
+            if (uses[i] == 1) {
+                out[1]++;
+            } else if (uses[i] == 2) {
+                out[0]++;
+                if (winding[i] != 0) {
+                    out[3]++;
+                }
+            } else {
+                out[2]++;
+            }
+        }
+        return out;
+    }
+
+    // Independent of mix() so that a shard's keys still spread over its whole table
+    private static int shardOf(long key, int shards) {
+        long h = key * 0xC2B2AE3D27D4EB4FL;
+        return (int) ((h >>> 33) % shards);
+    }
+
+    private static int mix(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
@@ -7,6 +7,7 @@ import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -14,12 +15,25 @@ import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
 
 class OpenScadRuntime {
 
+    interface RenderListener {
+        void onOutputLine(String line);
+
+        void onStage(RenderStageTracker.Stage stage, long elapsedMs);
+    }
+
     static class RenderResult {
         final boolean success;
         final File stlFile;
@@ -27,14 +41,32 @@ class OpenScadRuntime {
         final String log;
         final String error;
         final long durationMs;
+        final List<RenderStageTracker.StageTiming> stageTimings;
+        final long openScadReportedMs;
+        // Parsed while streaming from openscad's stdout; null when the caller has to parse stlFile itself
+        final StlModel model;
 
         RenderResult(boolean success, File stlFile, File pngFile, String log, String error, long durationMs) {
+            this(success, stlFile, pngFile, log, error, durationMs,
+                    Collections.<RenderStageTracker.StageTiming>emptyList(), -1L);
+        }
+
+        RenderResult(boolean success, File stlFile, File pngFile, String log, String error, long durationMs,
+                List<RenderStageTracker.StageTiming> stageTimings, long openScadReportedMs) {
+            this(success, stlFile, pngFile, log, error, durationMs, stageTimings, openScadReportedMs, null);
+        }
+
+        RenderResult(boolean success, File stlFile, File pngFile, String log, String error, long durationMs,
+                List<RenderStageTracker.StageTiming> stageTimings, long openScadReportedMs, StlModel model) {
             this.success = success;
             this.stlFile = stlFile;
             this.pngFile = pngFile;
             this.log = log;
             this.error = error;
             this.durationMs = durationMs;
+            this.stageTimings = stageTimings;
+            this.openScadReportedMs = openScadReportedMs;
+            this.model = model;
         }
     }
 
@@ -42,38 +74,242 @@ class OpenScadRuntime {
         final int exitCode;
         final String output;
         final boolean timedOut;
+        final RenderStageTracker stages;
 
-        ExecResult(int exitCode, String output, boolean timedOut) {
+        ExecResult(int exitCode, String output, boolean timedOut, RenderStageTracker stages) {
             this.exitCode = exitCode;
             this.output = output;
             this.timedOut = timedOut;
+            this.stages = stages;
+        }
+    }
+
+    private static class LogRingBuffer {
+        private final String[] lines;
+        private int start;
+        private int size;
+        private long dropped;
+
+        LogRingBuffer(int capacity) {
+            this.lines = new String[capacity];
+        }
+
+        synchronized void add(String line) {
+            if (size < lines.length) {
+                lines[(start + size) % lines.length] = line;
+                size++;
+                return;
+            }
+            lines[start] = line;
+            start = (start + 1) % lines.length;
+            dropped++;
+        }
+
+        synchronized String joined() {
+            StringBuilder sb = new StringBuilder();
+            if (dropped > 0) {
+                sb.append("... (").append(dropped).append(" earlier lines dropped)\n");
+            }
+            for (int i = 0; i < size; i++) {
+                sb.append(lines[(start + i) % lines.length]);
+                if (i + 1 < size) {
+                    sb.append('\n');
+                }
+            }
+            return sb.toString();
         }
     }
 
     private static class StreamDrainer implements Runnable {
         private final InputStream input;
-        private final ByteArrayOutputStream output;
+        private final LogRingBuffer output;
+        private final RenderStageTracker stages;
+        private final RenderListener listener;
 
-        StreamDrainer(InputStream input, ByteArrayOutputStream output) {
+        StreamDrainer(InputStream input, LogRingBuffer output, RenderStageTracker stages, RenderListener listener) {
             this.input = input;
             this.output = output;
+            this.stages = stages;
+            this.listener = listener;
         }
 
         @Override
         public void run() {
             byte[] buf = new byte[8192];
+            ByteArrayOutputStream line = new ByteArrayOutputStream(256);
+            boolean truncated = false;
             int read;
             try {
                 while ((read = input.read(buf)) != -1) {
-                    output.write(buf, 0, read);
+                    int from = 0;
+                    for (int i = 0; i < read; i++) {
+                        if (buf[i] != '\n') {
+                            continue;
+                        }
+                        truncated = appendBounded(line, buf, from, i - from, truncated);
+                        emit(line, truncated);
+                        line.reset();
+                        truncated = false;
+                        from = i + 1;
+                    }
+                    truncated = appendBounded(line, buf, from, read - from, truncated);
                 }
             } catch (IOException ignored) {
             }
+            if (line.size() > 0) {
+                emit(line, truncated);
+            }
+        }
+
+        private static boolean appendBounded(ByteArrayOutputStream line, byte[] buf, int off, int len,
+                boolean truncated) {
+            int room = MAX_LOG_LINE_BYTES - line.size();
+            if (len <= room) {
+                line.write(buf, off, len);
+                return truncated;
+            }
+            if (room > 0) {
+                line.write(buf, off, room);
+            }
+            return true;
+        }
+
+        private void emit(ByteArrayOutputStream lineBytes, boolean truncated) {
+            byte[] bytes = lineBytes.toByteArray();
+            // the byte cap can cut a character in half; keep only whole ones, so a 4-byte character never
+            // leaves half a surrogate pair (or a replacement char) at the end of the line
+            int length = truncated ? wholeCharacters(bytes) : bytes.length;
+            String text = new String(bytes, 0, length, StandardCharsets.UTF_8);
+            if (text.endsWith("\r")) {
+                text = text.substring(0, text.length() - 1);
+            }
+            if (truncated) {
+                text = text + " ...";
+            }
+            output.add(text);
+
+            RenderStageTracker.Stage stage = stages.onLine(text);
+            if (listener == null) {
+                return;
+            }
+            listener.onOutputLine(text);
+            if (stage != null) {
+                listener.onStage(stage, stages.elapsedMs());
+            }
+        }
+
+        // Length of bytes without a trailing incomplete UTF-8 sequence
+        private static int wholeCharacters(byte[] bytes) {
+            int lead = bytes.length - 1;
+            while (lead > 0 && (bytes[lead] & 0xc0) == 0x80) {
+                lead--;
+            }
+            if (lead < 0) {
+                return 0;
+            }
+            int b = bytes[lead] & 0xff;
+            int sequence = b < 0x80 ? 1 : b >= 0xf0 ? 4 : b >= 0xe0 ? 3 : b >= 0xc0 ? 2 : 1;
+            return lead + sequence > bytes.length ? lead : bytes.length;
         }
     }
 
+    // share/ and etc/ entries still being extracted after the core runtime became usable.
+    private static class DeferredExtraction {
+        final RuntimeExtractor extractor;
+        final List<RuntimeManifest.Entry> entries;
+        volatile boolean cancelled;
+        volatile boolean complete;
+        Thread thread;
+
+        DeferredExtraction(RuntimeExtractor extractor, List<RuntimeManifest.Entry> entries) {
+            this.extractor = extractor;
+            this.entries = entries;
+        }
+    }
+
+    // Reads binary STL from openscad's stdout into a model while teeing it to the part file.
+    private static class StlCapture implements Runnable {
+        final File teeFile;
+        InputStream input;
+        volatile StlModel model;
+        volatile IOException error;
+        volatile long bytesRead;
+
+        StlCapture(File teeFile) {
+            this.teeFile = teeFile;
+        }
+
+        @Override
+        public void run() {
+            InputStream counted = new FilterInputStream(input) {
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    int read = super.read(b, off, len);
+                    if (read > 0) {
+                        bytesRead += read;
+                    }
+                    return read;
+                }
+            };
+            try {
+                model = StlParser.parseBinaryStream(counted, teeFile);
+            } catch (IOException e) {
+                error = e;
+                // Keep draining so openscad never blocks on a full pipe after a parse error
+                byte[] skip = new byte[8192];
+                try {
+                    while (input.read(skip) != -1) {
+                        // discard
+                    }
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    private static class WarmWorker {
+        final Process process;
+        final File outputFile;
+        final boolean streaming;
+
+        WarmWorker(Process process, File outputFile, boolean streaming) {
+            this.process = process;
+            this.outputFile = outputFile;
+            this.streaming = streaming;
+        }
+
+        boolean isAlive() {
+            try {
+                process.exitValue();
+                return false;
+            } catch (IllegalThreadStateException e) {
+                return true;
+            }
+        }
+
+        void discard() {
+            process.destroyForcibly();
+            deleteQuietly(outputFile);
+        }
+    }
+
+    private static final int MAX_LOG_LINES = 2000;
+    private static final long RENDER_TIMEOUT_SECONDS = 180;
+    private static final int MAX_LOG_LINE_BYTES = 4096;
+
+    static final String DOWNLOADED_RUNTIME_META = ".downloaded_runtime_meta.json";
+    private static final String RUNTIME_ASSET_ROOT = "runtime";
+    private static final String RUNTIME_MANIFEST_ASSET = "runtime.manifest";
+    static final String INSTALLED_MANIFEST_NAME = ".bundled_manifest";
+    private static final String EXTRACT_PENDING_NAME = ".extract_pending";
+
+    private static final Pattern USES_TEXT = Pattern.compile("\\btext\\s*\\(");
+    private static final Pattern USES_LIBRARIES = Pattern.compile("\\b(?:use|include)\\s*<");
+
     private final Context appContext;
+    // A link to the active version under runtimes/, so the paths below stay put across version switches
     private final File runtimeRoot;
+    private final RuntimeVersions versions;
     private final File runtimeBin;
     private final File runtimeLib;
     private final File runtimeHome;
@@ -85,10 +321,22 @@ class OpenScadRuntime {
     private final File rendersDir;
 
     private volatile boolean prepared;
+    private volatile RuntimeExtractor.Stats lastExtraction;
+    private volatile DeferredExtraction deferred;
+    private final DependencyGraph dependencies;
+
+    private final Object warmLock = new Object();
+    private WarmWorker warmWorker;
+    private volatile boolean warmVerified;
+    private volatile boolean warmDisabled;
+    private volatile boolean streamStlOutput = true;
+    private volatile boolean streamVerified;
+    private volatile boolean streamDisabled;
 
     OpenScadRuntime(Context context) {
         this.appContext = context.getApplicationContext();
         this.runtimeRoot = new File(appContext.getFilesDir(), "runtime");
+        this.versions = new RuntimeVersions(runtimeRoot);
         this.runtimeBin = new File(runtimeRoot, "bin");
         this.runtimeLib = new File(runtimeRoot, "lib");
         this.runtimeHome = new File(runtimeRoot, "home");
@@ -103,6 +351,9 @@ class OpenScadRuntime {
         this.userLibrarySourcesDir.mkdirs();
         this.projectsDir.mkdirs();
         this.rendersDir.mkdirs();
+
+        this.dependencies = new DependencyGraph(new File(appContext.getFilesDir(), "dependency_graph"),
+                Arrays.asList(userLibrariesDir, runtimeOpenScadPath));
     }
 
     File getProjectsDir() {
@@ -117,14 +368,30 @@ class OpenScadRuntime {
         return runtimeBin;
     }
 
-    synchronized void markRuntimeUnprepared() {
-        prepared = false;
+    RuntimeVersions getRuntimeVersions() {
+        return versions;
     }
 
-    synchronized void resetRuntimeToBundled() throws IOException {
+    // Makes an installed version the active runtime. The warm worker and any bundled extraction still
+    // running against the old one are stopped first.
+    synchronized void activateRuntimeVersion(String name) throws IOException {
         prepared = false;
-        deleteRecursively(runtimeRoot);
-        prepareRuntime();
+        releaseWarmWorker();
+        stopDeferredExtraction();
+        versions.activate(name);
+        versions.collectGarbage();
+    }
+
+    // Extracts whatever the background job has not reached yet, for callers about to link the runtime's
+    // files into another version
+    void finishDeferredExtraction() throws IOException {
+        DeferredExtraction job = deferred;
+        if (job == null || job.complete || job.cancelled) {
+            return;
+        }
+        for (RuntimeManifest.Entry entry : job.extractor.missing(job.entries)) {
+            job.extractor.ensureEntry(entry);
+        }
     }
 
     File getRendersDir() {
@@ -139,6 +406,15 @@ class OpenScadRuntime {
         return userLibrarySourcesDir;
     }
 
+    RuntimeExtractor.Stats getLastExtractionStats() {
+        return lastExtraction;
+    }
+
+    boolean isDeferredExtractionPending() {
+        DeferredExtraction job = deferred;
+        return job != null && !job.complete && !job.cancelled;
+    }
+
     synchronized void prepareRuntime() throws IOException {
         File marker = new File(runtimeRoot, ".ready");
         File openscad = new File(runtimeBin, "openscad");
@@ -146,18 +422,83 @@ class OpenScadRuntime {
             return;
         }
         prepared = false;
-        if (marker.exists() && openscad.exists() && openscad.canExecute()) {
-            prepared = true;
-            return;
-        }
 
-        deleteRecursively(runtimeRoot);
-        if (!runtimeRoot.mkdirs()) {
-            throw new IOException("Could not create runtime directory: " + runtimeRoot);
+        versions.ensureLinked();
+        if (!RuntimeVersions.BUNDLED.equals(versions.current()) && !isUsable(runtimeRoot)) {
+            // A downloaded version that lost files gives way to the one before it, or to the bundled runtime
+            releaseWarmWorker();
+            stopDeferredExtraction();
+            String fallback = versions.previous();
+            versions.activate(fallback != null && isUsable(versions.dir(fallback)) ? fallback : RuntimeVersions.BUNDLED);
+            versions.collectGarbage();
         }
 
         AssetManager assets = appContext.getAssets();
-        copyAssetTree(assets, "runtime", runtimeRoot);
+        RuntimeManifest bundled = RuntimeManifest.readAsset(assets, RUNTIME_MANIFEST_ASSET);
+        File installedManifestFile = new File(runtimeRoot, INSTALLED_MANIFEST_NAME);
+        RuntimeManifest installed = RuntimeManifest.readFile(installedManifestFile);
+
+        if (marker.exists() && openscad.exists() && openscad.canExecute()) {
+            // A downloaded runtime is never overwritten here; otherwise an APK upgrade whose bundled manifest
+            // differs from the installed one falls through to an incremental sync.
+            boolean downloaded = new File(runtimeRoot, DOWNLOADED_RUNTIME_META).exists();
+            if (bundled == null || downloaded || (installed != null && installed.id.equals(bundled.id))) {
+                if (bundled != null && !downloaded && new File(runtimeRoot, EXTRACT_PENDING_NAME).exists()) {
+                    // The previous session was killed before share/ and etc/ finished; pick up where it stopped
+                    startDeferredExtraction(new RuntimeExtractor(assets, RUNTIME_ASSET_ROOT, runtimeRoot),
+                            deferredEntries(bundled.entries()));
+                }
+                prepared = true;
+                return;
+            }
+        }
+
+        List<RuntimeManifest.Entry> later = null;
+        RuntimeExtractor extractor = null;
+
+        if (bundled == null) {
+            long startNs = System.nanoTime();
+            // runtimeRoot is a link, so the version directory behind it is the one recreated
+            File bundledDir = versions.dir(RuntimeVersions.BUNDLED);
+            deleteRecursively(bundledDir);
+            if (!bundledDir.mkdirs()) {
+                throw new IOException("Could not create runtime directory: " + bundledDir);
+            }
+            copyAssetTree(assets, RUNTIME_ASSET_ROOT, runtimeRoot);
+            lastExtraction = new RuntimeExtractor.Stats(false, -1, 0, 0, 0, -1L,
+                    (System.nanoTime() - startNs) / 1000000L);
+        } else {
+            if (!runtimeRoot.exists() && !runtimeRoot.mkdirs()) {
+                throw new IOException("Could not create runtime directory: " + runtimeRoot);
+            }
+            if (marker.exists() && !marker.delete()) {
+                throw new IOException("Could not clear runtime ready marker");
+            }
+            stopDeferredExtraction();
+            long startNs = System.nanoTime();
+            extractor = new RuntimeExtractor(assets, RUNTIME_ASSET_ROOT, runtimeRoot);
+            List<RuntimeManifest.Entry> toCopy = extractor.plan(bundled, installed);
+            int removed = extractor.removeStale(bundled, installed);
+
+            // Outdated files are removed before the new manifest is recorded, so after this point anything
+            // still missing is simply extracted later, even across a process restart.
+            writeText(new File(runtimeRoot, EXTRACT_PENDING_NAME), bundled.id);
+            extractor.discard(toCopy);
+            bundled.writeTo(installedManifestFile);
+
+            List<RuntimeManifest.Entry> core = new ArrayList<RuntimeManifest.Entry>();
+            later = new ArrayList<RuntimeManifest.Entry>();
+            for (RuntimeManifest.Entry entry : toCopy) {
+                if (RuntimeExtractor.isCoreEntry(entry.path)) {
+                    core.add(entry);
+                } else {
+                    later.add(entry);
+                }
+            }
+            long copiedBytes = extractor.copyAll(core);
+            lastExtraction = new RuntimeExtractor.Stats(true, core.size(), bundled.size() - toCopy.size(), removed,
+                    later.size(), copiedBytes, (System.nanoTime() - startNs) / 1000000L);
+        }
 
         if (!runtimeHome.exists()) {
             runtimeHome.mkdirs();
@@ -175,56 +516,523 @@ class OpenScadRuntime {
         }
 
         prepared = true;
+        if (later != null) {
+            startDeferredExtraction(extractor, later);
+        }
+    }
+
+    private static boolean isUsable(File root) {
+        File openscad = new File(root, "bin/openscad");
+        return new File(root, ".ready").exists() && openscad.exists() && openscad.canExecute();
+    }
+
+    // Materialises deferred runtime files a script is about to need. Fonts are pulled in for any script that
+    // uses text() or includes other files, since an included library may render text itself.
+    void ensureRuntimeAssets(String code) throws IOException {
+        DeferredExtraction job = deferred;
+        if (job == null || job.complete || job.cancelled) {
+            return;
+        }
+        boolean libraries = USES_LIBRARIES.matcher(code).find();
+        boolean fonts = libraries || USES_TEXT.matcher(code).find();
+        if (!fonts) {
+            return;
+        }
+        for (RuntimeManifest.Entry entry : job.entries) {
+            boolean needed = RuntimeExtractor.isFontEntry(entry.path)
+                    || (libraries && RuntimeExtractor.isLibraryEntry(entry.path));
+            if (needed) {
+                job.extractor.ensureEntry(entry);
+            }
+        }
+    }
+
+    private static List<RuntimeManifest.Entry> deferredEntries(List<RuntimeManifest.Entry> entries) {
+        List<RuntimeManifest.Entry> out = new ArrayList<RuntimeManifest.Entry>();
+        for (RuntimeManifest.Entry entry : entries) {
+            if (!RuntimeExtractor.isCoreEntry(entry.path)) {
+                out.add(entry);
+            }
+        }
+        return out;
+    }
+
+    private void startDeferredExtraction(final RuntimeExtractor extractor, final List<RuntimeManifest.Entry> entries) {
+        final File pending = new File(runtimeRoot, EXTRACT_PENDING_NAME);
+        if (entries.isEmpty()) {
+            pending.delete();
+            return;
+        }
+        DeferredExtraction running = deferred;
+        if (running != null && !running.complete && !running.cancelled) {
+            return;
+        }
+
+        final DeferredExtraction job = new DeferredExtraction(extractor, entries);
+        job.thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                android.os.Process.setThreadPriority(android.os.Process.THREAD_PRIORITY_BACKGROUND);
+                try {
+                    for (RuntimeManifest.Entry entry : extractor.missing(entries)) {
+                        if (job.cancelled) {
+                            return;
+                        }
+                        extractor.ensureEntry(entry);
+                    }
+                } catch (IOException e) {
+                    // Left pending: on-demand callers retry the files they need and the next launch resumes
+                    return;
+                }
+                if (!job.cancelled) {
+                    pending.delete();
+                    job.complete = true;
+                }
+            }
+        }, "runtime-extract");
+        job.thread.setDaemon(true);
+        deferred = job;
+        job.thread.start();
+    }
+
+    private void stopDeferredExtraction() {
+        DeferredExtraction job = deferred;
+        if (job == null) {
+            return;
+        }
+        job.cancelled = true;
+        deferred = null;
+        try {
+            job.thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
     }
 
     RenderResult render(String code, String baseName) {
+        return render(code, baseName, null);
+    }
+
+    RenderResult render(String code, String baseName, RenderListener listener) {
+        return render(code, baseName, listener, null);
+    }
+
+    RenderResult render(String code, String baseName, RenderListener listener, RenderTrace trace) {
         long startMs = System.currentTimeMillis();
         try {
+            long spanNs = System.nanoTime();
             prepareRuntime();
+            ensureRuntimeAssets(code);
+            if (trace != null) {
+                trace.end("prepareRuntime", spanNs);
+            }
 
-            String safeBase = sanitizeName(baseName);
-            if (safeBase.isEmpty()) {
-                safeBase = "model";
+            String safeBase = renderBaseName(baseName);
+            spanNs = System.nanoTime();
+            File scadFile = writeRenderSource(code, safeBase);
+            if (trace != null) {
+                trace.end("writeSource", spanNs);
+            }
+            spanNs = System.nanoTime();
+            String deps = dependencyFingerprint(code, baseName);
+            if (trace != null) {
+                trace.end("dependencyScan", spanNs);
+            }
+            File stlFile = new File(rendersDir, safeBase + "_" + renderKey(code, null, deps) + ".stl");
+            if (stlFile.length() > 0) {
+                return new RenderResult(true, stlFile, null,
+                        "Reused cached STL (source and included files unchanged).", null,
+                        System.currentTimeMillis() - startMs);
             }
 
-            String hash = md5Short(code);
-            File scadFile = new File(rendersDir, safeBase + "_" + hash + ".scad");
-            File stlFile = new File(rendersDir, safeBase + "_" + hash + ".stl");
+            RenderResult result = null;
+            WarmWorker worker = takeWarmWorker();
+            if (worker != null) {
+                try {
+                    result = renderWarm(worker, code, stlFile, listener, startMs, trace);
+                } catch (IOException e) {
+                    // The spare died before it got the source; fall back to a normal launch
+                    worker.discard();
+                }
+                if (result != null && result.success) {
+                    warmVerified = true;
+                } else if (result != null && !warmVerified && isHandoffFailure(result)) {
+                    // Until one warm render has succeeded, a failure may mean this build cannot read the
+                    // source from stdin. Confirm with a normal launch and stop pre-starting if that works.
+                    if (listener != null) {
+                        listener.onOutputLine("--- Retrying with a fresh OpenSCAD process ---");
+                    }
+                    boolean streamWasDisabled = streamDisabled;
+                    RenderResult cold = renderScad(scadFile, stlFile, null, listener, null, startMs, trace,
+                            isStreamingStl());
+                    // If the normal launch only worked after dropping stdout export, that was the culprit
+                    if (cold.success && streamDisabled == streamWasDisabled) {
+                        warmDisabled = true;
+                    }
+                    result = cold;
+                }
+            }
+            if (result == null) {
+                result = renderScad(scadFile, stlFile, null, listener, null, startMs, trace, isStreamingStl());
+            }
+            prewarm();
+            return result;
+        } catch (Exception e) {
+            return new RenderResult(false, null, null, "", e.getMessage(), System.currentTimeMillis() - startMs);
+        }
+    }
 
-            writeText(scadFile, code);
+    // Starts a spare openscad reading its source from stdin, so the next render skips process start-up
+    // and dynamic linking of the runtime libraries. Only single renders use it; batches pass -D defines.
+    void prewarm() {
+        synchronized (warmLock) {
+            if (warmDisabled || !prepared) {
+                return;
+            }
+            if (warmWorker != null) {
+                if (warmWorker.isAlive()) {
+                    return;
+                }
+                warmWorker.discard();
+                warmWorker = null;
+            }
+            File outputFile = new File(rendersDir, ".warm_" + System.nanoTime() + ".stl.part");
+            boolean streaming = isStreamingStl();
+            List<String> args = new ArrayList<String>();
+            args.add("--export-format=binstl");
+            args.add("-o");
+            args.add(streaming ? "-" : outputFile.getAbsolutePath());
+            args.add("-");
+            try {
+                // Run from rendersDir so relative include<> paths resolve as they do for the written .scad
+                warmWorker = new WarmWorker(startOpenScad(args, rendersDir, !streaming), outputFile, streaming);
+            } catch (IOException e) {
+                warmDisabled = true;
+            }
+        }
+    }
 
-            List<String> stlArgs = new ArrayList<String>();
-            stlArgs.add("-q");
-            stlArgs.add("--export-format=binstl");
-            stlArgs.add("-o");
-            stlArgs.add(stlFile.getAbsolutePath());
-            stlArgs.add(scadFile.getAbsolutePath());
+    // With streaming on, single renders use "-o -" and parse the STL from stdout while writing the cached
+    // copy in the same pass, instead of writing the file and reading it back for the viewer.
+    void setStreamStlOutput(boolean enabled) {
+        streamStlOutput = enabled;
+        releaseWarmWorker();
+    }
 
-            ExecResult stl = runOpenScad(stlArgs, 180);
-            if (stl.timedOut) {
-                return new RenderResult(false, null, null, stl.output, "Render timed out",
-                        System.currentTimeMillis() - startMs);
+    private boolean isStreamingStl() {
+        return streamStlOutput && !streamDisabled;
+    }
+
+    void releaseWarmWorker() {
+        synchronized (warmLock) {
+            if (warmWorker != null) {
+                warmWorker.discard();
+                warmWorker = null;
             }
-            if (stl.exitCode != 0 || !stlFile.exists()) {
-                String err = stl.output == null || stl.output.trim().isEmpty() ? "OpenSCAD failed to produce STL"
-                        : stl.output;
-                return new RenderResult(false, null, null, stl.output, err, System.currentTimeMillis() - startMs);
+        }
+    }
+
+    private WarmWorker takeWarmWorker() {
+        synchronized (warmLock) {
+            WarmWorker worker = warmWorker;
+            warmWorker = null;
+            if (worker != null && !worker.isAlive()) {
+                worker.discard();
+                return null;
             }
+            return worker;
+        }
+    }
 
-            StringBuilder log = new StringBuilder();
-            if (stl.output != null && !stl.output.trim().isEmpty()) {
-                log.append(stl.output.trim());
-                log.append('\n');
+    // Renders one .scad once per parameter set on a pool sized to the device. Results are delivered on
+    // worker threads as they complete; variants whose STL is already in rendersDir are not re-rendered.
+    RenderBatch renderBatch(
+            final String code,
+            final String baseName,
+            final List<Map<String, String>> parameterSets,
+            final RenderBatch.Listener listener) {
+        final int total = parameterSets.size();
+        final RenderBatch batch = new RenderBatch(total, RenderBatch.chooseWorkerCount(appContext, total));
+        final String safeBase = renderBaseName(baseName);
+        final AtomicInteger remaining = new AtomicInteger(total);
+        final AtomicInteger completed = new AtomicInteger();
+        final File[] source = new File[1];
+        final String[] deps = new String[1];
+        final IOException[] sourceError = new IOException[1];
+
+        ExecutorService pool = Executors.newFixedThreadPool(batch.workers);
+        batch.attach(pool);
+        if (total == 0) {
+            listener.onFinished(0, 0, false);
+            pool.shutdown();
+            return batch;
+        }
+
+        for (int i = 0; i < total; i++) {
+            final int index = i;
+            pool.execute(new Runnable() {
+                @Override
+                public void run() {
+                    Map<String, String> params = parameterSets.get(index);
+                    try {
+                        if (batch.isCancelled()) {
+                            return;
+                        }
+                        long startMs = System.currentTimeMillis();
+                        RenderResult result;
+                        try {
+                            File scadFile;
+                            synchronized (source) {
+                                if (source[0] == null && sourceError[0] == null) {
+                                    try {
+                                        prepareRuntime();
+                                        ensureRuntimeAssets(code);
+                                        source[0] = writeRenderSource(code, safeBase);
+                                        deps[0] = dependencyFingerprint(code, baseName);
+                                    } catch (IOException e) {
+                                        sourceError[0] = e;
+                                    }
+                                }
+                                if (sourceError[0] != null) {
+                                    throw sourceError[0];
+                                }
+                                scadFile = source[0];
+                            }
+                            File stlFile = new File(rendersDir,
+                                    safeBase + "_" + renderKey(code, params, deps[0]) + ".stl");
+                            if (stlFile.length() > 0) {
+                                result = new RenderResult(true, stlFile, null, "Reused cached STL.", null,
+                                        System.currentTimeMillis() - startMs);
+                            } else {
+                                result = renderScad(scadFile, stlFile, params, null, batch, startMs, null,
+                                        false);
+                            }
+                        } catch (Exception e) {
+                            result = new RenderResult(false, null, null, "", e.getMessage(),
+                                    System.currentTimeMillis() - startMs);
+                        }
+                        if (!batch.isCancelled()) {
+                            completed.incrementAndGet();
+                            listener.onResult(index, params, result);
+                        }
+                    } finally {
+                        if (remaining.decrementAndGet() == 0) {
+                            listener.onFinished(completed.get(), total, batch.isCancelled());
+                        }
+                    }
+                }
+            });
+        }
+        pool.shutdown();
+        return batch;
+    }
+
+    private RenderResult renderScad(
+            File scadFile,
+            File stlFile,
+            Map<String, String> defines,
+            RenderListener listener,
+            RenderBatch batch,
+            long startMs,
+            RenderTrace trace,
+            boolean stream) throws IOException, InterruptedException {
+        // OpenSCAD writes to a side file that is only renamed into place on success, so a killed or
+        // failed run never leaves a truncated STL that a later batch would treat as cached.
+        File partFile = new File(stlFile.getPath() + ".part");
+        deleteQuietly(partFile);
+        StlCapture capture = stream ? new StlCapture(partFile) : null;
+
+        List<String> stlArgs = new ArrayList<String>();
+        stlArgs.add("--export-format=binstl");
+        if (defines != null) {
+            for (Map.Entry<String, String> define : defines.entrySet()) {
+                stlArgs.add("-D");
+                stlArgs.add(define.getKey() + "=" + define.getValue());
             }
-            log.append("STL generated for native viewer.");
+        }
+        stlArgs.add("-o");
+        stlArgs.add(stream ? "-" : partFile.getAbsolutePath());
+        stlArgs.add(scadFile.getAbsolutePath());
 
-            return new RenderResult(true, stlFile, null, log.toString(), null, System.currentTimeMillis() - startMs);
-        } catch (Exception e) {
-            return new RenderResult(false, null, null, "", e.getMessage(), System.currentTimeMillis() - startMs);
+        ExecResult stl = runOpenScad(stlArgs, RENDER_TIMEOUT_SECONDS, listener, batch, trace, capture);
+        if (stream && !streamVerified && stl.exitCode == 0 && !stl.timedOut && capture.bytesRead == 0) {
+            // A clean exit without any stdout means this build does not support "-o -"; retry with a file
+            RenderResult viaFile = renderScad(scadFile, stlFile, defines, listener, batch, startMs, trace, false);
+            if (viaFile.success) {
+                streamDisabled = true;
+                releaseWarmWorker();
+            }
+            return viaFile;
+        }
+        return completeRender(stl, partFile, stlFile, batch, startMs, capture);
+    }
+
+    // Feeds the source to a pre-started openscad that is already linked and blocked reading stdin.
+    private RenderResult renderWarm(WarmWorker worker, String code, File stlFile, RenderListener listener,
+            long startMs, RenderTrace trace) throws IOException, InterruptedException {
+        long handoffNs = System.nanoTime();
+        try (OutputStream stdin = worker.process.getOutputStream()) {
+            stdin.write(code.getBytes(StandardCharsets.UTF_8));
+        }
+        if (trace != null) {
+            trace.end("warmHandoff", handoffNs);
+        }
+        long evalNs = System.nanoTime();
+        StlCapture capture = worker.streaming ? new StlCapture(worker.outputFile) : null;
+        ExecResult stl = waitForOpenScad(worker.process, RENDER_TIMEOUT_SECONDS, listener, null, capture);
+        traceOpenScad(trace, evalNs, stl);
+        return completeRender(stl, worker.outputFile, stlFile, null, startMs, capture);
+    }
+
+    // Whether a failed warm render says nothing about the script: openscad never began parsing (the source
+    // did not arrive on stdin) or got as far as exporting (the result did not come back). A script failing
+    // on its own errors in between is not run a second time.
+    private static boolean isHandoffFailure(RenderResult result) {
+        RenderStageTracker.Stage reached = RenderStageTracker.Stage.STARTING;
+        for (RenderStageTracker.StageTiming timing : result.stageTimings) {
+            if (timing.stage.ordinal() > reached.ordinal()) {
+                reached = timing.stage;
+            }
         }
+        return reached == RenderStageTracker.Stage.STARTING
+                || reached.ordinal() >= RenderStageTracker.Stage.EXPORTING.ordinal();
     }
 
-    private ExecResult runOpenScad(List<String> args, long timeoutSeconds) throws IOException, InterruptedException {
+    private RenderResult completeRender(ExecResult stl, File partFile, File stlFile, RenderBatch batch,
+            long startMs, StlCapture capture) {
+        List<RenderStageTracker.StageTiming> timings = stl.stages.getTimings();
+        long reportedMs = stl.stages.getReportedTotalMs();
+        if (stl.timedOut) {
+            deleteQuietly(partFile);
+            return new RenderResult(false, null, null, stl.output, "Render timed out",
+                    System.currentTimeMillis() - startMs, timings, reportedMs);
+        }
+        if (batch != null && batch.isCancelled()) {
+            deleteQuietly(partFile);
+            return new RenderResult(false, null, null, stl.output, "Render cancelled",
+                    System.currentTimeMillis() - startMs, timings, reportedMs);
+        }
+        boolean captured = capture == null || capture.model != null;
+        if (stl.exitCode != 0 || !captured || !partFile.exists() || !replaceFile(partFile, stlFile)) {
+            deleteQuietly(partFile);
+            String err = stl.output == null || stl.output.trim().isEmpty() ? "OpenSCAD failed to produce STL"
+                    : stl.output;
+            if (stl.exitCode == 0 && capture != null && capture.error != null) {
+                err = "Could not read STL from OpenSCAD output: " + capture.error.getMessage();
+            }
+            return new RenderResult(false, null, null, stl.output, err, System.currentTimeMillis() - startMs,
+                    timings, reportedMs);
+        }
+        if (capture != null) {
+            streamVerified = true;
+        }
+
+        StringBuilder log = new StringBuilder();
+        if (stl.output != null && !stl.output.trim().isEmpty()) {
+            log.append(stl.output.trim());
+            log.append('\n');
+        }
+        log.append(capture != null ? "STL streamed to native viewer." : "STL generated for native viewer.");
+
+        return new RenderResult(true, stlFile, null, log.toString(), null, System.currentTimeMillis() - startMs,
+                timings, reportedMs, capture != null ? capture.model : null);
+    }
+
+    private File writeRenderSource(String code, String safeBase) throws IOException {
+        File scadFile = new File(rendersDir, safeBase + "_" + md5Short(code) + ".scad");
+        writeText(scadFile, code);
+        return scadFile;
+    }
+
+    private static String renderBaseName(String baseName) {
+        String safeBase = sanitizeName(baseName);
+        return safeBase.isEmpty() ? "model" : safeBase;
+    }
+
+    // Single renders and batch variants without defines get the same key, so they share rendersDir. deps is
+    // the DependencyGraph fingerprint of everything the code includes. The openscad binary is part of the
+    // key too, so an STL made by another runtime version is never served after a switch or update.
+    private String renderKey(String code, Map<String, String> defines, String deps) {
+        StringBuilder sb = new StringBuilder(code);
+        if (defines != null) {
+            for (Map.Entry<String, String> define : defines.entrySet()) {
+                sb.append("\n-D ").append(define.getKey()).append('=').append(define.getValue());
+            }
+        }
+        if (deps != null && !deps.isEmpty()) {
+            sb.append("\n#deps ").append(deps);
+        }
+        File openscad = new File(runtimeBin, "openscad");
+        sb.append("\n#runtime ").append(versions.current())
+                .append(' ').append(openscad.length())
+                .append(' ').append(openscad.lastModified());
+        return md5Short(sb.toString());
+    }
+
+    private String dependencyFingerprint(String code, String baseName) {
+        File owner = baseName == null ? null : new File(projectsDir, baseName);
+        String deps = dependencies.fingerprint(code, rendersDir, owner != null && owner.isFile() ? owner : null);
+        try {
+            dependencies.save();
+        } catch (IOException ignored) {
+        }
+        return deps;
+    }
+
+    // Project files whose last render pulled in one of the changed files, directly or through other includes.
+    List<File> affectedProjects(Collection<File> changedFiles) {
+        List<File> out = new ArrayList<File>();
+        String root = projectsDir.getAbsolutePath() + File.separator;
+        for (File file : dependencies.affectedBy(changedFiles)) {
+            if (file.getPath().startsWith(root)) {
+                out.add(file);
+            }
+        }
+        try {
+            dependencies.save();
+        } catch (IOException ignored) {
+        }
+        return out;
+    }
+
+    private static boolean replaceFile(File source, File target) {
+        if (target.exists() && !target.delete()) {
+            return false;
+        }
+        return source.renameTo(target);
+    }
+
+    private static void deleteQuietly(File file) {
+        if (file != null && file.exists()) {
+            file.delete();
+        }
+    }
+
+    private ExecResult runOpenScad(List<String> args, long timeoutSeconds, RenderListener listener,
+            RenderBatch batch, RenderTrace trace, StlCapture capture) throws IOException, InterruptedException {
+        long spawnNs = System.nanoTime();
+        Process process = startOpenScad(args, runtimeRoot, capture == null);
+        if (trace != null) {
+            trace.end("spawn", spawnNs);
+        }
+        long evalNs = System.nanoTime();
+        ExecResult result = waitForOpenScad(process, timeoutSeconds, listener, batch, capture);
+        traceOpenScad(trace, evalNs, result);
+        return result;
+    }
+
+    // "openscad" covers the whole process run; its children come from the stages seen in its output,
+    // with Exporting being the STL write.
+    private static void traceOpenScad(RenderTrace trace, long evalNs, ExecResult result) {
+        if (trace == null) {
+            return;
+        }
+        trace.end("openscad", evalNs);
+        trace.addStages("openscad/", evalNs, result.stages.getTimings());
+    }
+
+    // With mergeStderr false, stdout carries only the exported STL and the log is read from stderr.
+    private Process startOpenScad(List<String> args, File workDir, boolean mergeStderr) throws IOException {
         File openscad = new File(runtimeBin, "openscad");
 
         List<String> directCmd = new ArrayList<String>();
@@ -232,7 +1040,7 @@ class OpenScadRuntime {
         directCmd.addAll(args);
 
         try {
-            return runCommand(directCmd, timeoutSeconds);
+            return startProcess(directCmd, workDir, mergeStderr);
         } catch (IOException directError) {
             if (!isPermissionDenied(directError)) {
                 throw directError;
@@ -249,7 +1057,7 @@ class OpenScadRuntime {
             linkerCmd.addAll(args);
 
             try {
-                return runCommand(linkerCmd, timeoutSeconds);
+                return startProcess(linkerCmd, workDir, mergeStderr);
             } catch (IOException linkerError) {
                 throw new IOException(
                         "OpenSCAD launch failed. Direct exec denied and linker fallback failed: "
@@ -259,10 +1067,10 @@ class OpenScadRuntime {
         }
     }
 
-    private ExecResult runCommand(List<String> cmd, long timeoutSeconds) throws IOException, InterruptedException {
+    private Process startProcess(List<String> cmd, File workDir, boolean mergeStderr) throws IOException {
         ProcessBuilder pb = new ProcessBuilder(cmd);
-        pb.directory(runtimeRoot);
-        pb.redirectErrorStream(true);
+        pb.directory(workDir);
+        pb.redirectErrorStream(mergeStderr);
 
         Map<String, String> env = pb.environment();
         env.put("LD_LIBRARY_PATH",
@@ -278,21 +1086,46 @@ class OpenScadRuntime {
         env.put("FONTCONFIG_FILE", new File(runtimeFontConfig, "fonts.conf").getAbsolutePath());
         env.put("LANG", "C.UTF-8");
 
-        Process process = pb.start();
+        return pb.start();
+    }
+
+    private ExecResult waitForOpenScad(Process process, long timeoutSeconds, RenderListener listener,
+            RenderBatch batch, StlCapture capture) throws InterruptedException {
+        if (batch != null && !batch.register(process)) {
+            process.destroyForcibly();
+        }
         try {
-            ByteArrayOutputStream output = new ByteArrayOutputStream();
-            Thread drainer = new Thread(new StreamDrainer(process.getInputStream(), output), "openscad-output-drainer");
+            LogRingBuffer output = new LogRingBuffer(MAX_LOG_LINES);
+            RenderStageTracker stages = new RenderStageTracker();
+            InputStream log = capture == null ? process.getInputStream() : process.getErrorStream();
+            Thread drainer = new Thread(new StreamDrainer(log, output, stages, listener),
+                    "openscad-output-drainer");
             drainer.start();
+            Thread reader = null;
+            if (capture != null) {
+                capture.input = process.getInputStream();
+                reader = new Thread(capture, "openscad-stl-reader");
+                reader.start();
+            }
 
             boolean finished = process.waitFor(timeoutSeconds, TimeUnit.SECONDS);
             if (!finished) {
                 process.destroyForcibly();
                 drainer.join(1000);
-                return new ExecResult(-1, output.toString(StandardCharsets.UTF_8.name()), true);
+                if (reader != null) {
+                    reader.join(1000);
+                }
+                stages.finish();
+                return new ExecResult(-1, output.joined(), true, stages);
             }
 
             drainer.join(1000);
-            return new ExecResult(process.exitValue(), output.toString(StandardCharsets.UTF_8.name()), false);
+            if (reader != null) {
+                // Parsing may still be working through the last pipe buffers after openscad exits
+                reader.join();
+            }
+            stages.finish();
+            return new ExecResult(process.exitValue(), output.joined(), false, stages);
         } finally {
             try {
                 process.getInputStream().close();
@@ -307,6 +1140,9 @@ class OpenScadRuntime {
             } catch (IOException ignored) {
             }
             process.destroy();
+            if (batch != null) {
+                batch.unregister(process);
+            }
         }
     }
 
@@ -0,0 +1,63 @@
+package com.openscad.standalone;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+// Splits CPU-bound mesh passes across cores. Small inputs stay on the calling thread, where a pool would
+// cost more than the work.
+class ParallelRanges {
+
+    interface ShardTask {
+        void run(int shard, int start, int end);
+    }
+
+    private static final int MAX_THREADS = 4;
+
+    static int shardCount(int items, int minPerShard) {
+        int cores = Math.max(1, Math.min(MAX_THREADS, Runtime.getRuntime().availableProcessors()));
+        return Math.max(1, Math.min(cores, items / Math.max(1, minPerShard)));
+    }
+
+    // Calls task once per shard with a contiguous slice of [0, items)
+    static void run(final int items, int shards, final ShardTask task) {
+        if (shards <= 1) {
+            task.run(0, 0, items);
+            return;
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(shards);
+        try {
+            List<Future<?>> futures = new ArrayList<Future<?>>();
+            for (int s = 0; s < shards; s++) {
+                final int shard = s;
+                final int start = (int) ((long) items * s / shards);
+                final int end = (int) ((long) items * (s + 1) / shards);
+                futures.add(pool.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        task.run(shard, start, end);
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("Mesh pass interrupted", e);
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof RuntimeException) {
+                        throw (RuntimeException) cause;
+                    }
+                    throw new IllegalStateException("Mesh pass failed: " + cause, cause);
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+}
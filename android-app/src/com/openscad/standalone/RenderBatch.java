@@ -0,0 +1,113 @@
+package com.openscad.standalone;
+
+import android.app.ActivityManager;
+import android.content.Context;
+import android.os.Build;
+import android.os.PowerManager;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+
+class RenderBatch {
+
+    interface Listener {
+        void onResult(int index, Map<String, String> parameters, OpenScadRuntime.RenderResult result);
+
+        void onFinished(int completed, int total, boolean cancelled);
+    }
+
+    // Rough resident size of one CGAL-heavy openscad process; used to cap concurrency on small devices.
+    private static final long PROCESS_MEMORY_BUDGET_BYTES = 300L * 1024L * 1024L;
+
+    final int total;
+    final int workers;
+
+    private final Set<Process> running = new HashSet<Process>();
+    private ExecutorService executor;
+    private volatile boolean cancelled;
+
+    RenderBatch(int total, int workers) {
+        this.total = total;
+        this.workers = workers;
+    }
+
+    void cancel() {
+        List<Process> toKill;
+        synchronized (running) {
+            if (cancelled) {
+                return;
+            }
+            cancelled = true;
+            toKill = new ArrayList<Process>(running);
+        }
+        for (Process process : toKill) {
+            process.destroyForcibly();
+        }
+        if (executor != null) {
+            executor.shutdown();
+        }
+    }
+
+    boolean isCancelled() {
+        return cancelled;
+    }
+
+    void attach(ExecutorService executor) {
+        this.executor = executor;
+    }
+
+    // Returns false when the batch was cancelled before the process could be tracked;
+    // the caller must then destroy it itself.
+    boolean register(Process process) {
+        synchronized (running) {
+            if (cancelled) {
+                return false;
+            }
+            running.add(process);
+            return true;
+        }
+    }
+
+    void unregister(Process process) {
+        synchronized (running) {
+            running.remove(process);
+        }
+    }
+
+    static int chooseWorkerCount(Context context, int jobs) {
+        int workers = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+
+        ActivityManager am = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        if (am != null) {
+            ActivityManager.MemoryInfo info = new ActivityManager.MemoryInfo();
+            am.getMemoryInfo(info);
+            long headroom = info.availMem - info.threshold;
+            int byMemory = (int) Math.max(1L, headroom / PROCESS_MEMORY_BUDGET_BYTES);
+            workers = Math.min(workers, byMemory);
+            if (info.lowMemory || am.isLowRamDevice()) {
+                workers = 1;
+            }
+        }
+
+        PowerManager pm = (PowerManager) context.getSystemService(Context.POWER_SERVICE);
+        if (pm != null) {
+            if (pm.isPowerSaveMode()) {
+                workers = Math.min(workers, 2);
+            }
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+                int thermal = pm.getCurrentThermalStatus();
+                if (thermal >= PowerManager.THERMAL_STATUS_SEVERE) {
+                    workers = 1;
+                } else if (thermal >= PowerManager.THERMAL_STATUS_MODERATE) {
+                    workers = Math.max(1, workers / 2);
+                }
+            }
+        }
+
+        return Math.max(1, Math.min(workers, jobs));
+    }
+}
@@ -0,0 +1,157 @@
+package com.openscad.standalone;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+class RenderStageTracker {
+
+    enum Stage {
+        STARTING("Starting"),
+        PARSING("Parsing"),
+        COMPILING("Compiling CSG tree"),
+        CGAL("CGAL evaluation"),
+        RENDERING_MESH("Rendering mesh"),
+        EXPORTING("Exporting"),
+        DONE("Done");
+
+        final String label;
+
+        Stage(String label) {
+            this.label = label;
+        }
+    }
+
+    static class StageTiming {
+        final Stage stage;
+        final long durationMs;
+
+        StageTiming(Stage stage, long durationMs) {
+            this.stage = stage;
+            this.durationMs = durationMs;
+        }
+    }
+
+    private static final Pattern TOTAL_TIME = Pattern.compile(
+            "Total rendering time:\\s*(\\d+):(\\d+):(\\d+)(?:\\.(\\d+))?");
+
+    private final long startNanos;
+    private final List<Stage> stages = new ArrayList<Stage>();
+    private final List<Long> stageStartMs = new ArrayList<Long>();
+    private long finishedAtMs = -1L;
+    private long reportedTotalMs = -1L;
+
+    RenderStageTracker() {
+        startNanos = System.nanoTime();
+        stages.add(Stage.STARTING);
+        stageStartMs.add(0L);
+    }
+
+    synchronized Stage onLine(String line) {
+        if (line == null || finishedAtMs >= 0) {
+            return null;
+        }
+
+        Matcher total = TOTAL_TIME.matcher(line);
+        if (total.find()) {
+            reportedTotalMs = parseDuration(total);
+            return advance(Stage.EXPORTING);
+        }
+
+        Stage next = classify(line);
+        return next == null ? null : advance(next);
+    }
+
+    synchronized void finish() {
+        if (finishedAtMs >= 0) {
+            return;
+        }
+        advance(Stage.DONE);
+        finishedAtMs = elapsedMs();
+    }
+
+    synchronized Stage currentStage() {
+        return stages.get(stages.size() - 1);
+    }
+
+    synchronized long elapsedMs() {
+        return (System.nanoTime() - startNanos) / 1000000L;
+    }
+
+    synchronized long getReportedTotalMs() {
+        return reportedTotalMs;
+    }
+
+    synchronized List<StageTiming> getTimings() {
+        List<StageTiming> out = new ArrayList<StageTiming>();
+        long end = finishedAtMs >= 0 ? finishedAtMs : elapsedMs();
+        for (int i = 0; i < stages.size(); i++) {
+            Stage stage = stages.get(i);
+            if (stage == Stage.DONE) {
+                continue;
+            }
+            long from = stageStartMs.get(i);
+            long to = i + 1 < stageStartMs.size() ? stageStartMs.get(i + 1) : end;
+            out.add(new StageTiming(stage, Math.max(0L, to - from)));
+        }
+        return out;
+    }
+
+    static String formatTimings(List<StageTiming> timings) {
+        StringBuilder sb = new StringBuilder();
+        for (StageTiming timing : timings) {
+            if (sb.length() > 0) {
+                sb.append(", ");
+            }
+            sb.append(timing.stage.label);
+            sb.append(' ');
+            sb.append(String.format(Locale.US, "%.2fs", timing.durationMs / 1000f));
+        }
+        return sb.toString();
+    }
+
+    private Stage advance(Stage next) {
+        // Stages only move forward so late stats lines ("CGAL Polyhedrons in cache") don't rewind progress
+        Stage current = stages.get(stages.size() - 1);
+        if (next.ordinal() <= current.ordinal()) {
+            return null;
+        }
+        stages.add(next);
+        stageStartMs.add(elapsedMs());
+        return next;
+    }
+
+    private static Stage classify(String line) {
+        if (line.startsWith("Parsing design")) {
+            return Stage.PARSING;
+        }
+        if (line.startsWith("Compiling design")) {
+            return Stage.COMPILING;
+        }
+        if (line.contains("Rendering Polygon Mesh")) {
+            return Stage.RENDERING_MESH;
+        }
+        if (line.contains("CGAL") && !line.contains("in cache")) {
+            return Stage.CGAL;
+        }
+        if (line.startsWith("Top level object") || line.startsWith("Geometries in cache")) {
+            return Stage.EXPORTING;
+        }
+        return null;
+    }
+
+    private static long parseDuration(Matcher m) {
+        long hours = Long.parseLong(m.group(1));
+        long minutes = Long.parseLong(m.group(2));
+        long seconds = Long.parseLong(m.group(3));
+        long millis = 0L;
+        String fraction = m.group(4);
+        if (fraction != null && !fraction.isEmpty()) {
+            String ms = (fraction + "00").substring(0, 3);
+            millis = Long.parseLong(ms);
+        }
+        return ((hours * 60L + minutes) * 60L + seconds) * 1000L + millis;
+    }
+}
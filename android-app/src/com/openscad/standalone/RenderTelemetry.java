@@ -0,0 +1,238 @@
+package com.openscad.standalone;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Rolling per-stage duration windows kept across sessions, plus the last few traces in memory for export
+// in the Chrome trace event format (chrome://tracing, Perfetto).
+class RenderTelemetry {
+
+    static class Summary {
+        final String stage;
+        final int count;
+        final long p50Us;
+        final long p90Us;
+        final long maxUs;
+
+        Summary(String stage, int count, long p50Us, long p90Us, long maxUs) {
+            this.stage = stage;
+            this.count = count;
+            this.p50Us = p50Us;
+            this.p90Us = p90Us;
+            this.maxUs = maxUs;
+        }
+    }
+
+    private static class Window {
+        final long[] values = new long[WINDOW_SIZE];
+        int next;
+        int count;
+
+        void add(long value) {
+            values[next] = value;
+            next = (next + 1) % values.length;
+            if (count < values.length) {
+                count++;
+            }
+        }
+
+        // Oldest first, so a reload keeps the window order
+        long[] ordered() {
+            long[] out = new long[count];
+            int start = count < values.length ? 0 : next;
+            for (int i = 0; i < count; i++) {
+                out[i] = values[(start + i) % values.length];
+            }
+            return out;
+        }
+    }
+
+    private static final int FORMAT_VERSION = 1;
+    private static final int WINDOW_SIZE = 200;
+    private static final int MAX_TRACES = 20;
+
+    private final File storeFile;
+    private final Map<String, Window> windows = new LinkedHashMap<String, Window>();
+    private final ArrayDeque<RenderTrace> traces = new ArrayDeque<RenderTrace>();
+    private boolean loaded;
+
+    RenderTelemetry(File storeFile) {
+        this.storeFile = storeFile;
+    }
+
+    synchronized void record(RenderTrace trace) {
+        ensureLoaded();
+        for (RenderTrace.Span span : trace.spans()) {
+            Window window = windows.get(span.name);
+            if (window == null) {
+                window = new Window();
+                windows.put(span.name, window);
+            }
+            window.add(span.durationUs);
+        }
+        traces.addLast(trace);
+        while (traces.size() > MAX_TRACES) {
+            traces.removeFirst();
+        }
+    }
+
+    synchronized List<Summary> summaries() {
+        ensureLoaded();
+        List<Summary> out = new ArrayList<Summary>();
+        for (Map.Entry<String, Window> entry : windows.entrySet()) {
+            long[] sorted = entry.getValue().ordered();
+            if (sorted.length == 0) {
+                continue;
+            }
+            Arrays.sort(sorted);
+            out.add(new Summary(entry.getKey(), sorted.length, percentile(sorted, 50), percentile(sorted, 90),
+                    sorted[sorted.length - 1]));
+        }
+        return out;
+    }
+
+    synchronized int traceCount() {
+        return traces.size();
+    }
+
+    synchronized void reset() {
+        loaded = true;
+        windows.clear();
+        traces.clear();
+        if (storeFile.exists()) {
+            storeFile.delete();
+        }
+    }
+
+    synchronized void save() throws IOException {
+        if (!loaded) {
+            return;
+        }
+        try {
+            JSONObject stages = new JSONObject();
+            for (Map.Entry<String, Window> entry : windows.entrySet()) {
+                JSONArray values = new JSONArray();
+                for (long value : entry.getValue().ordered()) {
+                    values.put(value);
+                }
+                stages.put(entry.getKey(), values);
+            }
+            JSONObject root = new JSONObject();
+            root.put("version", FORMAT_VERSION);
+            root.put("stagesUs", stages);
+            writeAtomically(storeFile, root.toString());
+        } catch (JSONException e) {
+            throw new IOException("Could not encode render telemetry: " + e.getMessage(), e);
+        }
+    }
+
+    // Writes the traces of this session as complete ("X") events; each render keeps its wall-clock offset.
+    synchronized void exportChromeTrace(File out) throws IOException {
+        try {
+            JSONArray events = new JSONArray();
+            int pid = 1;
+            for (RenderTrace trace : traces) {
+                long baseUs = trace.wallStartMs * 1000L;
+                for (RenderTrace.Span span : trace.spans()) {
+                    JSONObject args = new JSONObject();
+                    args.put("render", trace.label);
+                    JSONObject event = new JSONObject();
+                    event.put("name", span.name);
+                    event.put("cat", "render");
+                    event.put("ph", "X");
+                    event.put("ts", baseUs + span.startUs);
+                    event.put("dur", span.durationUs);
+                    event.put("pid", pid);
+                    event.put("tid", span.threadId);
+                    event.put("args", args);
+                    events.put(event);
+                }
+            }
+            JSONObject root = new JSONObject();
+            root.put("traceEvents", events);
+            root.put("displayTimeUnit", "ms");
+            writeAtomically(out, root.toString());
+        } catch (JSONException e) {
+            throw new IOException("Could not encode trace: " + e.getMessage(), e);
+        }
+    }
+
+    private void ensureLoaded() {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+        if (!storeFile.isFile()) {
+            return;
+        }
+        try (InputStream in = new FileInputStream(storeFile)) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            byte[] buf = new byte[8192];
+            int read;
+            while ((read = in.read(buf)) != -1) {
+                bytes.write(buf, 0, read);
+            }
+            JSONObject root = new JSONObject(new String(bytes.toByteArray(), StandardCharsets.UTF_8));
+            if (root.optInt("version", 0) != FORMAT_VERSION) {
+                return;
+            }
+            JSONObject stages = root.optJSONObject("stagesUs");
+            if (stages == null) {
+                return;
+            }
+            Iterator<String> names = stages.keys();
+            while (names.hasNext()) {
+                String name = names.next();
+                JSONArray values = stages.optJSONArray(name);
+                if (values == null) {
+                    continue;
+                }
+                Window window = new Window();
+                for (int i = 0; i < values.length(); i++) {
+                    window.add(values.optLong(i, 0L));
+                }
+                windows.put(name, window);
+            }
+        } catch (IOException | JSONException e) {
+            windows.clear();
+        }
+    }
+
+    private static long percentile(long[] sorted, int p) {
+        int index = (int) Math.ceil(p / 100.0 * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+    }
+
+    private static void writeAtomically(File file, String text) throws IOException {
+        File parent = file.getParentFile();
+        if (parent != null && !parent.exists()) {
+            parent.mkdirs();
+        }
+        File tmp = new File(file.getPath() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(tmp, false)) {
+            out.write(text.getBytes(StandardCharsets.UTF_8));
+        }
+        if (file.exists() && !file.delete()) {
+            throw new IOException("Could not replace " + file);
+        }
+        if (!tmp.renameTo(file)) {
+            throw new IOException("Could not write " + file);
+        }
+    }
+}
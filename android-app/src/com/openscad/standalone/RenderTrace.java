@@ -0,0 +1,63 @@
+package com.openscad.standalone;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Spans recorded for one render, from the Render tap through STL parsing and the viewer upload.
+// Times are relative to the trace start so they can be laid out on a timeline.
+class RenderTrace {
+
+    static class Span {
+        final String name;
+        final long startUs;
+        final long durationUs;
+        final long threadId;
+
+        Span(String name, long startUs, long durationUs, long threadId) {
+            this.name = name;
+            this.startUs = startUs;
+            this.durationUs = durationUs;
+            this.threadId = threadId;
+        }
+    }
+
+    final String label;
+    final long wallStartMs;
+    private final long originNs;
+    private final List<Span> spans = new ArrayList<Span>();
+
+    RenderTrace(String label) {
+        this.label = label;
+        this.wallStartMs = System.currentTimeMillis();
+        this.originNs = System.nanoTime();
+    }
+
+    long begin() {
+        return System.nanoTime();
+    }
+
+    void end(String name, long beginNs) {
+        add(name, beginNs, System.nanoTime(), Thread.currentThread().getId());
+    }
+
+    // OpenSCAD's own stages, as seen in its output, laid out back to back from startNs
+    void addStages(String prefix, long startNs, List<RenderStageTracker.StageTiming> timings) {
+        long threadId = Thread.currentThread().getId();
+        long at = startNs;
+        for (RenderStageTracker.StageTiming timing : timings) {
+            long end = at + timing.durationMs * 1000000L;
+            add(prefix + timing.stage.label, at, end, threadId);
+            at = end;
+        }
+    }
+
+    synchronized List<Span> spans() {
+        return new ArrayList<Span>(spans);
+    }
+
+    private synchronized void add(String name, long startNs, long endNs, long threadId) {
+        long startUs = Math.max(0L, (startNs - originNs) / 1000L);
+        long durationUs = Math.max(0L, (endNs - startNs) / 1000L);
+        spans.add(new Span(name, startUs, durationUs, threadId));
+    }
+}
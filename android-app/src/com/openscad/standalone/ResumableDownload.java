@@ -0,0 +1,912 @@
+package com.openscad.standalone;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Downloads url into target over several concurrent range requests, so that an interrupted transfer
+// continues where it stopped. The first request asks for "bytes=0-"; when the server answers with a range,
+// the file is preallocated and the rest is split into segments fetched on more connections, each written
+// in place through a positional FileChannel write. Connections are added one at a time for as long as
+// each addition still raises the measured throughput, and a connection that finishes takes over the back
+// half of the largest remaining segment. Servers without range support get one plain stream.
+//
+// The partial file stays on disk next to a small metadata file (url, validator, total and the missing
+// ranges); the next run requests only those, guarded by If-Range so a changed asset starts over instead of
+// being spliced. Dropped connections are retried with backoff. The SHA-256 is computed while the
+// completed prefix of the file grows and is checked against the expected digest when one is known.
+//
+//   # openscad-download 2
+//   url <url>
+//   etag <etag>
+//   last_modified <date>
+//   total <bytes, -1 when unknown>
+//   segment <next> <end>      one per range still missing: bytes [next, end), end -1 when unknown
+class ResumableDownload {
+
+    private static class HttpStatusException extends IOException {
+        final int code;
+
+        HttpStatusException(int code, String message) {
+            super(message);
+            this.code = code;
+        }
+    }
+
+    // The server's answer invalidates the bytes kept so far
+    private static class RestartException extends IOException {
+        RestartException(String message) {
+            super(message);
+        }
+    }
+
+    // Bytes before next are on disk, [next, end) are still missing. Guarded by its own lock: the worker
+    // writing it advances next, a worker stealing from it lowers end.
+    private static class Segment {
+        long next;
+        long end;
+        boolean owned;
+
+        Segment(long next, long end) {
+            this.next = next;
+            this.end = end;
+        }
+
+        synchronized boolean isDone() {
+            return end >= 0 && next >= end;
+        }
+
+        synchronized long remaining() {
+            return end < 0 ? Long.MAX_VALUE : end - next;
+        }
+    }
+
+    static final String META_HEADER = "# openscad-download 2";
+
+    private static final int CONNECT_TIMEOUT_MS = 10000;
+    private static final int READ_TIMEOUT_MS = 25000;
+    private static final int IO_BUFFER_SIZE = 65536;
+    private static final int MAX_ATTEMPTS = 6;
+    private static final int MAX_RESTARTS = 2;
+    private static final long MAX_BACKOFF_MS = 8000;
+    private static final int MAX_CONNECTIONS = 8;
+    // A segment is only split while both halves stay at least this large
+    private static final long MIN_SEGMENT_BYTES = 1L << 20;
+    // Another connection is kept only if throughput rose by this factor since the last one was added
+    private static final double MIN_CONNECTION_GAIN = 1.15;
+    private static final long TICK_MS = 250;
+    private static final long RATE_WINDOW_MS = 500;
+    // fsync + metadata checkpoint interval; a crash loses at most what arrived since
+    private static final long CHECKPOINT_MS = 2000;
+    private static final long PROGRESS_INTERVAL_MS = 500;
+
+    private final String url;
+    private final File target;
+    private final File metaFile;
+    private final String expectedSha256;
+    private final String userAgent;
+
+    private String etag = "";
+    private String lastModified = "";
+    private long total = -1;
+    private boolean rangesSupported;
+    // Guarded by this
+    private final List<Segment> segments = new ArrayList<Segment>();
+
+    private RandomAccessFile file;
+    private FileChannel channel;
+    private final AtomicLong downloaded = new AtomicLong();
+    private final AtomicInteger activeWorkers = new AtomicInteger();
+    private final Set<HttpURLConnection> connections = new HashSet<HttpURLConnection>();
+    private volatile boolean cancelled;
+    private volatile IOException failure;
+    private ExecutorService pool;
+
+    private MessageDigest digest;
+    private long hashed;
+
+    // What openCompletedPrefix() readers may consume: hashed bytes of the current generation, which moves
+    // on whenever the download starts over
+    private final Object prefixLock = new Object();
+    private long prefixAvailable;
+    private int prefixGeneration;
+    private boolean prefixEnded;
+    private boolean prefixFailed;
+
+    // expectedSha256 may be null or empty when the release does not publish one
+    ResumableDownload(String url, File target, String expectedSha256, String userAgent) {
+        this.url = url;
+        this.target = target;
+        this.metaFile = new File(target.getPath() + ".meta");
+        this.expectedSha256 = expectedSha256 == null ? "" : expectedSha256.trim().toLowerCase(Locale.US);
+        this.userAgent = userAgent;
+    }
+
+    // Returns the SHA-256 of the complete file. On failure the partial file and its metadata are kept for
+    // the next run, except after a checksum mismatch.
+    String run(RuntimeUpdateManager.ProgressListener listener, String label) throws IOException {
+        boolean succeeded = false;
+        try {
+            String sha256 = download(listener, label);
+            succeeded = true;
+            return sha256;
+        } finally {
+            synchronized (prefixLock) {
+                prefixEnded = true;
+                prefixFailed = !succeeded;
+                prefixLock.notifyAll();
+            }
+        }
+    }
+
+    private String download(RuntimeUpdateManager.ProgressListener listener, String label) throws IOException {
+        digest = newDigest();
+        if (!resume()) {
+            restart();
+        } else if (bytesOnDisk() > 0) {
+            notifyProgress(listener, "Resuming " + label + " at " + formatMb(bytesOnDisk()) + "...");
+        }
+
+        for (int restarts = 0; ; restarts++) {
+            try {
+                transfer(listener, label);
+                break;
+            } catch (RestartException e) {
+                if (restarts >= MAX_RESTARTS) {
+                    throw e;
+                }
+                notifyProgress(listener, "Server copy changed (" + e.getMessage() + "), restarting download...");
+                restart();
+            }
+        }
+
+        String sha256 = toHex(digest.digest());
+        if (!expectedSha256.isEmpty() && !expectedSha256.equals(sha256)) {
+            discard();
+            throw new IOException("Checksum mismatch for " + label + ": expected " + expectedSha256
+                    + ", got " + sha256);
+        }
+        metaFile.delete();
+        return sha256;
+    }
+
+    // Reads the file front to back while it downloads, blocking until the next bytes are complete, so an
+    // archive can be unpacked as it arrives. Reads fail once the download fails or starts over; what was
+    // read is only trustworthy after run() returned, as the checksum is checked at the end.
+    InputStream openCompletedPrefix() {
+        return new InputStream() {
+            private RandomAccessFile in;
+            private long position;
+            // Generation the bytes read so far belong to; adopted with the first byte
+            private int generation = -1;
+
+            @Override
+            public int read() throws IOException {
+                byte[] one = new byte[1];
+                return read(one, 0, 1) == 1 ? one[0] & 0xff : -1;
+            }
+
+            @Override
+            public int read(byte[] buffer, int offset, int length) throws IOException {
+                long available;
+                synchronized (prefixLock) {
+                    while (true) {
+                        if (position == 0) {
+                            generation = prefixGeneration;
+                        }
+                        if (generation != prefixGeneration) {
+                            throw new IOException("Download started over");
+                        }
+                        if (prefixFailed) {
+                            throw new IOException("Download failed");
+                        }
+                        if (position < prefixAvailable || prefixEnded) {
+                            break;
+                        }
+                        try {
+                            prefixLock.wait();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            throw new IOException("Interrupted", e);
+                        }
+                    }
+                    available = prefixAvailable - position;
+                }
+                if (available <= 0) {
+                    return -1;
+                }
+                if (in == null) {
+                    in = new RandomAccessFile(target, "r");
+                }
+                in.seek(position);
+                int read = in.read(buffer, offset, (int) Math.min(length, available));
+                if (read > 0) {
+                    position += read;
+                }
+                return read;
+            }
+
+            @Override
+            public void close() throws IOException {
+                if (in != null) {
+                    in.close();
+                }
+            }
+        };
+    }
+
+    // Drops the downloaded file and its metadata
+    void discard() {
+        target.delete();
+        metaFile.delete();
+    }
+
+    // One pass over the missing segments with as many connections as pay off. Returns once every segment
+    // is on disk and hashed.
+    private void transfer(RuntimeUpdateManager.ProgressListener listener, String label) throws IOException {
+        cancelled = false;
+        failure = null;
+        hashed = 0;
+        digest.reset();
+        file = new RandomAccessFile(target, "rw");
+        channel = file.getChannel();
+        pool = Executors.newFixedThreadPool(MAX_CONNECTIONS);
+        try {
+            if (total >= 0) {
+                preallocate(total);
+            }
+            spawn();
+
+            long startedMs = System.currentTimeMillis();
+            long lastCheckpointMs = startedMs;
+            long lastProgressMs = 0;
+            long windowStartMs = startedMs;
+            long windowStartBytes = 0;
+            double rate = 0;
+            // start of the window the current rate was measured over
+            long rateFromMs = -1;
+            double rateAtLastAdd = 0;
+            int added = 0;
+            long lastAddMs = startedMs;
+            boolean growing = true;
+            while (activeWorkers.get() > 0) {
+                if (failure != null) {
+                    break;
+                }
+                sleep(TICK_MS);
+                hashCompletedPrefix();
+
+                long now = System.currentTimeMillis();
+                if (now - windowStartMs >= RATE_WINDOW_MS) {
+                    long bytes = downloaded.get();
+                    rate = (bytes - windowStartBytes) * 1000.0 / (now - windowStartMs);
+                    rateFromMs = windowStartMs;
+                    windowStartMs = now;
+                    windowStartBytes = bytes;
+                }
+                // each connection is added only once a full window measured entirely since the previous add is in,
+                // so the rate it is judged against (and later compared to) reflects the connections already open
+                boolean due = rateFromMs >= lastAddMs;
+                if (growing && rangesSupported && due) {
+                    boolean gained = added == 0 || rate >= rateAtLastAdd * MIN_CONNECTION_GAIN;
+                    if (gained && activeWorkers.get() < MAX_CONNECTIONS && spawn()) {
+                        rateAtLastAdd = rate;
+                        lastAddMs = now;
+                        added++;
+                    } else {
+                        growing = false;
+                    }
+                }
+                if (now - lastCheckpointMs >= CHECKPOINT_MS) {
+                    checkpoint();
+                    lastCheckpointMs = now;
+                }
+                if (listener != null && now - lastProgressMs >= PROGRESS_INTERVAL_MS) {
+                    lastProgressMs = now;
+                    String of = total >= 0 ? " / " + formatMb(total) : "";
+                    listener.onProgress(String.format(Locale.US, "Downloading %s: %s%s, %d connection%s, %.1f MB/s",
+                            label, formatMb(bytesOnDisk()), of, activeWorkers.get(),
+                            activeWorkers.get() == 1 ? "" : "s", rate / (1024.0 * 1024.0)));
+                }
+            }
+            if (failure != null) {
+                cancel();
+                throw failure;
+            }
+            synchronized (this) {
+                for (Segment segment : segments) {
+                    if (!segment.isDone()) {
+                        throw new IOException("Download stopped at " + formatMb(bytesOnDisk()));
+                    }
+                }
+            }
+            hashCompletedPrefix();
+        } finally {
+            cancel();
+            checkpoint();
+            channel.close();
+            file.close();
+        }
+    }
+
+    // Starts a worker on the next piece of work; false when there is none worth a connection
+    private boolean spawn() {
+        Segment segment = takeWork();
+        if (segment == null) {
+            return false;
+        }
+        activeWorkers.incrementAndGet();
+        pool.submit(new Worker(segment));
+        return true;
+    }
+
+    // An unowned missing segment, or else the back half of the largest one still being fetched
+    private synchronized Segment takeWork() {
+        Segment largest = null;
+        long largestRemaining = 0;
+        for (Segment segment : segments) {
+            if (segment.isDone()) {
+                continue;
+            }
+            if (!segment.owned) {
+                segment.owned = true;
+                return segment;
+            }
+            long remaining = segment.remaining();
+            if (remaining != Long.MAX_VALUE && remaining > largestRemaining) {
+                largest = segment;
+                largestRemaining = remaining;
+            }
+        }
+        if (largest == null || !rangesSupported || largestRemaining < 2 * MIN_SEGMENT_BYTES) {
+            return null;
+        }
+        Segment stolen;
+        synchronized (largest) {
+            long remaining = largest.end - largest.next;
+            if (remaining < 2 * MIN_SEGMENT_BYTES) {
+                return null;
+            }
+            // aligned so the two halves meet on a buffer boundary
+            long split = (largest.next + remaining / 2) & ~(long) (IO_BUFFER_SIZE - 1);
+            stolen = new Segment(split, largest.end);
+            largest.end = split;
+        }
+        stolen.owned = true;
+        segments.add(stolen);
+        return stolen;
+    }
+
+    private class Worker implements Runnable {
+        private Segment segment;
+
+        Worker(Segment segment) {
+            this.segment = segment;
+        }
+
+        @Override
+        public void run() {
+            byte[] buffer = new byte[IO_BUFFER_SIZE];
+            int failures = 0;
+            try {
+                while (segment != null && !cancelled) {
+                    long before;
+                    synchronized (segment) {
+                        before = segment.next;
+                    }
+                    try {
+                        fetch(segment, buffer);
+                        segment = takeWork();
+                        failures = 0;
+                    } catch (RestartException e) {
+                        fail(e);
+                        return;
+                    } catch (IOException e) {
+                        if (cancelled) {
+                            return;
+                        }
+                        synchronized (segment) {
+                            if (segment.next > before) {
+                                failures = 0;
+                            }
+                        }
+                        failures++;
+                        if (failures >= MAX_ATTEMPTS || !isRetryable(e)) {
+                            fail(e);
+                            return;
+                        }
+                        try {
+                            Thread.sleep(Math.min(MAX_BACKOFF_MS, 1000L << (failures - 1)));
+                        } catch (InterruptedException interrupted) {
+                            return;
+                        }
+                    }
+                }
+            } finally {
+                activeWorkers.decrementAndGet();
+            }
+        }
+    }
+
+    // One request for the missing bytes of segment. Returns when they are all on disk, or the segment was
+    // cut short by another worker taking over its tail.
+    private void fetch(Segment segment, byte[] buffer) throws IOException {
+        long from;
+        long to;
+        synchronized (segment) {
+            from = segment.next;
+            to = segment.end;
+        }
+        HttpURLConnection conn = (HttpURLConnection) new URL(url).openConnection();
+        if (!register(conn)) {
+            throw new IOException("Download cancelled");
+        }
+        try {
+            conn.setRequestMethod("GET");
+            conn.setInstanceFollowRedirects(true);
+            conn.setConnectTimeout(CONNECT_TIMEOUT_MS);
+            conn.setReadTimeout(READ_TIMEOUT_MS);
+            conn.setRequestProperty("User-Agent", userAgent);
+            // byte ranges must refer to the stored representation, not a transparently gzipped one
+            conn.setRequestProperty("Accept-Encoding", "identity");
+            conn.setRequestProperty("Range", "bytes=" + from + "-" + (to >= 0 ? Long.toString(to - 1) : ""));
+            String validator = !etag.isEmpty() ? etag : lastModified;
+            if (!validator.isEmpty()) {
+                conn.setRequestProperty("If-Range", validator);
+            }
+
+            int code = conn.getResponseCode();
+            if (code == HttpURLConnection.HTTP_OK) {
+                // no range support, or the asset changed: only a fresh download from zero can use this body
+                if (from != 0 || !isOnlySegment(segment)) {
+                    throw new RestartException("server sent the whole file");
+                }
+                long length = conn.getContentLengthLong();
+                setTotal(length, conn, false);
+                synchronized (segment) {
+                    segment.end = length;
+                }
+            } else if (code == HttpURLConnection.HTTP_PARTIAL) {
+                long[] range = parseContentRange(conn.getHeaderField("Content-Range"));
+                if (range == null || range[0] != from) {
+                    throw new RestartException("unexpected Content-Range " + conn.getHeaderField("Content-Range"));
+                }
+                setTotal(range[1], conn, true);
+            } else if (code == 416) {
+                throw new RestartException("range not satisfiable");
+            } else {
+                throw new HttpStatusException(code, "Download failed " + code + ": "
+                        + trimForError(readAll(conn.getErrorStream())));
+            }
+
+            try (InputStream in = conn.getInputStream()) {
+                while (!cancelled) {
+                    if (segment.isDone()) {
+                        return;
+                    }
+                    int read = in.read(buffer);
+                    if (read == -1) {
+                        break;
+                    }
+                    int count;
+                    synchronized (segment) {
+                        count = segment.end < 0 ? read : (int) Math.max(0, Math.min(read, segment.end - segment.next));
+                        ByteBuffer chunk = ByteBuffer.wrap(buffer, 0, count);
+                        while (chunk.hasRemaining()) {
+                            channel.write(chunk, segment.next + chunk.position());
+                        }
+                        segment.next += count;
+                    }
+                    downloaded.addAndGet(count);
+                }
+            }
+            long end;
+            synchronized (segment) {
+                if (segment.end >= 0 && segment.next < segment.end) {
+                    throw new IOException("Connection closed at " + formatMb(segment.next));
+                }
+                end = segment.next;
+            }
+            if (!cancelled) {
+                // a no-op unless the length was unknown, in which case the stream ending is the end of the file
+                endOfStream(segment, end);
+            }
+        } finally {
+            unregister(conn);
+            conn.disconnect();
+        }
+    }
+
+    // Records the size and validators from the first response; later responses must agree
+    private synchronized void setTotal(long length, HttpURLConnection conn, boolean ranged) throws IOException {
+        if (total >= 0 && length >= 0 && length != total) {
+            throw new RestartException("size changed from " + total + " to " + length);
+        }
+        String newEtag = headerOrEmpty(conn, "ETag");
+        if (!etag.isEmpty() && !newEtag.isEmpty() && !etag.equals(newEtag)) {
+            throw new RestartException("ETag changed");
+        }
+        if (etag.isEmpty()) {
+            etag = newEtag;
+        }
+        if (lastModified.isEmpty()) {
+            lastModified = headerOrEmpty(conn, "Last-Modified");
+        }
+        rangesSupported = ranged && length >= 0;
+        if (total < 0 && length >= 0) {
+            total = length;
+            preallocate(length);
+            for (Segment segment : segments) {
+                synchronized (segment) {
+                    if (segment.end < 0) {
+                        segment.end = length;
+                    }
+                }
+            }
+        }
+    }
+
+    private synchronized void endOfStream(Segment segment, long end) {
+        synchronized (segment) {
+            if (segment.end < 0) {
+                segment.end = end;
+                total = end;
+            }
+        }
+    }
+
+    private synchronized boolean isOnlySegment(Segment segment) {
+        return segments.size() == 1 && segments.get(0) == segment;
+    }
+
+    // Reserves the whole file up front so positional writes never extend it, falling back to a sparse file
+    private void preallocate(long length) throws IOException {
+        if (file.length() == length) {
+            return;
+        }
+        try {
+            FileAllocator.reserve(file, length);
+        } catch (NoClassDefFoundError e) {
+            // not running on Android
+        }
+        file.setLength(length);
+    }
+
+    // Feeds the digest with everything below the first missing byte
+    private void hashCompletedPrefix() throws IOException {
+        long frontier = bytesOnDiskPrefix();
+        if (frontier <= hashed) {
+            return;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(IO_BUFFER_SIZE);
+        while (hashed < frontier) {
+            buffer.clear();
+            buffer.limit((int) Math.min(IO_BUFFER_SIZE, frontier - hashed));
+            int read = channel.read(buffer, hashed);
+            if (read <= 0) {
+                throw new IOException("Could not read back " + target);
+            }
+            digest.update(buffer.array(), 0, read);
+            hashed += read;
+        }
+        synchronized (prefixLock) {
+            if (hashed > prefixAvailable) {
+                prefixAvailable = hashed;
+                prefixLock.notifyAll();
+            }
+        }
+    }
+
+    private synchronized long bytesOnDiskPrefix() {
+        long frontier = total >= 0 ? total : 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                if (segment.end < 0) {
+                    frontier = Math.max(frontier, segment.next);
+                }
+                if (segment.end < 0 || segment.next < segment.end) {
+                    frontier = Math.min(frontier, segment.next);
+                }
+            }
+        }
+        return frontier;
+    }
+
+    private synchronized long bytesOnDisk() {
+        long missing = 0;
+        long unknownNext = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                if (segment.end < 0) {
+                    unknownNext = segment.next;
+                } else {
+                    missing += Math.max(0, segment.end - segment.next);
+                }
+            }
+        }
+        return total >= 0 ? total - missing : unknownNext;
+    }
+
+    private synchronized boolean register(HttpURLConnection conn) {
+        if (cancelled) {
+            return false;
+        }
+        connections.add(conn);
+        return true;
+    }
+
+    private synchronized void unregister(HttpURLConnection conn) {
+        connections.remove(conn);
+    }
+
+    private void fail(IOException e) {
+        synchronized (this) {
+            if (failure == null) {
+                failure = e;
+            }
+        }
+        stopWorkers();
+    }
+
+    // Closing their connections unblocks reads in progress
+    private void stopWorkers() {
+        List<HttpURLConnection> open;
+        synchronized (this) {
+            cancelled = true;
+            open = new ArrayList<HttpURLConnection>(connections);
+        }
+        for (HttpURLConnection conn : open) {
+            conn.disconnect();
+        }
+    }
+
+    private void cancel() {
+        stopWorkers();
+        if (pool != null) {
+            pool.shutdownNow();
+            try {
+                pool.awaitTermination(READ_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    // Syncs what was written so far, then records the ranges still missing; best effort, a lost
+    // checkpoint only re-downloads
+    private void checkpoint() {
+        try {
+            String meta = metaSnapshot();
+            channel.force(false);
+            writeMeta(meta);
+        } catch (IOException ignored) {
+        }
+    }
+
+    private synchronized String metaSnapshot() {
+        StringBuilder sb = new StringBuilder(META_HEADER).append('\n');
+        sb.append("url\t").append(url).append('\n');
+        sb.append("etag\t").append(etag).append('\n');
+        sb.append("last_modified\t").append(lastModified).append('\n');
+        sb.append("total\t").append(total).append('\n');
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                if (segment.end < 0 || segment.next < segment.end) {
+                    sb.append("segment\t").append(segment.next).append('\t').append(segment.end).append('\n');
+                }
+            }
+        }
+        return sb.toString();
+    }
+
+    // Picks up a partial file left by an earlier run for the same url
+    private synchronized boolean resume() {
+        if (!metaFile.isFile() || !target.isFile()) {
+            return false;
+        }
+        String[] lines;
+        try (InputStream in = new FileInputStream(metaFile)) {
+            lines = readAll(in).split("\n");
+        } catch (IOException e) {
+            return false;
+        }
+        if (lines.length == 0 || !META_HEADER.equals(lines[0].trim())) {
+            return false;
+        }
+        String metaUrl = null;
+        try {
+            for (int i = 1; i < lines.length; i++) {
+                String[] parts = lines[i].split("\t", -1);
+                if ("url".equals(parts[0]) && parts.length == 2) {
+                    metaUrl = parts[1];
+                } else if ("etag".equals(parts[0]) && parts.length == 2) {
+                    etag = parts[1];
+                } else if ("last_modified".equals(parts[0]) && parts.length == 2) {
+                    lastModified = parts[1];
+                } else if ("total".equals(parts[0]) && parts.length == 2) {
+                    total = Long.parseLong(parts[1]);
+                } else if ("segment".equals(parts[0]) && parts.length == 3) {
+                    segments.add(new Segment(Long.parseLong(parts[1]), Long.parseLong(parts[2])));
+                }
+            }
+        } catch (NumberFormatException e) {
+            return false;
+        }
+        if (!url.equals(metaUrl)) {
+            return false;
+        }
+        if (total >= 0) {
+            // preallocated to the full size on the first response; anything else is not ours
+            if (target.length() != total) {
+                return false;
+            }
+            rangesSupported = true;
+            for (Segment segment : segments) {
+                if (segment.end < 0 || segment.end > total || segment.next > segment.end) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        if (segments.size() != 1 || segments.get(0).end >= 0) {
+            return false;
+        }
+        // a plain stream: keep what reached the file, up to the last checkpoint
+        Segment segment = segments.get(0);
+        segment.next = Math.min(segment.next, target.length());
+        return true;
+    }
+
+    private synchronized void restart() throws IOException {
+        synchronized (prefixLock) {
+            prefixGeneration++;
+            prefixAvailable = 0;
+            prefixLock.notifyAll();
+        }
+        etag = "";
+        lastModified = "";
+        total = -1;
+        rangesSupported = false;
+        segments.clear();
+        segments.add(new Segment(0, -1));
+        File parent = target.getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("Could not create " + parent.getAbsolutePath());
+        }
+        try (FileOutputStream out = new FileOutputStream(target, false)) {
+            out.flush();
+        }
+        writeMeta(metaSnapshot());
+    }
+
+    private void writeMeta(String meta) throws IOException {
+        File tmp = new File(metaFile.getPath() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(tmp, false)) {
+            out.write(meta.getBytes(StandardCharsets.UTF_8));
+        }
+        if (metaFile.exists() && !metaFile.delete()) {
+            throw new IOException("Could not replace " + metaFile);
+        }
+        if (!tmp.renameTo(metaFile)) {
+            throw new IOException("Could not write " + metaFile);
+        }
+    }
+
+    // Status codes worth another attempt; everything else (404, 403, ...) will not change by retrying
+    private static boolean isRetryable(IOException e) {
+        if (!(e instanceof HttpStatusException)) {
+            return true;
+        }
+        int code = ((HttpStatusException) e).code;
+        return code == 408 || code == 429 || code >= 500;
+    }
+
+    // "bytes start-end/total" -> {start, total}; total is -1 for "*"
+    static long[] parseContentRange(String header) {
+        if (header == null) {
+            return null;
+        }
+        String value = header.trim();
+        if (!value.startsWith("bytes ")) {
+            return null;
+        }
+        int dash = value.indexOf('-');
+        int slash = value.indexOf('/');
+        if (dash < 0 || slash < dash) {
+            return null;
+        }
+        try {
+            long start = Long.parseLong(value.substring(6, dash).trim());
+            String totalText = value.substring(slash + 1).trim();
+            return new long[] { start, "*".equals(totalText) ? -1 : Long.parseLong(totalText) };
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static void sleep(long ms) throws IOException {
+        try {
+            Thread.sleep(ms);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Download interrupted", e);
+        }
+    }
+
+    private static String headerOrEmpty(HttpURLConnection conn, String name) {
+        String value = conn.getHeaderField(name);
+        return value == null ? "" : value.trim();
+    }
+
+    private static void notifyProgress(RuntimeUpdateManager.ProgressListener listener, String message) {
+        if (listener != null) {
+            listener.onProgress(message);
+        }
+    }
+
+    static String formatMb(long bytes) {
+        return String.format(Locale.US, "%.1f MB", bytes / (1024.0 * 1024.0));
+    }
+
+    private static MessageDigest newDigest() throws IOException {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException("SHA-256 unavailable", e);
+        }
+    }
+
+    private static String toHex(byte[] digest) {
+        StringBuilder sb = new StringBuilder(digest.length * 2);
+        for (byte b : digest) {
+            sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return sb.toString();
+    }
+
+    private static String readAll(InputStream in) throws IOException {
+        if (in == null) {
+            return "";
+        }
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buf = new byte[8192];
+            int read;
+            while ((read = in.read(buf)) != -1) {
+                out.write(buf, 0, read);
+            }
+            return out.toString(StandardCharsets.UTF_8.name());
+        } finally {
+            try {
+                in.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    private static String trimForError(String text) {
+        text = text.trim();
+        return text.length() > 220 ? text.substring(0, 220) + "..." : text;
+    }
+}
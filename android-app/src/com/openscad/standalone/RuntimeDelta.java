@@ -0,0 +1,533 @@
+package com.openscad.standalone;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+// Builds a runtime release from the files already on disk plus the ones that changed. The release manifest
+// (written next to the zip by generate_runtime_manifest.py) names every file with its hash: files whose
+// content some kept runtime version already has are linked from there, and only the rest are read out of
+// the remote zip. Those are located through the zip's central directory and fetched with HTTP range
+// requests, neighbouring entries in one request, so an update that only touches bin/openscad transfers
+// little more than that one entry.
+class RuntimeDelta {
+
+    private static class Record {
+        final String name;
+        final int flags;
+        final int method;
+        final long compressedSize;
+        final long localOffset;
+        // Start of whatever follows the entry in the archive, which bounds its local header and data
+        long spanEnd;
+
+        Record(String name, int flags, int method, long compressedSize, long localOffset) {
+            this.name = name;
+            this.flags = flags;
+            this.method = method;
+            this.compressedSize = compressedSize;
+            this.localOffset = localOffset;
+        }
+    }
+
+    private static class Fetch {
+        final RuntimeManifest.Entry entry;
+        final Record record;
+
+        Fetch(RuntimeManifest.Entry entry, Record record) {
+            this.entry = entry;
+            this.record = record;
+        }
+    }
+
+    private static final int CONNECT_TIMEOUT_MS = 10000;
+    private static final int READ_TIMEOUT_MS = 25000;
+    private static final int IO_BUFFER_SIZE = 65536;
+    // End of central directory record plus the longest possible archive comment
+    private static final int TAIL_BYTES = 22 + 65535;
+    // Entries closer together than this share a request; the unneeded bytes between them cost less than
+    // another round trip
+    private static final long MERGE_GAP_BYTES = 256L * 1024L;
+
+    private static final int EOCD_SIGNATURE = 0x06054b50;
+    private static final int CENTRAL_SIGNATURE = 0x02014b50;
+    private static final int LOCAL_SIGNATURE = 0x04034b50;
+    private static final int METHOD_STORED = 0;
+    private static final int METHOD_DEFLATED = 8;
+    private static final int FLAG_ENCRYPTED = 1;
+
+    private final RuntimeManifest target;
+    private final String archiveUrl;
+    private final String userAgent;
+    // "sha256:size" -> a file on disk with that content
+    private final Map<String, File> local = new HashMap<String, File>();
+    private final List<RuntimeManifest.Entry> reused = new ArrayList<RuntimeManifest.Entry>();
+    private final List<Fetch> fetches = new ArrayList<Fetch>();
+
+    private String resolvedUrl;
+    private String validator = "";
+    private long archiveBytes = -1;
+
+    RuntimeDelta(RuntimeManifest target, String archiveUrl, String userAgent) {
+        this.target = target;
+        this.archiveUrl = archiveUrl;
+        this.userAgent = userAgent;
+    }
+
+    // Offers the files of an installed runtime described by manifest. Earlier sources win; files that are
+    // missing or have the wrong size are not offered.
+    void addLocalSource(File root, RuntimeManifest manifest) {
+        if (manifest == null) {
+            return;
+        }
+        for (RuntimeManifest.Entry entry : manifest.entries()) {
+            String key = key(entry);
+            if (local.containsKey(key)) {
+                continue;
+            }
+            File file = new File(root, entry.path);
+            if (file.isFile() && file.length() == entry.size) {
+                try {
+                    // the file itself rather than a link to it, and independent of which version is active
+                    local.put(key, file.getCanonicalFile());
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    // Reads the archive's central directory and works out what has to be fetched. Returns the number of
+    // archive bytes the remote part will transfer, or -1 when the archive cannot be read piecewise (no
+    // range support, zip64, an entry the manifest names but the zip lacks).
+    long plan() throws IOException {
+        reused.clear();
+        fetches.clear();
+        List<RuntimeManifest.Entry> missing = new ArrayList<RuntimeManifest.Entry>();
+        for (RuntimeManifest.Entry entry : target.entries()) {
+            if (local.containsKey(key(entry))) {
+                reused.add(entry);
+            } else {
+                missing.add(entry);
+            }
+        }
+        if (missing.isEmpty()) {
+            return 0;
+        }
+
+        Map<String, Record> records = readCentralDirectory();
+        if (records == null) {
+            return -1;
+        }
+        String prefix = records.containsKey("runtime/bin/openscad") ? "runtime/" : "";
+        long bytes = 0;
+        for (RuntimeManifest.Entry entry : missing) {
+            Record record = records.get(prefix + entry.path);
+            if (record == null || (record.flags & FLAG_ENCRYPTED) != 0
+                    || (record.method != METHOD_STORED && record.method != METHOD_DEFLATED)) {
+                return -1;
+            }
+            fetches.add(new Fetch(entry, record));
+            bytes += record.spanEnd - record.localOffset;
+        }
+        return bytes;
+    }
+
+    // Size of the whole archive, known after plan() reached the server
+    long archiveBytes() {
+        return archiveBytes;
+    }
+
+    int reusedCount() {
+        return reused.size();
+    }
+
+    int fetchCount() {
+        return fetches.size();
+    }
+
+    // Writes the release into outDir: links for the reused files, then the fetched ones, each checked
+    // against the manifest's hash
+    void install(File outDir, RuntimeUpdateManager.ProgressListener listener) throws IOException {
+        for (RuntimeManifest.Entry entry : reused) {
+            File out = new File(outDir, entry.path);
+            makeParent(out);
+            RuntimeVersions.linkTree(local.get(key(entry)), out);
+            if (entry.executable && !out.canExecute()) {
+                out.setExecutable(true, true);
+            }
+        }
+
+        List<Fetch> ordered = new ArrayList<Fetch>(fetches);
+        Collections.sort(ordered, new Comparator<Fetch>() {
+            @Override
+            public int compare(Fetch a, Fetch b) {
+                return Long.compare(a.record.localOffset, b.record.localOffset);
+            }
+        });
+        byte[] buffer = new byte[IO_BUFFER_SIZE];
+        long total = 0;
+        for (Fetch fetch : ordered) {
+            total += fetch.record.spanEnd - fetch.record.localOffset;
+        }
+        long done = 0;
+        int start = 0;
+        while (start < ordered.size()) {
+            int end = start + 1;
+            while (end < ordered.size()
+                    && ordered.get(end).record.localOffset - ordered.get(end - 1).record.spanEnd <= MERGE_GAP_BYTES) {
+                end++;
+            }
+            List<Fetch> group = ordered.subList(start, end);
+            fetchGroup(group, outDir, buffer);
+            for (Fetch fetch : group) {
+                done += fetch.record.spanEnd - fetch.record.localOffset;
+            }
+            if (listener != null) {
+                listener.onProgress("Fetching changed runtime files... " + ResumableDownload.formatMb(done)
+                        + " / " + ResumableDownload.formatMb(total));
+            }
+            start = end;
+        }
+    }
+
+    // One range request covering a run of entries; entries are read from the body in archive order
+    private void fetchGroup(List<Fetch> group, File outDir, byte[] buffer) throws IOException {
+        long from = group.get(0).record.localOffset;
+        long to = group.get(group.size() - 1).record.spanEnd;
+        HttpURLConnection conn = openRange(from + "-" + (to - 1));
+        try {
+            long[] range = ResumableDownload.parseContentRange(conn.getHeaderField("Content-Range"));
+            if (conn.getResponseCode() != HttpURLConnection.HTTP_PARTIAL || range == null || range[0] != from) {
+                throw new IOException("Runtime archive changed during the update");
+            }
+            try (InputStream body = conn.getInputStream()) {
+                long position = from;
+                for (Fetch fetch : group) {
+                    skipFully(body, fetch.record.localOffset - position);
+                    position = fetch.record.localOffset;
+                    byte[] header = readFully(body, 30);
+                    if (u32(header, 0) != LOCAL_SIGNATURE) {
+                        throw new IOException("Bad local header for " + fetch.record.name);
+                    }
+                    int skip = u16(header, 26) + u16(header, 28);
+                    skipFully(body, skip);
+                    position += 30 + skip;
+                    writeEntry(fetch, new BoundedInputStream(body, fetch.record.compressedSize), outDir, buffer);
+                    position += fetch.record.compressedSize;
+                }
+            }
+        } finally {
+            conn.disconnect();
+        }
+    }
+
+    private void writeEntry(Fetch fetch, BoundedInputStream compressed, File outDir, byte[] buffer) throws IOException {
+        File out = new File(outDir, fetch.entry.path);
+        makeParent(out);
+        File tmp = new File(out.getPath() + ".delta");
+        MessageDigest digest = newDigest();
+        long size = 0;
+        Inflater inflater = fetch.record.method == METHOD_DEFLATED ? new Inflater(true) : null;
+        try {
+            InputStream in = inflater == null ? compressed : new InflaterInputStream(compressed, inflater, IO_BUFFER_SIZE);
+            try (OutputStream os = new FileOutputStream(tmp, false)) {
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    digest.update(buffer, 0, read);
+                    os.write(buffer, 0, read);
+                    size += read;
+                }
+            }
+            // the inflater may stop short of the entry's end; the next entry is found by offset, not by stream
+            skipFully(compressed, compressed.remaining);
+        } finally {
+            if (inflater != null) {
+                inflater.end();
+            }
+        }
+        if (size != fetch.entry.size || !toHex(digest.digest()).equalsIgnoreCase(fetch.entry.sha256)) {
+            tmp.delete();
+            throw new IOException("Checksum mismatch for " + fetch.entry.path);
+        }
+        if (fetch.entry.executable && !tmp.setExecutable(true, true)) {
+            tmp.delete();
+            throw new IOException("Could not mark " + fetch.entry.path + " as executable");
+        }
+        if (out.exists() && !out.delete()) {
+            tmp.delete();
+            throw new IOException("Could not replace " + out);
+        }
+        if (!tmp.renameTo(out)) {
+            tmp.delete();
+            throw new IOException("Could not write " + out);
+        }
+    }
+
+    // Name -> record for every file entry, with span ends filled in; null when the server does not serve
+    // ranges or the archive needs zip64
+    private Map<String, Record> readCentralDirectory() throws IOException {
+        byte[] tail;
+        long tailStart;
+        HttpURLConnection conn = openRange("-" + TAIL_BYTES);
+        try {
+            long[] range = ResumableDownload.parseContentRange(conn.getHeaderField("Content-Range"));
+            if (conn.getResponseCode() != HttpURLConnection.HTTP_PARTIAL || range == null || range[1] < 0) {
+                return null;
+            }
+            // later requests go straight to wherever the asset URL redirected, pinned to this representation
+            resolvedUrl = conn.getURL().toString();
+            String etag = conn.getHeaderField("ETag");
+            String lastModified = conn.getHeaderField("Last-Modified");
+            validator = etag != null ? etag.trim() : lastModified != null ? lastModified.trim() : "";
+            archiveBytes = range[1];
+            tailStart = range[0];
+            try (InputStream in = conn.getInputStream()) {
+                tail = readAll(in);
+            }
+        } finally {
+            conn.disconnect();
+        }
+
+        int eocd = -1;
+        for (int i = tail.length - 22; i >= 0; i--) {
+            if (u32(tail, i) == EOCD_SIGNATURE) {
+                eocd = i;
+                break;
+            }
+        }
+        if (eocd < 0) {
+            throw new IOException("Runtime archive has no central directory");
+        }
+        int count = u16(tail, eocd + 10);
+        long cdSize = u32(tail, eocd + 12);
+        long cdOffset = u32(tail, eocd + 16);
+        if (count == 0xffff || cdSize == 0xffffffffL || cdOffset == 0xffffffffL) {
+            return null;
+        }
+        // the directory sits right before its end record; anything else is a damaged or hostile archive
+        long eocdOffset = tailStart + eocd;
+        if (cdOffset + cdSize > eocdOffset || cdSize > Integer.MAX_VALUE) {
+            throw new IOException("Malformed runtime archive end record");
+        }
+
+        byte[] cd;
+        if (cdOffset >= tailStart) {
+            int at = (int) (cdOffset - tailStart);
+            if (at + cdSize > tail.length) {
+                throw new IOException("Malformed runtime archive end record");
+            }
+            cd = new byte[(int) cdSize];
+            System.arraycopy(tail, at, cd, 0, cd.length);
+        } else {
+            conn = openRange(cdOffset + "-" + (cdOffset + cdSize - 1));
+            try {
+                long[] range = ResumableDownload.parseContentRange(conn.getHeaderField("Content-Range"));
+                if (conn.getResponseCode() != HttpURLConnection.HTTP_PARTIAL || range == null || range[0] != cdOffset) {
+                    return null;
+                }
+                try (InputStream in = conn.getInputStream()) {
+                    cd = readAll(in);
+                }
+            } finally {
+                conn.disconnect();
+            }
+            if (cd.length != cdSize) {
+                throw new IOException("Runtime archive directory ended early");
+            }
+        }
+
+        List<Record> all = new ArrayList<Record>(count);
+        Map<String, Record> byName = new HashMap<String, Record>();
+        int p = 0;
+        for (int i = 0; i < count; i++) {
+            if (p + 46 > cd.length || u32(cd, p) != CENTRAL_SIGNATURE) {
+                throw new IOException("Malformed runtime archive directory");
+            }
+            int nameLength = u16(cd, p + 28);
+            int extraLength = u16(cd, p + 30);
+            int commentLength = u16(cd, p + 32);
+            if (p + 46 + nameLength > cd.length) {
+                throw new IOException("Malformed runtime archive directory");
+            }
+            String name = new String(cd, p + 46, nameLength, StandardCharsets.UTF_8).replace('\\', '/');
+            Record record = new Record(name, u16(cd, p + 8), u16(cd, p + 10), u32(cd, p + 20), u32(cd, p + 42));
+            if (record.localOffset + 30 + record.compressedSize > cdOffset) {
+                throw new IOException("Malformed runtime archive entry " + name);
+            }
+            all.add(record);
+            if (!name.endsWith("/")) {
+                byName.put(name, record);
+            }
+            p += 46 + nameLength + extraLength + commentLength;
+        }
+        Collections.sort(all, new Comparator<Record>() {
+            @Override
+            public int compare(Record a, Record b) {
+                return Long.compare(a.localOffset, b.localOffset);
+            }
+        });
+        for (int i = 0; i < all.size(); i++) {
+            all.get(i).spanEnd = i + 1 < all.size() ? all.get(i + 1).localOffset : cdOffset;
+        }
+        return byName;
+    }
+
+    private HttpURLConnection openRange(String range) throws IOException {
+        HttpURLConnection conn = (HttpURLConnection) new URL(resolvedUrl != null ? resolvedUrl : archiveUrl)
+                .openConnection();
+        conn.setRequestMethod("GET");
+        conn.setInstanceFollowRedirects(true);
+        conn.setConnectTimeout(CONNECT_TIMEOUT_MS);
+        conn.setReadTimeout(READ_TIMEOUT_MS);
+        conn.setRequestProperty("User-Agent", userAgent);
+        conn.setRequestProperty("Accept-Encoding", "identity");
+        conn.setRequestProperty("Range", "bytes=" + range);
+        if (!validator.isEmpty()) {
+            conn.setRequestProperty("If-Range", validator);
+        }
+        return conn;
+    }
+
+    private static String key(RuntimeManifest.Entry entry) {
+        return entry.sha256.toLowerCase(Locale.US) + ":" + entry.size;
+    }
+
+    private static void makeParent(File file) throws IOException {
+        File parent = file.getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("Could not create " + parent.getAbsolutePath());
+        }
+    }
+
+    private static int u16(byte[] b, int at) {
+        return (b[at] & 0xff) | (b[at + 1] & 0xff) << 8;
+    }
+
+    private static long u32(byte[] b, int at) {
+        return (u16(b, at) | (long) u16(b, at + 2) << 16) & 0xffffffffL;
+    }
+
+    private static byte[] readFully(InputStream in, int length) throws IOException {
+        byte[] out = new byte[length];
+        int off = 0;
+        while (off < length) {
+            int read = in.read(out, off, length - off);
+            if (read == -1) {
+                throw new EOFException("Runtime archive range ended early");
+            }
+            off += read;
+        }
+        return out;
+    }
+
+    private static void skipFully(InputStream in, long count) throws IOException {
+        byte[] scratch = null;
+        while (count > 0) {
+            long skipped = in.skip(count);
+            if (skipped <= 0) {
+                if (scratch == null) {
+                    scratch = new byte[8192];
+                }
+                int read = in.read(scratch, 0, (int) Math.min(scratch.length, count));
+                if (read == -1) {
+                    throw new EOFException("Runtime archive range ended early");
+                }
+                skipped = read;
+            }
+            count -= skipped;
+        }
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[8192];
+        int read;
+        while ((read = in.read(buf)) != -1) {
+            out.write(buf, 0, read);
+        }
+        return out.toByteArray();
+    }
+
+    private static MessageDigest newDigest() throws IOException {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException("SHA-256 unavailable", e);
+        }
+    }
+
+    private static String toHex(byte[] digest) {
+        StringBuilder sb = new StringBuilder(digest.length * 2);
+        for (byte b : digest) {
+            sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return sb.toString();
+    }
+
+    // Exposes the next count bytes of the shared body and no more, leaving the rest for the next entry
+    private static class BoundedInputStream extends FilterInputStream {
+        long remaining;
+
+        BoundedInputStream(InputStream in, long count) {
+            super(in);
+            this.remaining = count;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int b = in.read();
+            if (b >= 0) {
+                remaining--;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int read = in.read(buffer, offset, (int) Math.min(length, remaining));
+            if (read > 0) {
+                remaining -= read;
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long count) throws IOException {
+            long skipped = in.skip(Math.min(count, remaining));
+            if (skipped > 0) {
+                remaining -= skipped;
+            }
+            return skipped;
+        }
+
+        @Override
+        public void close() {
+            // the body belongs to the whole range
+        }
+    }
+}
@@ -0,0 +1,228 @@
+package com.openscad.standalone;
+
+import android.content.res.AssetManager;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+class RuntimeExtractor {
+
+    static class Stats {
+        final boolean usedManifest;
+        final int copiedFiles;
+        final int unchangedFiles;
+        final int removedFiles;
+        final int deferredFiles;
+        final long copiedBytes;
+        final long durationMs;
+
+        Stats(boolean usedManifest, int copiedFiles, int unchangedFiles, int removedFiles, int deferredFiles,
+                long copiedBytes, long durationMs) {
+            this.usedManifest = usedManifest;
+            this.copiedFiles = copiedFiles;
+            this.unchangedFiles = unchangedFiles;
+            this.removedFiles = removedFiles;
+            this.deferredFiles = deferredFiles;
+            this.copiedBytes = copiedBytes;
+            this.durationMs = durationMs;
+        }
+    }
+
+    private static final int COPY_BUFFER_SIZE = 256 * 1024;
+    private static final int MAX_COPY_THREADS = 4;
+
+    private static final ThreadLocal<byte[]> COPY_BUFFER = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[COPY_BUFFER_SIZE];
+        }
+    };
+
+    private final AssetManager assets;
+    private final String assetRoot;
+    private final File runtimeRoot;
+    private final ConcurrentHashMap<String, Object> entryLocks = new ConcurrentHashMap<String, Object>();
+
+    RuntimeExtractor(AssetManager assets, String assetRoot, File runtimeRoot) {
+        this.assets = assets;
+        this.assetRoot = assetRoot;
+        this.runtimeRoot = runtimeRoot;
+    }
+
+    // bin/ and lib/ are all a render needs to start; share/ and etc/ can follow in the background.
+    static boolean isCoreEntry(String path) {
+        return path.startsWith("bin/") || path.startsWith("lib/");
+    }
+
+    static boolean isFontEntry(String path) {
+        return path.startsWith("etc/fonts/") || path.contains("/fonts/") || path.startsWith("fonts/");
+    }
+
+    static boolean isLibraryEntry(String path) {
+        return path.startsWith("share/openscad/libraries/");
+    }
+
+    // Entries that are missing, differ in size, or whose hash changed since the installed manifest.
+    List<RuntimeManifest.Entry> plan(RuntimeManifest bundled, RuntimeManifest installed) {
+        List<RuntimeManifest.Entry> toCopy = new ArrayList<RuntimeManifest.Entry>();
+        for (RuntimeManifest.Entry entry : bundled.entries()) {
+            File target = new File(runtimeRoot, entry.path);
+            boolean sameAsInstalled = installed != null && entry.sameContent(installed.get(entry.path));
+            if (!sameAsInstalled || !isPresent(entry, target)) {
+                toCopy.add(entry);
+            }
+        }
+        return toCopy;
+    }
+
+    // Removes files that the previous bundled manifest owned but the new one no longer lists.
+    int removeStale(RuntimeManifest bundled, RuntimeManifest installed) {
+        if (installed == null) {
+            return 0;
+        }
+        int removed = 0;
+        for (RuntimeManifest.Entry old : installed.entries()) {
+            if (bundled.get(old.path) != null) {
+                continue;
+            }
+            File stale = new File(runtimeRoot, old.path);
+            if (stale.isFile() && stale.delete()) {
+                removed++;
+            }
+        }
+        return removed;
+    }
+
+    // Deletes outdated copies up front. Because every copy is renamed into place, any file that is present
+    // afterwards with the manifest size is known to be current, which lets an interrupted install resume.
+    void discard(List<RuntimeManifest.Entry> entries) throws IOException {
+        for (RuntimeManifest.Entry entry : entries) {
+            File target = new File(runtimeRoot, entry.path);
+            if (target.exists() && !target.delete()) {
+                throw new IOException("Could not remove outdated " + entry.path);
+            }
+        }
+    }
+
+    List<RuntimeManifest.Entry> missing(List<RuntimeManifest.Entry> entries) {
+        List<RuntimeManifest.Entry> out = new ArrayList<RuntimeManifest.Entry>();
+        for (RuntimeManifest.Entry entry : entries) {
+            if (!isPresent(entry, new File(runtimeRoot, entry.path))) {
+                out.add(entry);
+            }
+        }
+        return out;
+    }
+
+    long copyAll(List<RuntimeManifest.Entry> entries) throws IOException {
+        if (entries.isEmpty()) {
+            return 0L;
+        }
+        final AtomicLong bytes = new AtomicLong();
+        int threads = Math.max(1, Math.min(MAX_COPY_THREADS, Runtime.getRuntime().availableProcessors()));
+        threads = Math.min(threads, entries.size());
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> futures = new ArrayList<Future<?>>();
+            for (final RuntimeManifest.Entry entry : entries) {
+                futures.add(pool.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            bytes.addAndGet(ensureEntry(entry));
+                        } catch (IOException e) {
+                            throw new RuntimeException(e);
+                        }
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Runtime extraction interrupted", e);
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof RuntimeException && cause.getCause() instanceof IOException) {
+                        throw (IOException) cause.getCause();
+                    }
+                    throw new IOException("Runtime extraction failed: " + cause, cause);
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        return bytes.get();
+    }
+
+    // Copies one entry unless it is already present. Safe to call from the background job and from
+    // on-demand callers at the same time; returns the number of bytes written.
+    long ensureEntry(RuntimeManifest.Entry entry) throws IOException {
+        Object lock = entryLocks.get(entry.path);
+        if (lock == null) {
+            Object fresh = new Object();
+            lock = entryLocks.putIfAbsent(entry.path, fresh);
+            if (lock == null) {
+                lock = fresh;
+            }
+        }
+        synchronized (lock) {
+            File target = new File(runtimeRoot, entry.path);
+            if (isPresent(entry, target)) {
+                return 0L;
+            }
+            return copyEntry(entry, target);
+        }
+    }
+
+    private static boolean isPresent(RuntimeManifest.Entry entry, File target) {
+        return target.isFile() && target.length() == entry.size && (!entry.executable || target.canExecute());
+    }
+
+    private long copyEntry(RuntimeManifest.Entry entry, File target) throws IOException {
+        File parent = target.getParentFile();
+        if (parent != null && !parent.exists() && !parent.mkdirs() && !parent.isDirectory()) {
+            throw new IOException("Could not create parent dir for " + target);
+        }
+
+        File tmp = new File(target.getPath() + ".extract");
+        long written = 0L;
+        byte[] buffer = COPY_BUFFER.get();
+        try (InputStream in = assets.open(assetRoot + "/" + entry.path);
+                FileOutputStream out = new FileOutputStream(tmp, false)) {
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+                written += read;
+            }
+        }
+        if (written != entry.size) {
+            tmp.delete();
+            throw new IOException("Size mismatch extracting " + entry.path + ": " + written + " != " + entry.size);
+        }
+        if (entry.executable && !tmp.setExecutable(true, true)) {
+            tmp.delete();
+            throw new IOException("Could not mark " + entry.path + " as executable");
+        }
+        if (target.exists() && !target.delete()) {
+            tmp.delete();
+            throw new IOException("Could not replace " + target);
+        }
+        if (!tmp.renameTo(target)) {
+            tmp.delete();
+            throw new IOException("Could not move " + entry.path + " into place");
+        }
+        return written;
+    }
+}
@@ -0,0 +1,169 @@
+package com.openscad.standalone;
+
+import android.content.res.AssetManager;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Parsed form of the runtime.manifest written by scripts/generate_runtime_manifest.py:
+// one "sha256<TAB>size<TAB>x|-<TAB>relative/path" line per file under runtime/.
+class RuntimeManifest {
+
+    static final String HEADER = "# openscad-runtime-manifest 1";
+
+    static class Entry {
+        final String path;
+        final long size;
+        final String sha256;
+        final boolean executable;
+
+        Entry(String path, long size, String sha256, boolean executable) {
+            this.path = path;
+            this.size = size;
+            this.sha256 = sha256;
+            this.executable = executable;
+        }
+
+        boolean sameContent(Entry other) {
+            return other != null && other.size == size && other.sha256.equals(sha256);
+        }
+    }
+
+    final String id;
+    private final byte[] raw;
+    private final Map<String, Entry> entries;
+
+    private RuntimeManifest(String id, byte[] raw, Map<String, Entry> entries) {
+        this.id = id;
+        this.raw = raw;
+        this.entries = entries;
+    }
+
+    static RuntimeManifest readAsset(AssetManager assets, String assetPath) throws IOException {
+        InputStream in;
+        try {
+            in = assets.open(assetPath);
+        } catch (FileNotFoundException e) {
+            return null;
+        }
+        try {
+            return parse(readAll(in));
+        } finally {
+            in.close();
+        }
+    }
+
+    static RuntimeManifest readFile(File file) {
+        if (!file.isFile()) {
+            return null;
+        }
+        try (InputStream in = new FileInputStream(file)) {
+            return parse(readAll(in));
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    static RuntimeManifest parse(byte[] raw) throws IOException {
+        String text = new String(raw, StandardCharsets.UTF_8);
+        String[] lines = text.split("\n");
+        if (lines.length == 0 || !HEADER.equals(lines[0].trim())) {
+            throw new IOException("Unsupported runtime manifest header");
+        }
+
+        Map<String, Entry> entries = new LinkedHashMap<String, Entry>();
+        for (int i = 1; i < lines.length; i++) {
+            String line = lines[i];
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            String[] parts = line.split("\t", 4);
+            if (parts.length != 4) {
+                throw new IOException("Malformed runtime manifest line " + (i + 1));
+            }
+            long size;
+            try {
+                size = Long.parseLong(parts[1]);
+            } catch (NumberFormatException e) {
+                throw new IOException("Malformed size in runtime manifest line " + (i + 1));
+            }
+            String path = parts[3];
+            if (path.startsWith("/") || path.contains("..")) {
+                throw new IOException("Unsafe path in runtime manifest: " + path);
+            }
+            entries.put(path, new Entry(path, size, parts[0], "x".equals(parts[2])));
+        }
+        return new RuntimeManifest(sha256Hex(raw), raw, entries);
+    }
+
+    List<Entry> entries() {
+        return Collections.unmodifiableList(new ArrayList<Entry>(entries.values()));
+    }
+
+    Entry get(String path) {
+        return entries.get(path);
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    long totalBytes() {
+        long total = 0L;
+        for (Entry entry : entries.values()) {
+            total += entry.size;
+        }
+        return total;
+    }
+
+    void writeTo(File file) throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(tmp, false)) {
+            out.write(raw);
+            out.getFD().sync();
+        }
+        if (file.exists() && !file.delete()) {
+            throw new IOException("Could not replace " + file);
+        }
+        if (!tmp.renameTo(file)) {
+            throw new IOException("Could not write " + file);
+        }
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[8192];
+        int read;
+        while ((read = in.read(buf)) != -1) {
+            out.write(buf, 0, read);
+        }
+        return out.toByteArray();
+    }
+
+    private static String sha256Hex(byte[] data) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(data);
+            StringBuilder sb = new StringBuilder();
+            for (byte b : digest) {
+                sb.append(String.format("%02x", b));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            return Integer.toHexString(Arrays.hashCode(data));
+        }
+    }
+}
@@ -76,20 +76,26 @@ class RuntimeUpdateManager {
     private static class ReleaseInfo {
         final String tag;
         final AssetInfo asset;
+        // Per-file manifest published next to an archive asset, or null
+        final AssetInfo manifest;
 
-        ReleaseInfo(String tag, AssetInfo asset) {
+        ReleaseInfo(String tag, AssetInfo asset, AssetInfo manifest) {
             this.tag = tag;
             this.asset = asset;
+            this.manifest = manifest;
         }
     }
 
     private static class AssetInfo {
         final String name;
         final String url;
+        // Hex SHA-256 from the release API's "digest" field; empty for releases that predate it
+        final String sha256;
 
-        AssetInfo(String name, String url) {
+        AssetInfo(String name, String url, String sha256) {
             this.name = name;
             this.url = url;
+            this.sha256 = sha256;
         }
     }
 
@@ -104,8 +110,10 @@ class RuntimeUpdateManager {
     private static final String KEY_LATEST_ASSET = "latest_asset";
     private static final String KEY_LAST_CHECKED = "last_checked";
 
-    private static final String META_FILE_NAME = ".downloaded_runtime_meta.json";
+    private static final String META_FILE_NAME = OpenScadRuntime.DOWNLOADED_RUNTIME_META;
     private static final String READY_MARKER_NAME = ".ready";
+    // The release manifest a downloaded version was built from, kept for diffing the next release against
+    private static final String RELEASE_MANIFEST_NAME = ".release_manifest";
 
     private static final int CONNECT_TIMEOUT_MS = 10000;
     private static final int READ_TIMEOUT_MS = 25000;
@@ -115,6 +123,10 @@ class RuntimeUpdateManager {
     private static final String BUNDLED_VERSION = "Bundled";
     private static final String BUNDLED_ASSET = "(bundled assets)";
     private static final String ZIP_EXTENSION = ".zip";
+    private static final String MANIFEST_EXTENSION = ".manifest";
+    // Past this share of the archive a piecewise update saves too little to be worth its extra requests
+    private static final double MAX_DELTA_FRACTION = 0.5;
+    private static final String[] RUNTIME_PARTS = new String[] {"bin", "lib", "share", "etc", "home"};
 
     private static final String ABI_ARM64 = "arm64-v8a";
     private static final String ABI_ARMV7 = "armeabi-v7a";
@@ -262,52 +274,72 @@ class RuntimeUpdateManager {
             throw new IOException("No downloadable runtime asset found for ABI " + abi);
         }
 
-        notifyProgress(listener, "Preparing runtime base...");
-        runtime.prepareRuntime();
-        runtime.markRuntimeUnprepared();
-
+        // Downloaded (and an archive unpacked) before the live runtime is touched; a failed transfer keeps
+        // its partial file and the next attempt continues from there
         File downloadFile = new File(appContext.getCacheDir(), "openscad_runtime_download.tmp");
-        if (downloadFile.exists() && !downloadFile.delete()) {
-            throw new IOException("Could not clear previous runtime download file");
+        ResumableDownload download = new ResumableDownload(release.asset.url, downloadFile,
+            release.asset.sha256, USER_AGENT);
+        RuntimeVersions versions = runtime.getRuntimeVersions();
+        File staging = versions.stagingDir();
+        boolean archive = release.asset.name.toLowerCase(Locale.US).endsWith(ZIP_EXTENSION);
+        RuntimeManifest releaseManifest = archive ? fetchReleaseManifest(release.manifest, listener) : null;
+        File payloadRoot = releaseManifest == null ? null
+            : fetchChangedFiles(release.asset, releaseManifest, versions, staging, listener);
+        if (payloadRoot == null) {
+            try {
+                notifyProgress(listener, "Downloading " + release.asset.name + "...");
+                if (archive) {
+                    payloadRoot = downloadAndUnpack(download, downloadFile, staging, listener, release.asset.name);
+                } else {
+                    download.run(listener, release.asset.name);
+                }
+            } catch (IOException e) {
+                deleteQuietly(staging);
+                throw e;
+            }
         }
 
-        File runtimeRoot = runtime.getRuntimeRoot();
+        // The new version is assembled beside the active one, which stays in use until the final switch;
+        // a failure before that only leaves a directory for the garbage collector
+        File versionDir = null;
         try {
-            notifyProgress(listener, "Downloading " + release.asset.name + "...");
-            downloadToFile(release.asset.url, downloadFile);
+            notifyProgress(listener, "Preparing runtime base...");
+            runtime.prepareRuntime();
+            runtime.finishDeferredExtraction();
 
-            if (release.asset.name.toLowerCase(Locale.US).endsWith(ZIP_EXTENSION)) {
+            String version = versions.newName(release.tag);
+            versionDir = versions.dir(version);
+            if (archive) {
                 notifyProgress(listener, "Installing runtime archive...");
-                installFromZip(downloadFile, runtimeRoot);
+                assembleVersion(payloadRoot, runtime.getRuntimeRoot(), versionDir);
             } else {
                 notifyProgress(listener, "Installing runtime binary...");
-                installBinary(downloadFile, runtimeRoot);
+                assembleVersion(null, runtime.getRuntimeRoot(), versionDir);
+                installBinary(downloadFile, versionDir);
             }
 
-            File openscad = new File(runtime.getRuntimeBinDir(), "openscad");
+            File openscad = new File(versionDir, "bin/openscad");
             if (!openscad.exists()) {
-                throw new IOException("Runtime install failed: openscad binary missing");
+                throw new IOException("openscad binary missing");
             }
             if (!openscad.setExecutable(true, true)) {
                 throw new IOException("Could not mark openscad as executable");
             }
+            if (releaseManifest != null) {
+                releaseManifest.writeTo(new File(versionDir, RELEASE_MANIFEST_NAME));
+            }
+            writeReadyMarker(versionDir);
+            writeMetaInfo(versionDir, new MetaInfo(release.tag, release.asset.name, System.currentTimeMillis()));
 
-            writeReadyMarker(runtimeRoot);
-            writeMetaInfo(new MetaInfo(release.tag, release.asset.name, System.currentTimeMillis()));
-        } catch (Exception installError) {
-            notifyProgress(listener, "Install failed, restoring bundled runtime...");
-            try {
-                runtime.resetRuntimeToBundled();
-            } catch (Exception restoreError) {
-                throw new IOException(
-                    "Runtime install failed and restore failed: " + installError.getMessage() +
-                        "; restore error: " + restoreError.getMessage(),
-                    installError
-                );
-            }
-            throw new IOException("Runtime install failed, restored bundled runtime: " + installError.getMessage(), installError);
+            runtime.activateRuntimeVersion(version);
+            versionDir = null;
+        } catch (IOException installError) {
+            throw new IOException("Runtime install failed, kept the current runtime: " + installError.getMessage(),
+                installError);
         } finally {
-            deleteQuietly(downloadFile);
+            download.discard();
+            deleteQuietly(staging);
+            deleteQuietly(versionDir);
         }
 
         notifyProgress(listener, "Runtime installed: " + release.tag);
@@ -343,7 +375,12 @@ class RuntimeUpdateManager {
             String tag = root.optString("tag_name", "");
             JSONArray assets = root.optJSONArray("assets");
             AssetInfo bestAsset = pickBestAsset(assets, abi);
-            return new ReleaseInfo(tag, bestAsset);
+            AssetInfo manifest = null;
+            if (bestAsset != null && bestAsset.name.toLowerCase(Locale.US).endsWith(ZIP_EXTENSION)) {
+                String base = bestAsset.name.substring(0, bestAsset.name.length() - ZIP_EXTENSION.length());
+                manifest = findAsset(assets, base + MANIFEST_EXTENSION);
+            }
+            return new ReleaseInfo(tag, bestAsset, manifest);
         } catch (JSONException e) {
             throw new IOException("Invalid GitHub API response", e);
         } finally {
@@ -368,18 +405,37 @@ class RuntimeUpdateManager {
             }
             String name = item.optString("name", "");
             String url = item.optString("browser_download_url", "");
+            String digest = item.optString("digest", "");
             int score = scoreAsset(name, abi);
             if (score <= bestScore || score <= 0 || TextUtils.isEmpty(url)) {
                 continue;
             }
 
             bestScore = score;
-            best = new AssetInfo(name, url);
+            best = new AssetInfo(name, url, digest.startsWith("sha256:") ? digest.substring(7) : "");
         }
 
         return best;
     }
 
+    private AssetInfo findAsset(JSONArray assets, String name) {
+        if (assets == null) {
+            return null;
+        }
+        for (int i = 0; i < assets.length(); i++) {
+            JSONObject item = assets.optJSONObject(i);
+            if (item == null || !name.equals(item.optString("name", ""))) {
+                continue;
+            }
+            String url = item.optString("browser_download_url", "");
+            String digest = item.optString("digest", "");
+            if (!TextUtils.isEmpty(url)) {
+                return new AssetInfo(name, url, digest.startsWith("sha256:") ? digest.substring(7) : "");
+            }
+        }
+        return null;
+    }
+
     private int scoreAsset(String name, String abi) {
         if (TextUtils.isEmpty(name)) {
             return Integer.MIN_VALUE;
@@ -389,6 +445,7 @@ class RuntimeUpdateManager {
         if (lower.endsWith(".apk") || lower.endsWith(".idsig")
             || lower.endsWith(".sha256") || lower.endsWith(".sha512")
             || lower.endsWith(".asc") || lower.endsWith(".txt")
+            || lower.endsWith(MANIFEST_EXTENSION)
             || lower.endsWith(".tar.gz") || lower.endsWith(".tgz")
             || lower.endsWith(".tar.xz") || lower.endsWith(".xz")
             || lower.endsWith(".appimage") || lower.endsWith(".deb")
@@ -498,31 +555,46 @@ class RuntimeUpdateManager {
         return "";
     }
 
-    private void downloadToFile(String url, File target) throws IOException {
+    private void installBinary(File sourceBinary, File runtimeRoot) throws IOException {
+        File binDir = new File(runtimeRoot, "bin");
+        if (!binDir.exists() && !binDir.mkdirs()) {
+            throw new IOException("Could not create runtime/bin");
+        }
+        File target = new File(binDir, "openscad");
+        // drop the link shared with the previous version before writing
+        if (target.exists() && !target.delete()) {
+            throw new IOException("Could not replace runtime/bin/openscad");
+        }
+        copyFile(sourceBinary, target);
+    }
+
+    // Null when the release has no manifest or it cannot be fetched; the update then takes the whole archive
+    private RuntimeManifest fetchReleaseManifest(AssetInfo asset, ProgressListener listener) {
+        if (asset == null) {
+            return null;
+        }
         HttpURLConnection conn = null;
         try {
-            conn = (HttpURLConnection) new URL(url).openConnection();
+            conn = (HttpURLConnection) new URL(asset.url).openConnection();
             conn.setRequestMethod("GET");
             conn.setInstanceFollowRedirects(true);
             conn.setConnectTimeout(CONNECT_TIMEOUT_MS);
             conn.setReadTimeout(READ_TIMEOUT_MS);
             conn.setRequestProperty("User-Agent", USER_AGENT);
-
             int code = conn.getResponseCode();
             if (code < 200 || code >= 300) {
-                String body = readAll(conn.getErrorStream());
-                throw new IOException("Download failed " + code + ": " + trimForError(body));
+                throw new IOException("HTTP " + code);
             }
-
-            try (InputStream in = new BufferedInputStream(conn.getInputStream());
-                    BufferedOutputStream out = new BufferedOutputStream(new FileOutputStream(target, false))) {
-                byte[] buffer = new byte[IO_BUFFER_SIZE];
-                int read;
-                while ((read = in.read(buffer)) != -1) {
-                    out.write(buffer, 0, read);
-                }
-                out.flush();
+            RuntimeManifest manifest = RuntimeManifest.parse(
+                readAll(conn.getInputStream()).getBytes(StandardCharsets.UTF_8));
+            // the manifest's id is the SHA-256 of its bytes
+            if (!TextUtils.isEmpty(asset.sha256) && !asset.sha256.equalsIgnoreCase(manifest.id)) {
+                throw new IOException("checksum mismatch");
             }
+            return manifest;
+        } catch (IOException e) {
+            notifyProgress(listener, "Runtime manifest unavailable (" + e.getMessage() + ")");
+            return null;
         } finally {
             if (conn != null) {
                 conn.disconnect();
@@ -530,46 +602,121 @@ class RuntimeUpdateManager {
         }
     }
 
-    private void installBinary(File sourceBinary, File runtimeRoot) throws IOException {
-        File binDir = new File(runtimeRoot, "bin");
-        if (!binDir.exists() && !binDir.mkdirs()) {
-            throw new IOException("Could not create runtime/bin");
+    // Builds the release in staging from the files the kept runtime versions already have plus the changed
+    // ones read out of the remote archive. Null when the archive cannot be read piecewise, when so much
+    // changed that the whole archive is the better deal, or when the partial fetch fails; the caller then
+    // downloads the archive.
+    private File fetchChangedFiles(AssetInfo asset, RuntimeManifest manifest, RuntimeVersions versions, File staging,
+            ProgressListener listener) {
+        try {
+            notifyProgress(listener, "Comparing runtime files...");
+            runtime.prepareRuntime();
+            runtime.finishDeferredExtraction();
+            RuntimeDelta delta = new RuntimeDelta(manifest, asset.url, USER_AGENT);
+            for (String name : new String[] {versions.current(), versions.previous(), RuntimeVersions.BUNDLED}) {
+                if (name != null) {
+                    File dir = versions.dir(name);
+                    delta.addLocalSource(dir, installedManifest(dir));
+                }
+            }
+            long bytes = delta.plan();
+            if (bytes < 0 || (delta.archiveBytes() > 0 && bytes > delta.archiveBytes() * MAX_DELTA_FRACTION)) {
+                return null;
+            }
+            notifyProgress(listener, String.format(Locale.US, "Fetching %d changed runtime files (%s), reusing %d...",
+                delta.fetchCount(), ResumableDownload.formatMb(bytes), delta.reusedCount()));
+            deleteRecursively(staging);
+            if (!staging.mkdirs()) {
+                throw new IOException("Could not create " + staging.getAbsolutePath());
+            }
+            delta.install(staging, listener);
+            return staging;
+        } catch (IOException e) {
+            notifyProgress(listener, "Partial update failed (" + e.getMessage() + "), downloading the whole archive...");
+            deleteQuietly(staging);
+            return null;
         }
-        File target = new File(binDir, "openscad");
-        copyFile(sourceBinary, target);
     }
 
-    private void installFromZip(File zipFile, File runtimeRoot) throws IOException {
-        File unpackRoot = new File(appContext.getCacheDir(), "openscad_runtime_unpack");
-        if (unpackRoot.exists()) {
-            deleteRecursively(unpackRoot);
-        }
-        if (!unpackRoot.mkdirs()) {
-            throw new IOException("Could not create unzip directory");
+    // The manifest a runtime version was built from: the release's for a downloaded version, the bundled
+    // assets' for the bundled one
+    private static RuntimeManifest installedManifest(File versionDir) {
+        RuntimeManifest manifest = RuntimeManifest.readFile(new File(versionDir, RELEASE_MANIFEST_NAME));
+        if (manifest == null) {
+            manifest = RuntimeManifest.readFile(new File(versionDir, OpenScadRuntime.INSTALLED_MANIFEST_NAME));
         }
+        return manifest;
+    }
 
+    // Unpacks the archive into staging while it downloads, reading the completed prefix of the file as it
+    // grows, so the payload is written once and is ready when the last byte arrives. If streaming fails
+    // (the download started over, say) the finished file is unpacked again. Returns the runtime root
+    // inside staging.
+    private File downloadAndUnpack(ResumableDownload download, File downloadFile, final File staging,
+            ProgressListener listener, String label) throws IOException {
+        deleteRecursively(staging);
+        if (!staging.mkdirs()) {
+            throw new IOException("Could not create " + staging.getAbsolutePath());
+        }
+        final InputStream growing = download.openCompletedPrefix();
+        final IOException[] unpackError = new IOException[1];
+        Thread unpacker = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    unzip(growing, staging);
+                } catch (IOException e) {
+                    unpackError[0] = e;
+                } finally {
+                    try {
+                        growing.close();
+                    } catch (IOException ignored) {
+                    }
+                }
+            }
+        }, "runtime-unpacker");
+        unpacker.start();
         try {
-            unzip(zipFile, unpackRoot);
+            download.run(listener, label);
+        } finally {
+            try {
+                unpacker.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while unpacking runtime", e);
+            }
+        }
 
-            File payloadRoot = findRuntimePayload(unpackRoot);
-            if (payloadRoot == null) {
-                throw new IOException("Archive does not contain runtime/bin/openscad or bin/openscad");
+        if (unpackError[0] != null) {
+            notifyProgress(listener, "Unpacking " + label + " again...");
+            deleteRecursively(staging);
+            if (!staging.mkdirs()) {
+                throw new IOException("Could not create " + staging.getAbsolutePath());
             }
+            try (InputStream in = new FileInputStream(downloadFile)) {
+                unzip(in, staging);
+            }
+        }
+        File payloadRoot = findRuntimePayload(staging);
+        if (payloadRoot == null) {
+            throw new IOException("Archive does not contain runtime/bin/openscad or bin/openscad");
+        }
+        return payloadRoot;
+    }
 
-            String[] parts = new String[] {"bin", "lib", "share", "etc", "home"};
-            for (String part : parts) {
-                File source = new File(payloadRoot, part);
-                if (!source.exists()) {
-                    continue;
-                }
-                File target = new File(runtimeRoot, part);
-                if (target.exists()) {
-                    deleteRecursively(target);
-                }
-                copyRecursively(source, target);
+    // Moves an unpacked payload (or, with none, an empty directory) to versionDir and fills in the parts it
+    // does not ship by linking them from the active runtime, as the old in-place install kept them
+    private void assembleVersion(File payloadRoot, File runtimeRoot, File versionDir) throws IOException {
+        deleteRecursively(versionDir);
+        if (payloadRoot == null ? !versionDir.mkdirs() : !payloadRoot.renameTo(versionDir)) {
+            throw new IOException("Could not create " + versionDir.getAbsolutePath());
+        }
+        for (String part : RUNTIME_PARTS) {
+            File live = new File(runtimeRoot, part);
+            File staged = new File(versionDir, part);
+            if (live.exists() && !staged.exists()) {
+                RuntimeVersions.linkTree(live, staged);
             }
-        } finally {
-            deleteQuietly(unpackRoot);
         }
     }
 
@@ -601,11 +748,11 @@ class RuntimeUpdateManager {
         return null;
     }
 
-    private void unzip(File zipFile, File outDir) throws IOException {
+    private static void unzip(InputStream archive, File outDir) throws IOException {
         String rootPath = outDir.getCanonicalPath() + File.separator;
         String outDirPath = outDir.getCanonicalPath();
         byte[] buffer = new byte[IO_BUFFER_SIZE];
-        try (ZipInputStream zin = new ZipInputStream(new BufferedInputStream(new FileInputStream(zipFile)))) {
+        try (ZipInputStream zin = new ZipInputStream(new BufferedInputStream(archive, 65536))) {
             ZipEntry entry;
             while ((entry = zin.getNextEntry()) != null) {
                 String name = entry.getName();
@@ -679,8 +826,8 @@ class RuntimeUpdateManager {
         }
     }
 
-    private void writeMetaInfo(MetaInfo meta) throws IOException {
-        File metaFile = new File(runtime.getRuntimeRoot(), META_FILE_NAME);
+    private void writeMetaInfo(File runtimeRoot, MetaInfo meta) throws IOException {
+        File metaFile = new File(runtimeRoot, META_FILE_NAME);
         JSONObject json = new JSONObject();
         try {
             json.put("repo", REPOSITORY);
@@ -707,27 +854,6 @@ class RuntimeUpdateManager {
         }
     }
 
-    private static void copyRecursively(File source, File target) throws IOException {
-        if (source.isDirectory()) {
-            if (!target.exists() && !target.mkdirs()) {
-                throw new IOException("Could not create " + target.getAbsolutePath());
-            }
-            File[] children = source.listFiles();
-            if (children != null) {
-                for (File child : children) {
-                    copyRecursively(child, new File(target, child.getName()));
-                }
-            }
-            return;
-        }
-
-        File parent = target.getParentFile();
-        if (parent != null && !parent.exists() && !parent.mkdirs()) {
-            throw new IOException("Could not create " + parent.getAbsolutePath());
-        }
-        copyFile(source, target);
-    }
-
     private static void copyFile(File source, File target) throws IOException {
         try (InputStream in = new BufferedInputStream(new FileInputStream(source));
                 FileOutputStream out = new FileOutputStream(target, false)) {
@@ -0,0 +1,241 @@
+package com.openscad.standalone;
+
+import android.system.ErrnoException;
+import android.system.Os;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Locale;
+
+// Runtime versions live side by side under runtimes/, and the runtime directory everything else uses is a
+// symlink to the active one. Switching versions renames a new link over the old one, which is atomic, so
+// a crash leaves either the old or the new runtime in place and never a mix. The version active before
+// the last switch stays on disk (runtime.previous points at it) for an instant rollback, as does the
+// bundled one; anything else is deleted in the background.
+class RuntimeVersions {
+
+    static final String BUNDLED = "bundled";
+
+    private static final String VERSIONS_DIR_NAME = "runtimes";
+    private static final String PREVIOUS_LINK_SUFFIX = ".previous";
+    private static final String NEXT_LINK_SUFFIX = ".next";
+    // Where the updater assembles a version before it gets its name; never collected
+    private static final String STAGING_NAME = ".staging";
+    private static final String MIGRATED_NAME = "migrated";
+
+    private final File link;
+    private final File previousLink;
+    private final File versionsDir;
+
+    RuntimeVersions(File link) {
+        this.link = link;
+        this.previousLink = new File(link.getPath() + PREVIOUS_LINK_SUFFIX);
+        this.versionsDir = new File(link.getParentFile(), VERSIONS_DIR_NAME);
+    }
+
+    File dir(String name) {
+        return new File(versionsDir, name);
+    }
+
+    File stagingDir() {
+        return dir(STAGING_NAME);
+    }
+
+    // Makes sure the runtime path is a link into runtimes/. A runtime left as a plain directory by an older
+    // build is adopted as a version of its own (as the bundled one unless it was downloaded), and a missing
+    // link points at the bundled version.
+    synchronized void ensureLinked() throws IOException {
+        if (readName(link) != null) {
+            return;
+        }
+        if (!versionsDir.isDirectory() && !versionsDir.mkdirs()) {
+            throw new IOException("Could not create " + versionsDir.getAbsolutePath());
+        }
+        String name = BUNDLED;
+        if (link.isDirectory()) {
+            if (new File(link, OpenScadRuntime.DOWNLOADED_RUNTIME_META).exists()) {
+                name = MIGRATED_NAME;
+            }
+            File adopted = dir(name);
+            deleteRecursively(adopted);
+            if (!link.renameTo(adopted)) {
+                throw new IOException("Could not move " + link + " into " + versionsDir);
+            }
+        } else {
+            if (link.exists() && !link.delete()) {
+                throw new IOException("Could not replace " + link);
+            }
+            File bundled = dir(name);
+            if (!bundled.isDirectory() && !bundled.mkdirs()) {
+                throw new IOException("Could not create " + bundled.getAbsolutePath());
+            }
+        }
+        pointAt(link, name);
+    }
+
+    // Name of the active version, or null before ensureLinked()
+    synchronized String current() {
+        return readName(link);
+    }
+
+    synchronized String previous() {
+        String name = readName(previousLink);
+        return name != null && dir(name).isDirectory() ? name : null;
+    }
+
+    // Picks an unused version name for a release tag
+    synchronized String newName(String tag) {
+        String base = tag == null ? "" : tag.replaceAll("[^A-Za-z0-9._-]", "_").replaceAll("^[._]+", "");
+        if (base.isEmpty() || base.equals(BUNDLED) || base.equals(MIGRATED_NAME)) {
+            base = "v" + base;
+        }
+        String name = base;
+        for (int i = 2; dir(name).exists() || name.equals(readName(link)) || name.equals(readName(previousLink)); i++) {
+            name = String.format(Locale.US, "%s-%d", base, i);
+        }
+        return name;
+    }
+
+    // Makes name the active version; the one it replaces becomes the rollback target
+    synchronized void activate(String name) throws IOException {
+        ensureLinked();
+        File target = dir(name);
+        if (!target.isDirectory() && !target.mkdirs()) {
+            throw new IOException("Could not create " + target.getAbsolutePath());
+        }
+        String old = readName(link);
+        if (name.equals(old)) {
+            return;
+        }
+        pointAt(link, name);
+        if (old != null) {
+            pointAt(previousLink, old);
+        }
+    }
+
+    // Deletes every version other than the active, previous and bundled ones, on a background thread
+    void collectGarbage() {
+        final File[] versions = versionsDir.listFiles();
+        if (versions == null) {
+            return;
+        }
+        final String current = current();
+        final String previous = previous();
+        Thread collector = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                android.os.Process.setThreadPriority(android.os.Process.THREAD_PRIORITY_BACKGROUND);
+                for (File version : versions) {
+                    String name = version.getName();
+                    if (name.equals(current) || name.equals(previous) || name.equals(BUNDLED)
+                            || name.equals(STAGING_NAME)) {
+                        continue;
+                    }
+                    try {
+                        deleteRecursively(version);
+                    } catch (IOException ignored) {
+                        // retried after the next switch
+                    }
+                }
+            }
+        }, "runtime-gc");
+        collector.setDaemon(true);
+        collector.start();
+    }
+
+    // Fills target with hard links to the files under source (copies where links are not supported), so an
+    // unchanged part of the runtime is shared between versions instead of written again. Files are only ever
+    // replaced by rename, never rewritten in place, so sharing them is safe.
+    static void linkTree(File source, File target) throws IOException {
+        String symlink = readLink(source);
+        if (symlink == null && source.isDirectory()) {
+            if (!target.isDirectory() && !target.mkdirs()) {
+                throw new IOException("Could not create " + target.getAbsolutePath());
+            }
+            File[] children = source.listFiles();
+            if (children != null) {
+                for (File child : children) {
+                    linkTree(child, new File(target, child.getName()));
+                }
+            }
+            return;
+        }
+        try {
+            if (symlink != null) {
+                Os.symlink(symlink, target.getAbsolutePath());
+                return;
+            }
+            Os.link(source.getAbsolutePath(), target.getAbsolutePath());
+        } catch (ErrnoException e) {
+            copy(source, target);
+            if (source.canExecute()) {
+                target.setExecutable(true, true);
+            }
+        }
+    }
+
+    // Points linkFile at runtimes/name by renaming a fresh link over it
+    private void pointAt(File linkFile, String name) throws IOException {
+        File next = new File(linkFile.getPath() + NEXT_LINK_SUFFIX);
+        next.delete();
+        try {
+            Os.symlink(VERSIONS_DIR_NAME + File.separator + name, next.getAbsolutePath());
+            Os.rename(next.getAbsolutePath(), linkFile.getAbsolutePath());
+        } catch (ErrnoException e) {
+            next.delete();
+            throw new IOException("Could not switch " + linkFile.getName() + " to " + name + ": " + e.getMessage(), e);
+        }
+    }
+
+    // Last path element of the link target, or null when file is not a link into runtimes/
+    private String readName(File file) {
+        String target = readLink(file);
+        if (target == null) {
+            return null;
+        }
+        File resolved = new File(target);
+        File parent = resolved.getParentFile();
+        if (parent == null || !VERSIONS_DIR_NAME.equals(parent.getName())) {
+            return null;
+        }
+        return resolved.getName();
+    }
+
+    private static String readLink(File file) {
+        try {
+            return Os.readlink(file.getAbsolutePath());
+        } catch (ErrnoException e) {
+            return null;
+        }
+    }
+
+    private static void copy(File source, File target) throws IOException {
+        try (InputStream in = new FileInputStream(source);
+                OutputStream out = new FileOutputStream(target)) {
+            byte[] buffer = new byte[65536];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+        }
+    }
+
+    // Removes links themselves rather than what they point at
+    private static void deleteRecursively(File file) throws IOException {
+        if (readLink(file) == null && file.isDirectory()) {
+            File[] children = file.listFiles();
+            if (children != null) {
+                for (File child : children) {
+                    deleteRecursively(child);
+                }
+            }
+        }
+        if (!file.delete() && file.exists()) {
+            throw new IOException("Failed deleting " + file);
+        }
+    }
+}
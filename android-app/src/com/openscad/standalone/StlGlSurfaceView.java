@@ -24,6 +24,11 @@ class StlGlSurfaceView extends View {
     private static final float MIN_ZOOM = 0.25f;
     private static final float MAX_ZOOM = 6.0f;
     private static final int VIEW_BACKGROUND_COLOR = 0xFF11111B;
+    // Base colours by triangle tag (MeshDiff.UNCHANGED, ADDED, REMOVED) when a model is shown as a diff
+    private static final int[] TAG_COLORS = { 0xFF7F849C, 0xFFA6E3A1, 0xFFF38BA8 };
+    private static final int MODEL_COLOR = 0xFF89B4FA;
+    private static final int WIRE_COLOR = 0xFFBFDDFC;
+    private static final int SLICE_COLOR = 0xFFF9E2AF;
 
     private final ScaleGestureDetector scaleDetector;
     private final Paint shadedPaint;
@@ -31,10 +36,14 @@ class StlGlSurfaceView extends View {
     private final Paint axisXPaint;
     private final Paint axisYPaint;
     private final Paint axisZPaint;
+    private final Paint slicePaint;
 
     private final Path triPath = new Path();
+    private final Path slicePath = new Path();
 
     private StlModel model;
+    private byte[] triangleTags;
+    private MeshSlicer.Layer sliceLayer;
     private boolean wireframeMode;
     private boolean axisLinesVisible = true;
 
@@ -62,22 +71,24 @@ class StlGlSurfaceView extends View {
     StlGlSurfaceView(Context context) {
         super(context);
         scaleDetector = createScaleDetector(context);
-        shadedPaint = makePaint(true, 0xFF89B4FA, 1.0f);
-        wirePaint = makePaint(false, 0xFFBFDDFC, 2.0f);
+        shadedPaint = makePaint(true, MODEL_COLOR, 1.0f);
+        wirePaint = makePaint(false, WIRE_COLOR, 2.0f);
         axisXPaint = makePaint(false, 0xFFF45A5A, 3.0f);
         axisYPaint = makePaint(false, 0xFF62ED7A, 3.0f);
         axisZPaint = makePaint(false, 0xFF5D94FA, 3.0f);
+        slicePaint = makePaint(false, SLICE_COLOR, 3.0f);
         init();
     }
 
     StlGlSurfaceView(Context context, AttributeSet attrs) {
         super(context, attrs);
         scaleDetector = createScaleDetector(context);
-        shadedPaint = makePaint(true, 0xFF89B4FA, 1.0f);
-        wirePaint = makePaint(false, 0xFFBFDDFC, 2.0f);
+        shadedPaint = makePaint(true, MODEL_COLOR, 1.0f);
+        wirePaint = makePaint(false, WIRE_COLOR, 2.0f);
         axisXPaint = makePaint(false, 0xFFF45A5A, 3.0f);
         axisYPaint = makePaint(false, 0xFF62ED7A, 3.0f);
         axisZPaint = makePaint(false, 0xFF5D94FA, 3.0f);
+        slicePaint = makePaint(false, SLICE_COLOR, 3.0f);
         init();
     }
 
@@ -113,11 +124,24 @@ class StlGlSurfaceView extends View {
     }
 
     void setModel(StlModel model) {
+        setModel(model, null);
+    }
+
+    // tags holds one entry per triangle and switches shading to the diff colours
+    void setModel(StlModel model, byte[] tags) {
         this.model = model;
+        this.triangleTags = tags;
+        this.sliceLayer = null;
         resetCamera();
         invalidate();
     }
 
+    // Contours of one slicer layer drawn over the model; null clears them
+    void setSliceLayer(MeshSlicer.Layer layer) {
+        sliceLayer = layer;
+        invalidate();
+    }
+
     void resetCamera() {
         yawDeg = 45f;
         pitchDeg = 25f;
@@ -201,6 +225,9 @@ class StlGlSurfaceView extends View {
         }
 
         renderModel(canvas, w, h);
+        if (sliceLayer != null) {
+            drawSlice(canvas, w, h);
+        }
     }
 
     private void drawAxes(Canvas canvas, int w, int h) {
@@ -261,6 +288,48 @@ class StlGlSurfaceView extends View {
         return cy - y1 * focal / depth;
     }
 
+    private void drawSlice(Canvas canvas, int w, int h) {
+        float yaw = (float) Math.toRadians(yawDeg);
+        float pitch = (float) Math.toRadians(pitchDeg);
+        float cosY = (float) Math.cos(yaw);
+        float sinY = (float) Math.sin(yaw);
+        float cosP = (float) Math.cos(pitch);
+        float sinP = (float) Math.sin(pitch);
+        float cx = w * 0.5f;
+        float cy = h * 0.5f;
+        float focal = Math.min(w, h) * 0.65f;
+        float camDist = 4.5f / zoom;
+        float invRadius = 1.0f / Math.max(model.radius, 0.001f);
+
+        MeshSlicer.Layer layer = sliceLayer;
+        float[] p = layer.points;
+        float z = (layer.z - model.centerZ) * invRadius;
+        slicePath.reset();
+        for (int l = 0; l < layer.loopCount(); l++) {
+            boolean penDown = false;
+            for (int i = layer.loopStarts[l]; i < layer.loopStarts[l + 1]; i++) {
+                float x = (p[i * 2] - model.centerX) * invRadius;
+                float y = (p[i * 2 + 1] - model.centerY) * invRadius;
+                float px = projectAxisX(x, y, z, cosY, sinY, cosP, sinP, cx, focal, camDist);
+                float py = projectAxisY(x, y, z, cosY, sinY, cosP, sinP, cy, focal, camDist);
+                if (Float.isNaN(px) || Float.isNaN(py)) {
+                    penDown = false;
+                    continue;
+                }
+                if (penDown) {
+                    slicePath.lineTo(px, py);
+                } else {
+                    slicePath.moveTo(px, py);
+                    penDown = true;
+                }
+            }
+            if (penDown && layer.loopClosed[l]) {
+                slicePath.close();
+            }
+        }
+        canvas.drawPath(slicePath, slicePaint);
+    }
+
     private void renderModel(Canvas canvas, int w, int h) {
         int vertexCount = model.vertexCount;
         int triCount = vertexCount / 3;
@@ -318,14 +387,31 @@ class StlGlSurfaceView extends View {
     }
 
     private void drawWireframe(Canvas canvas, int vertexCount) {
+        int[] edges = model.edges;
+        if (edges != null) {
+            // shared edges are drawn once instead of once per adjacent triangle
+            for (int e = 0; e + 1 < edges.length; e += 2) {
+                int a = edges[e];
+                int b = edges[e + 1];
+                if (visible[a] && visible[b]) {
+                    canvas.drawLine(sx[a], sy[a], sx[b], sy[b], wirePaint);
+                }
+            }
+            return;
+        }
+        byte[] tags = triangleTags;
         for (int i = 0; i + 2 < vertexCount; i += 3) {
             if (!visible[i] || !visible[i + 1] || !visible[i + 2]) {
                 continue;
             }
+            if (tags != null) {
+                wirePaint.setColor(TAG_COLORS[tags[i / 3]]);
+            }
             canvas.drawLine(sx[i], sy[i], sx[i + 1], sy[i + 1], wirePaint);
             canvas.drawLine(sx[i + 1], sy[i + 1], sx[i + 2], sy[i + 2], wirePaint);
             canvas.drawLine(sx[i + 2], sy[i + 2], sx[i], sy[i], wirePaint);
         }
+        wirePaint.setColor(WIRE_COLOR);
     }
 
     private void drawShaded(Canvas canvas, int vertexCount) {
@@ -377,9 +463,10 @@ class StlGlSurfaceView extends View {
             float lit = Math.abs(nx * lx + ny * ly + nz * lz);
             float light = 0.45f + 0.55f * lit;
 
-            int r = clamp((int) (0x89 * light));
-            int g = clamp((int) (0xB4 * light));
-            int b = clamp((int) (0xFA * light));
+            int base = triangleTags == null ? MODEL_COLOR : TAG_COLORS[triangleTags[i / 3]];
+            int r = clamp((int) (Color.red(base) * light));
+            int g = clamp((int) (Color.green(base) * light));
+            int b = clamp((int) (Color.blue(base) * light));
             shadedPaint.setColor(Color.rgb(r, g, b));
 
             triPath.reset();
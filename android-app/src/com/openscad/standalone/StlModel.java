@@ -10,7 +10,15 @@ class StlModel {
     final float centerZ;
     final float radius;
 
+    // Optional pairs of indices into vertices, one per distinct mesh edge; null draws every triangle outline
+    final int[] edges;
+
     StlModel(float[] vertices, float[] normals, float centerX, float centerY, float centerZ, float radius) {
+        this(vertices, normals, centerX, centerY, centerZ, radius, null);
+    }
+
+    StlModel(float[] vertices, float[] normals, float centerX, float centerY, float centerZ, float radius,
+            int[] edges) {
         this.vertices = vertices;
         this.normals = normals;
         this.vertexCount = vertices.length / 3;
@@ -18,5 +26,10 @@ class StlModel {
         this.centerY = centerY;
         this.centerZ = centerZ;
         this.radius = radius;
+        this.edges = edges;
+    }
+
+    StlModel withEdges(int[] edges) {
+        return new StlModel(vertices, normals, centerX, centerY, centerZ, radius, edges);
     }
 }
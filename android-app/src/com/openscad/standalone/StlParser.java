@@ -2,13 +2,22 @@ package com.openscad.standalone;
 
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 
 class StlParser {
 
+    private static final int STREAM_BUFFER_SIZE = 64 * 1024;
+    private static final int MIN_STREAM_TRIANGLES = 16 * 1024;
+    // The header's count is only a hint from an unchecked stream; beyond this the arrays grow as data arrives
+    private static final int MAX_HINTED_TRIANGLES = 256 * 1024;
+
     static StlModel parse(File file) throws IOException {
         byte[] data = readAll(file);
         if (looksBinary(data)) {
@@ -37,81 +46,185 @@ class StlParser {
 
         float[] vertices = new float[triCount * 9];
         float[] normals = new float[triCount * 9];
-
-        float minX = Float.POSITIVE_INFINITY;
-        float minY = Float.POSITIVE_INFINITY;
-        float minZ = Float.POSITIVE_INFINITY;
-        float maxX = Float.NEGATIVE_INFINITY;
-        float maxY = Float.NEGATIVE_INFINITY;
-        float maxZ = Float.NEGATIVE_INFINITY;
+        float[] bounds = newBounds();
 
         int vIndex = 0;
         for (int i = 0; i < triCount; i++) {
-            float nx = bb.getFloat();
-            float ny = bb.getFloat();
-            float nz = bb.getFloat();
-
-            float x1 = bb.getFloat();
-            float y1 = bb.getFloat();
-            float z1 = bb.getFloat();
-            float x2 = bb.getFloat();
-            float y2 = bb.getFloat();
-            float z2 = bb.getFloat();
-            float x3 = bb.getFloat();
-            float y3 = bb.getFloat();
-            float z3 = bb.getFloat();
-
-            bb.getShort();
-
-            vertices[vIndex] = x1;
-            vertices[vIndex + 1] = y1;
-            vertices[vIndex + 2] = z1;
-            vertices[vIndex + 3] = x2;
-            vertices[vIndex + 4] = y2;
-            vertices[vIndex + 5] = z2;
-            vertices[vIndex + 6] = x3;
-            vertices[vIndex + 7] = y3;
-            vertices[vIndex + 8] = z3;
-
-            if (isZeroVector(nx, ny, nz)) {
-                float ux = x2 - x1;
-                float uy = y2 - y1;
-                float uz = z2 - z1;
-                float vx = x3 - x1;
-                float vy = y3 - y1;
-                float vz = z3 - z1;
-                nx = uy * vz - uz * vy;
-                ny = uz * vx - ux * vz;
-                nz = ux * vy - uy * vx;
-                float len = (float) Math.sqrt(nx * nx + ny * ny + nz * nz);
-                if (len > 1e-8f) {
-                    nx /= len;
-                    ny /= len;
-                    nz /= len;
-                } else {
-                    nx = 0f;
-                    ny = 0f;
-                    nz = 1f;
+            readTriangle(bb, vertices, normals, vIndex, bounds);
+            vIndex += 9;
+        }
+
+        return buildModel(vertices, normals, bounds[0], bounds[1], bounds[2], bounds[3], bounds[4], bounds[5]);
+    }
+
+    // Parses binary STL as it arrives (e.g. from "openscad -o - --export-format=binstl") and optionally tees
+    // the bytes to a file in the same pass. OpenSCAD cannot seek back on a pipe to fill in the triangle
+    // count, so the header count is only a sizing hint; records are read until EOF and the tee file's
+    // header is patched with the real count.
+    static StlModel parseBinaryStream(InputStream in, File tee) throws IOException {
+        ByteBuffer bb = ByteBuffer.allocate(STREAM_BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        byte[] array = bb.array();
+        FileOutputStream teeOut = tee == null ? null : new FileOutputStream(tee, false);
+        FileChannel teeChannel = teeOut == null ? null : teeOut.getChannel();
+        try {
+            int filled = 0;
+            while (filled < 84) {
+                int read = in.read(array, filled, array.length - filled);
+                if (read < 0) {
+                    break;
                 }
+                filled += read;
+            }
+            if (filled == 0) {
+                throw new IOException("OpenSCAD produced no STL output");
+            }
+            if (filled < 84) {
+                throw new IOException("STL too small");
+            }
+            if (teeChannel != null) {
+                writeFully(teeChannel, ByteBuffer.wrap(array, 0, filled));
             }
 
-            for (int n = 0; n < 3; n++) {
-                normals[vIndex + n * 3] = nx;
-                normals[vIndex + n * 3 + 1] = ny;
-                normals[vIndex + n * 3 + 2] = nz;
+            bb.limit(filled);
+            bb.position(80);
+            long hinted = bb.getInt() & 0xffffffffL;
+            int capacity = (int) Math.max(MIN_STREAM_TRIANGLES, Math.min(hinted, MAX_HINTED_TRIANGLES));
+            float[] vertices = new float[capacity * 9];
+            float[] normals = new float[capacity * 9];
+            float[] bounds = newBounds();
+            int triCount = 0;
+
+            while (true) {
+                while (bb.remaining() >= 50) {
+                    if (triCount == capacity) {
+                        capacity = grow(capacity);
+                        vertices = Arrays.copyOf(vertices, capacity * 9);
+                        normals = Arrays.copyOf(normals, capacity * 9);
+                    }
+                    readTriangle(bb, vertices, normals, triCount * 9, bounds);
+                    triCount++;
+                }
+                bb.compact();
+                int read = in.read(array, bb.position(), bb.remaining());
+                if (read < 0) {
+                    bb.flip();
+                    break;
+                }
+                if (teeChannel != null) {
+                    writeFully(teeChannel, ByteBuffer.wrap(array, bb.position(), read));
+                }
+                bb.position(bb.position() + read);
+                bb.flip();
             }
 
-            minX = min(minX, x1, x2, x3);
-            minY = min(minY, y1, y2, y3);
-            minZ = min(minZ, z1, z2, z3);
-            maxX = max(maxX, x1, x2, x3);
-            maxY = max(maxY, y1, y2, y3);
-            maxZ = max(maxZ, z1, z2, z3);
+            if (bb.remaining() != 0) {
+                throw new IOException("Binary STL stream truncated");
+            }
+            if (triCount == 0) {
+                throw new IOException("Empty STL mesh");
+            }
+            if (teeChannel != null && hinted != triCount) {
+                ByteBuffer count = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+                count.putInt(0, triCount);
+                teeChannel.write(count, 80);
+            }
 
-            vIndex += 9;
+            if (triCount != capacity) {
+                vertices = Arrays.copyOf(vertices, triCount * 9);
+                normals = Arrays.copyOf(normals, triCount * 9);
+            }
+            return buildModel(vertices, normals, bounds[0], bounds[1], bounds[2], bounds[3], bounds[4], bounds[5]);
+        } finally {
+            if (teeOut != null) {
+                teeOut.close();
+            }
         }
+    }
 
-        return buildModel(vertices, normals, minX, minY, minZ, maxX, maxY, maxZ);
+    private static void readTriangle(ByteBuffer bb, float[] vertices, float[] normals, int vIndex,
+            float[] bounds) {
+        float nx = bb.getFloat();
+        float ny = bb.getFloat();
+        float nz = bb.getFloat();
+
+        float x1 = bb.getFloat();
+        float y1 = bb.getFloat();
+        float z1 = bb.getFloat();
+        float x2 = bb.getFloat();
+        float y2 = bb.getFloat();
+        float z2 = bb.getFloat();
+        float x3 = bb.getFloat();
+        float y3 = bb.getFloat();
+        float z3 = bb.getFloat();
+
+        bb.getShort();
+
+        vertices[vIndex] = x1;
+        vertices[vIndex + 1] = y1;
+        vertices[vIndex + 2] = z1;
+        vertices[vIndex + 3] = x2;
+        vertices[vIndex + 4] = y2;
+        vertices[vIndex + 5] = z2;
+        vertices[vIndex + 6] = x3;
+        vertices[vIndex + 7] = y3;
+        vertices[vIndex + 8] = z3;
+
+        if (isZeroVector(nx, ny, nz)) {
+            float ux = x2 - x1;
+            float uy = y2 - y1;
+            float uz = z2 - z1;
+            float vx = x3 - x1;
+            float vy = y3 - y1;
+            float vz = z3 - z1;
+            nx = uy * vz - uz * vy;
+            ny = uz * vx - ux * vz;
+            nz = ux * vy - uy * vx;
+            float len = (float) Math.sqrt(nx * nx + ny * ny + nz * nz);
+            if (len > 1e-8f) {
+                nx /= len;
+                ny /= len;
+                nz /= len;
+            } else {
+                nx = 0f;
+                ny = 0f;
+                nz = 1f;
+            }
+        }
+
+        for (int n = 0; n < 3; n++) {
+            normals[vIndex + n * 3] = nx;
+            normals[vIndex + n * 3 + 1] = ny;
+            normals[vIndex + n * 3 + 2] = nz;
+        }
+
+        bounds[0] = min(bounds[0], x1, x2, x3);
+        bounds[1] = min(bounds[1], y1, y2, y3);
+        bounds[2] = min(bounds[2], z1, z2, z3);
+        bounds[3] = max(bounds[3], x1, x2, x3);
+        bounds[4] = max(bounds[4], y1, y2, y3);
+        bounds[5] = max(bounds[5], z1, z2, z3);
+    }
+
+    // minX, minY, minZ, maxX, maxY, maxZ
+    private static float[] newBounds() {
+        return new float[] {
+                Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY,
+                Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY
+        };
+    }
+
+    private static int grow(int capacity) throws IOException {
+        long next = (long) capacity + (capacity >> 1);
+        if (next * 9L > Integer.MAX_VALUE) {
+            throw new IOException("STL stream too large");
+        }
+        return (int) next;
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
     }
 
     private static StlModel parseAscii(byte[] data) throws IOException {
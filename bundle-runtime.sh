@@ -4,6 +4,7 @@ set -euo pipefail
 ROOT_DIR="$(cd "$(dirname "$0")" && pwd)"
 APP_DIR="$ROOT_DIR/android-app"
 RUNTIME_ASSET_DIR="$APP_DIR/assets/runtime"
+RUNTIME_MANIFEST="$APP_DIR/assets/runtime.manifest"
 
 PREFIX="${TERMUX_PREFIX:-/data/data/com.termux/files/usr}"
 OPENSCAD_BIN="$PREFIX/bin/openscad"
@@ -61,5 +62,9 @@ else
   echo "Warning: Fontconfig config missing: $FONTCONFIG_ETC" >&2
 fi
 
+python3 "$ROOT_DIR/scripts/generate_runtime_manifest.py" \
+  "$RUNTIME_ASSET_DIR" \
+  "$RUNTIME_MANIFEST"
+
 RUNTIME_SIZE=$(du -sh "$RUNTIME_ASSET_DIR" | cut -f1)
 echo "Runtime bundle complete: $RUNTIME_ASSET_DIR ($RUNTIME_SIZE)"
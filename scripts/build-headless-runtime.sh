@@ -83,6 +83,7 @@ fi
 mkdir -p "$OUT_DIR"
 STAGE="$OUT_DIR/runtime-$ABI-stage"
 OUT_ZIP="$OUT_DIR/openscad-runtime-$ABI.zip"
+OUT_MANIFEST="$OUT_DIR/openscad-runtime-$ABI.manifest"
 rm -rf "$STAGE"
 mkdir -p "$STAGE/runtime/bin" "$STAGE/runtime/share" "$STAGE/runtime/etc" "$STAGE/runtime/home"
 
@@ -113,5 +114,8 @@ rm -f "$OUT_ZIP"
   zip -r "$OUT_ZIP" runtime >/dev/null
 )
 
+# Published next to the zip so installed runtimes can fetch only the files that changed
+python3 "$ROOT_DIR/scripts/generate_runtime_manifest.py" "$STAGE/runtime" "$OUT_MANIFEST"
+
 echo "Built runtime bundle: $OUT_ZIP"
-ls -lh "$OUT_ZIP"
+ls -lh "$OUT_ZIP" "$OUT_MANIFEST"
@@ -0,0 +1,114 @@
+package com.openscad.standalone;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Locale;
+
+// Times ResumableDownload against StandInServer throttled to 1 MB/s per connection, as a single stream
+// (server without range support) and segmented, then checks the adaptive parts: growth stops once the
+// shared link is saturated, a worker that finishes takes over the tail of a slow segment, and a segmented
+// run interrupted part way resumes only the missing ranges. Exits non-zero on the first failed check.
+public class ResumableDownloadBenchmark {
+
+    private static final int SIZE = 24 << 20;
+    private static final long PER_CONNECTION = 1 << 20;
+
+    public static void main(String[] args) throws Exception {
+        StandInServer server = new StandInServer(SIZE);
+        server.setBytesPerSecond(PER_CONNECTION);
+        File dir = Files.createTempDirectory("download-standin").toFile();
+        try {
+            server.setRangesSupported(false);
+            long single = timed(server, new File(dir, "single.bin"), "single stream");
+            check(server.maxConcurrent() == 1, "single stream used " + server.maxConcurrent() + " connections");
+
+            server.setRangesSupported(true);
+            long segmented = timed(server, new File(dir, "segmented.bin"), "segmented");
+            check(server.maxConcurrent() > 1, "segmented download never added a connection");
+            check(segmented * 2 < single, "segmented download not at least twice as fast");
+
+            // a 3 MB/s link: past three connections another one gains nothing, so growth has to stop early
+            server.setTotalBytesPerSecond(3 * PER_CONNECTION);
+            timed(server, new File(dir, "saturated.bin"), "saturated link");
+            check(server.maxConcurrent() <= 5, "kept adding connections on a saturated link: " + server.maxConcurrent());
+            server.setTotalBytesPerSecond(0);
+
+            // the first connection crawls, so the others run out of work and split its remaining range
+            server.reset();
+            server.setFirstRequestSpeed(0.25);
+            timed(server, new File(dir, "steal.bin"), "slow first connection", false);
+            check(server.requests() > server.maxConcurrent(), "no finished worker took over a slow segment");
+
+            resumeSegmented(server, new File(dir, "resume.bin"));
+            System.out.println("All benchmark checks passed");
+        } finally {
+            server.stop();
+            deleteRecursively(dir);
+        }
+    }
+
+    private static long timed(StandInServer server, File target, String name) throws IOException {
+        return timed(server, target, name, true);
+    }
+
+    private static long timed(StandInServer server, File target, String name, boolean reset) throws IOException {
+        if (reset) {
+            server.reset();
+        }
+        long startedMs = System.currentTimeMillis();
+        String sha256 = new ResumableDownload(server.url(), target, server.sha256(), "standin").run(null, name);
+        long elapsedMs = System.currentTimeMillis() - startedMs;
+        check(sha256.equals(server.sha256()), name + ": checksum " + sha256);
+        System.out.println(String.format(Locale.US, "%-22s %6.1f s  %4.1f MB/s  %d connections max, %d requests",
+                name, elapsedMs / 1000.0, SIZE / 1048576.0 / (elapsedMs / 1000.0), server.maxConcurrent(),
+                server.requests()));
+        target.delete();
+        return elapsedMs;
+    }
+
+    private static void resumeSegmented(StandInServer server, File target) throws IOException {
+        server.reset();
+        server.setBytesPerSecond(4 * PER_CONNECTION);
+        server.dropResponses(Integer.MAX_VALUE, 3 << 20);
+        server.refuseAfter(3);
+        try {
+            new ResumableDownload(server.url(), target, server.sha256(), "standin").run(null, "resume");
+            check(false, "segmented resume: first run should have failed");
+        } catch (IOException expected) {
+            // keeps the partial file and its missing ranges for the next run
+        }
+        int missingRanges = 0;
+        for (String line : Files.readAllLines(new File(target.getPath() + ".meta").toPath())) {
+            if (line.startsWith("segment")) {
+                missingRanges++;
+            }
+        }
+        check(missingRanges > 1, "segmented resume: " + missingRanges + " missing ranges recorded");
+
+        server.reset();
+        String sha256 = new ResumableDownload(server.url(), target, server.sha256(), "standin").run(null, "resume");
+        check(sha256.equals(server.sha256()), "segmented resume: checksum " + sha256);
+        check(server.bytesSent() < SIZE, "segmented resume: refetched " + server.bytesSent() + " bytes");
+        System.out.println(String.format(Locale.US, "%-22s %d missing ranges, %s fetched on resume", "segmented resume",
+                missingRanges, ResumableDownload.formatMb(server.bytesSent())));
+        server.setBytesPerSecond(PER_CONNECTION);
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            System.err.println("FAILED " + message);
+            System.exit(1);
+        }
+    }
+
+    private static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,118 @@
+package com.openscad.standalone;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+// Runs ResumableDownload against StandInServer: resume within a run after dropped connections, resume
+// across runs from the kept partial file, a restart when the server's copy changes, and a checksum mismatch.
+// Exits non-zero on the first failed check.
+public class ResumableDownloadCheck {
+
+    private static final int SIZE = 20 << 20;
+
+    public static void main(String[] args) throws Exception {
+        StandInServer server = new StandInServer(SIZE);
+        File dir = Files.createTempDirectory("download-standin").toFile();
+        try {
+            resumeWithinRun(server, new File(dir, "within.bin"));
+            resumeAcrossRuns(server, new File(dir, "across.bin"));
+            restartOnChangedEtag(server, new File(dir, "etag.bin"));
+            checksumMismatch(server, new File(dir, "mismatch.bin"));
+            System.out.println("All download checks passed");
+        } finally {
+            server.stop();
+            deleteRecursively(dir);
+        }
+    }
+
+    private static void resumeWithinRun(StandInServer server, File target) throws IOException {
+        server.reset();
+        server.dropResponses(2, 6 << 20);
+        String sha256 = new ResumableDownload(server.url(), target, server.sha256(), "standin").run(null, "within");
+        check(sha256.equals(server.sha256()), "resume within a run: checksum " + sha256);
+        check(target.length() == SIZE, "resume within a run: length " + target.length());
+        check(server.requests() > 2, "resume within a run: only " + server.requests() + " requests");
+        check(!metaFile(target).exists(), "resume within a run: metadata left behind");
+        pass("resume within a run", server);
+    }
+
+    private static void resumeAcrossRuns(StandInServer server, File target) throws IOException {
+        server.reset();
+        server.dropResponses(Integer.MAX_VALUE, 3 << 20);
+        server.refuseAfter(3);
+        try {
+            new ResumableDownload(server.url(), target, server.sha256(), "standin").run(null, "across");
+            check(false, "resume across runs: first run should have failed");
+        } catch (IOException expected) {
+            // keeps the partial file for the next run
+        }
+        check(target.exists() && metaFile(target).exists(), "resume across runs: partial file not kept");
+
+        server.reset();
+        String sha256 = new ResumableDownload(server.url(), target, server.sha256(), "standin").run(null, "across");
+        check(sha256.equals(server.sha256()), "resume across runs: checksum " + sha256);
+        check(server.bytesSent() < SIZE, "resume across runs: refetched " + server.bytesSent() + " bytes");
+        check(server.rangeRequests() == server.requests(), "resume across runs: not every request was a range");
+        pass("resume across runs", server);
+    }
+
+    private static void restartOnChangedEtag(StandInServer server, File target) throws IOException {
+        server.reset();
+        server.dropResponses(Integer.MAX_VALUE, 3 << 20);
+        server.refuseAfter(3);
+        try {
+            new ResumableDownload(server.url(), target, server.sha256(), "standin").run(null, "etag");
+            check(false, "restart on a changed ETag: first run should have failed");
+        } catch (IOException expected) {
+            // keeps the partial file for the next run
+        }
+
+        server.reset();
+        server.setData(SIZE, 2);
+        String sha256 = new ResumableDownload(server.url(), target, server.sha256(), "standin").run(null, "etag");
+        check(sha256.equals(server.sha256()), "restart on a changed ETag: checksum " + sha256);
+        check(server.bytesSent() >= SIZE, "restart on a changed ETag: only " + server.bytesSent() + " bytes sent");
+        server.setData(SIZE, 1);
+        pass("restart on a changed ETag", server);
+    }
+
+    private static void checksumMismatch(StandInServer server, File target) throws IOException {
+        server.reset();
+        String wrong = new String(new char[64]).replace('\0', '0');
+        try {
+            new ResumableDownload(server.url(), target, wrong, "standin").run(null, "mismatch");
+            check(false, "checksum mismatch: download was accepted");
+        } catch (IOException e) {
+            check(e.getMessage().startsWith("Checksum mismatch"), "checksum mismatch: " + e.getMessage());
+        }
+        check(!target.exists() && !metaFile(target).exists(), "checksum mismatch: partial file kept");
+        pass("checksum mismatch", server);
+    }
+
+    private static File metaFile(File target) {
+        return new File(target.getPath() + ".meta");
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            System.err.println("FAILED " + message);
+            System.exit(1);
+        }
+    }
+
+    private static void pass(String name, StandInServer server) {
+        System.out.println("ok   " + name + " (" + server.requests() + " requests, "
+                + ResumableDownload.formatMb(server.bytesSent()) + " sent)");
+    }
+
+    private static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,249 @@
+package com.openscad.standalone;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Local stand-in for a release asset host, for checking ResumableDownload on a plain JVM. Serves one
+// generated file at /asset with an ETag, single byte ranges ("bytes=a-" and "bytes=a-b") and If-Range, and
+// can be told to ignore ranges, throttle each connection or all of them together, cut responses short or
+// refuse requests.
+class StandInServer {
+
+    private static final String PATH = "/asset";
+    private static final int CHUNK_BYTES = 16384;
+
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    private volatile byte[] data;
+    private volatile String etag = "\"v1\"";
+    private volatile boolean rangesSupported = true;
+    // Per connection; 0 sends as fast as the socket takes it
+    private volatile long bytesPerSecond;
+    // Shared by all connections, like a saturated link; 0 for no cap
+    private volatile long totalBytesPerSecond;
+    // The first request after reset() is throttled to this fraction of bytesPerSecond
+    private volatile double firstRequestSpeed = 1.0;
+    // When the shared link is next free; guarded by this
+    private long linkFreeAtNs;
+    private volatile long dropAfterBytes = Long.MAX_VALUE;
+    private final AtomicInteger dropsLeft = new AtomicInteger();
+    // Requests past this many are answered 503
+    private volatile int refuseAfterRequests = Integer.MAX_VALUE;
+
+    private final AtomicInteger requests = new AtomicInteger();
+    private final AtomicInteger concurrent = new AtomicInteger();
+    private final AtomicInteger maxConcurrent = new AtomicInteger();
+    private final AtomicInteger rangeRequests = new AtomicInteger();
+    private final AtomicLong bytesSent = new AtomicLong();
+
+    StandInServer(int size) throws IOException {
+        setData(size, 1);
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 64);
+        server.setExecutor(executor);
+        server.createContext(PATH, new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                try {
+                    serve(exchange);
+                } finally {
+                    exchange.close();
+                }
+            }
+        });
+        server.start();
+    }
+
+    String url() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + PATH;
+    }
+
+    void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    // Replaces the served file with size pseudo-random bytes; a new seed gives new content under a new ETag
+    void setData(int size, long seed) {
+        byte[] bytes = new byte[size];
+        new Random(seed).nextBytes(bytes);
+        data = bytes;
+        etag = "\"v" + seed + "\"";
+    }
+
+    String sha256() {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            StringBuilder sb = new StringBuilder();
+            for (byte b : digest.digest(data)) {
+                sb.append(String.format("%02x", b & 0xff));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    int size() {
+        return data.length;
+    }
+
+    void setRangesSupported(boolean supported) {
+        rangesSupported = supported;
+    }
+
+    void setBytesPerSecond(long rate) {
+        bytesPerSecond = rate;
+    }
+
+    void setTotalBytesPerSecond(long rate) {
+        totalBytesPerSecond = rate;
+    }
+
+    void setFirstRequestSpeed(double fraction) {
+        firstRequestSpeed = fraction;
+    }
+
+    // The next count responses are cut off after afterBytes bytes of body
+    void dropResponses(int count, long afterBytes) {
+        dropAfterBytes = afterBytes;
+        dropsLeft.set(count);
+    }
+
+    void refuseAfter(int count) {
+        refuseAfterRequests = count;
+    }
+
+    // Clears the counters, every fault and the slow first request, keeping the data, rates and range support
+    void reset() {
+        firstRequestSpeed = 1.0;
+        requests.set(0);
+        concurrent.set(0);
+        maxConcurrent.set(0);
+        rangeRequests.set(0);
+        bytesSent.set(0);
+        dropsLeft.set(0);
+        dropAfterBytes = Long.MAX_VALUE;
+        refuseAfterRequests = Integer.MAX_VALUE;
+    }
+
+    int requests() {
+        return requests.get();
+    }
+
+    int maxConcurrent() {
+        return maxConcurrent.get();
+    }
+
+    // Requests answered with 206
+    int rangeRequests() {
+        return rangeRequests.get();
+    }
+
+    long bytesSent() {
+        return bytesSent.get();
+    }
+
+    private void serve(HttpExchange exchange) throws IOException {
+        int request = requests.incrementAndGet();
+        if (request > refuseAfterRequests) {
+            exchange.sendResponseHeaders(503, -1);
+            return;
+        }
+        int open = concurrent.incrementAndGet();
+        try {
+            while (true) {
+                int max = maxConcurrent.get();
+                if (open <= max || maxConcurrent.compareAndSet(max, open)) {
+                    break;
+                }
+            }
+            byte[] body = data;
+            long from = 0;
+            long to = body.length - 1;
+            boolean partial = false;
+            String range = exchange.getRequestHeaders().getFirst("Range");
+            String ifRange = exchange.getRequestHeaders().getFirst("If-Range");
+            if (rangesSupported && range != null && range.startsWith("bytes=")
+                    && (ifRange == null || ifRange.equals(etag))) {
+                String spec = range.substring("bytes=".length());
+                int dash = spec.indexOf('-');
+                from = Long.parseLong(spec.substring(0, dash));
+                if (dash + 1 < spec.length()) {
+                    to = Math.min(to, Long.parseLong(spec.substring(dash + 1)));
+                }
+                partial = true;
+            }
+            exchange.getResponseHeaders().set("ETag", etag);
+            if (from >= body.length) {
+                exchange.getResponseHeaders().set("Content-Range", "bytes */" + body.length);
+                exchange.sendResponseHeaders(416, -1);
+                return;
+            }
+            if (partial) {
+                rangeRequests.incrementAndGet();
+                exchange.getResponseHeaders().set("Content-Range", "bytes " + from + "-" + to + "/" + body.length);
+                exchange.sendResponseHeaders(206, to - from + 1);
+            } else {
+                exchange.sendResponseHeaders(200, body.length);
+            }
+            send(exchange.getResponseBody(), body, from, to + 1, request == 1 ? firstRequestSpeed : 1.0);
+        } finally {
+            concurrent.decrementAndGet();
+        }
+    }
+
+    private void send(OutputStream out, byte[] body, long from, long end, double speed) throws IOException {
+        long limit = dropsLeft.getAndDecrement() > 0 ? dropAfterBytes : Long.MAX_VALUE;
+        long rate = (long) (bytesPerSecond * speed);
+        long startedNs = System.nanoTime();
+        long sent = 0;
+        for (long p = from; p < end; p += CHUNK_BYTES) {
+            int n = (int) Math.min(CHUNK_BYTES, end - p);
+            if (sent + n > limit) {
+                // closing the exchange without finishing the body looks like a dropped connection
+                return;
+            }
+            out.write(body, (int) p, n);
+            sent += n;
+            bytesSent.addAndGet(n);
+            long aheadNs = reserveLink(n);
+            if (rate > 0) {
+                aheadNs = Math.max(aheadNs, sent * 1000000000L / rate - (System.nanoTime() - startedNs));
+            }
+            if (aheadNs > 0) {
+                try {
+                    Thread.sleep(aheadNs / 1000000, (int) (aheadNs % 1000000));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+        out.close();
+    }
+
+    // Queues n bytes on the shared link and returns how long the sender has to wait for them to go out.
+    // Idle time is not banked, so connections added later cannot burst above the cap.
+    private synchronized long reserveLink(int n) {
+        long totalRate = totalBytesPerSecond;
+        if (totalRate <= 0) {
+            return 0;
+        }
+        long now = System.nanoTime();
+        linkFreeAtNs = Math.max(linkFreeAtNs, now) + n * 1000000000L / totalRate;
+        return linkFreeAtNs - now;
+    }
+}
@@ -0,0 +1,35 @@
+#!/bin/bash
+set -euo pipefail
+
+# Compiles ResumableDownload with the stand-in server and runs it on the host JVM.
+#   run.sh          resume / ETag restart / checksum checks
+#   run.sh bench    single stream vs segmented timings and the adaptive-connection checks
+ROOT_DIR="$(cd "$(dirname "$0")/../.." && pwd)"
+STANDIN_DIR="$ROOT_DIR/scripts/download-standin"
+BUILD_DIR="$ROOT_DIR/build/download-standin"
+ANDROID_JAR="${ANDROID_JAR:-/data/data/com.termux/files/home/android-sdk/platforms/android-34/android.jar}"
+JAVAC_BIN="${JAVAC_BIN:-$(command -v javac)}"
+
+if [ ! -f "$ANDROID_JAR" ]; then
+  echo "android.jar missing: $ANDROID_JAR (set ANDROID_JAR)" >&2
+  exit 1
+fi
+
+MAIN_CLASS="ResumableDownloadCheck"
+if [ "${1:-}" = "bench" ]; then
+  MAIN_CLASS="ResumableDownloadBenchmark"
+  shift
+fi
+
+rm -rf "$BUILD_DIR"
+mkdir -p "$BUILD_DIR"
+# android.jar is only needed to compile the app classes ResumableDownload refers to; the run itself uses
+# the host JVM alone, which is what keeps the download code free of Android-only calls
+"$JAVAC_BIN" \
+  --release 8 \
+  -classpath "$ANDROID_JAR" \
+  -sourcepath "$ROOT_DIR/android-app/src" \
+  -d "$BUILD_DIR" \
+  "$STANDIN_DIR"/*.java
+
+java -cp "$BUILD_DIR" "com.openscad.standalone.$MAIN_CLASS" "$@"
@@ -0,0 +1,70 @@
+#!/usr/bin/env python3
+"""Write a path/size/sha256 manifest for an OpenSCAD runtime tree."""
+
+import argparse
+import hashlib
+import os
+import stat
+import sys
+
+HEADER = "# openscad-runtime-manifest 1"
+
+
+def sha256_file(path: str) -> str:
+    digest = hashlib.sha256()
+    with open(path, "rb") as fh:
+        while True:
+            chunk = fh.read(1024 * 1024)
+            if not chunk:
+                break
+            digest.update(chunk)
+    return digest.hexdigest()
+
+
+def collect_files(root: str) -> list[str]:
+    out = []
+    for dirpath, dirnames, filenames in os.walk(root):
+        dirnames.sort()
+        for name in sorted(filenames):
+            full = os.path.join(dirpath, name)
+            rel = os.path.relpath(full, root).replace(os.sep, "/")
+            out.append(rel)
+    return out
+
+
+def main() -> int:
+    parser = argparse.ArgumentParser()
+    parser.add_argument("runtime_dir")
+    parser.add_argument("out_file")
+    args = parser.parse_args()
+
+    root = os.path.abspath(args.runtime_dir)
+    if not os.path.isdir(root):
+        print(f"Runtime dir missing: {root}", file=sys.stderr)
+        return 1
+
+    lines = [HEADER]
+    total = 0
+    files = collect_files(root)
+    for rel in files:
+        if "\t" in rel or "\n" in rel:
+            print(f"Unsupported file name in runtime: {rel!r}", file=sys.stderr)
+            return 1
+        full = os.path.join(root, rel)
+        size = os.path.getsize(full)
+        mode = os.stat(full).st_mode
+        executable = "x" if mode & (stat.S_IXUSR | stat.S_IXGRP | stat.S_IXOTH) else "-"
+        lines.append(f"{sha256_file(full)}\t{size}\t{executable}\t{rel}")
+        total += size
+
+    os.makedirs(os.path.dirname(os.path.abspath(args.out_file)), exist_ok=True)
+    with open(args.out_file, "w", encoding="utf-8", newline="\n") as fh:
+        fh.write("\n".join(lines))
+        fh.write("\n")
+
+    print(f"Wrote manifest for {len(files)} files ({total} bytes) to {args.out_file}")
+    return 0
+
+
+if __name__ == "__main__":
+    raise SystemExit(main())
@@ -0,0 +1,168 @@
+package com.openscad.standalone;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.Locale;
+
+// Times MeshDecimator on a closed 1,000,000-triangle UV sphere at the viewer's detail levels (50%, 25%,
+// 10%) and reports wall time and peak heap. Peak heap is taken two ways: the highest used heap seen by a
+// sampler thread every millisecond, and the sum of the heap pools' peak usage since the run started
+// (an upper bound, as pools peak at different moments); both are reported above the heap in use before
+// the run, which holds the input mesh. Each output is checked with MeshStats for a closed, consistently
+// oriented surface without degenerate triangles. Exits non-zero on the first failed check.
+public class MeshDecimatorBenchmark {
+
+    // 2 * SLICES * (STACKS - 1) triangles
+    private static final int SLICES = 1000;
+    private static final int STACKS = 501;
+    private static final float[] RATIOS = { 0.5f, 0.25f, 0.1f };
+    private static final int WARMUP_RUNS = 1;
+
+    private static volatile long sampledPeak;
+    private static volatile boolean sampling;
+
+    public static void main(String[] args) throws Exception {
+        IndexedMesh sphere = sphere(SLICES, STACKS, 10f);
+        MeshStats input = MeshStats.analyze(sphere);
+        check(input.boundaryEdges == 0 && input.nonManifoldEdges == 0 && input.misorientedEdges == 0,
+                "input sphere is not closed: " + input.summary());
+        System.out.println(String.format(Locale.US, "input: %,d triangles, %,d vertices, max heap %d MB",
+                sphere.triangleCount, sphere.vertexCount, Runtime.getRuntime().maxMemory() >> 20));
+
+        for (int i = 0; i < WARMUP_RUNS; i++) {
+            MeshDecimator.decimate(sphere, RATIOS[0]);
+        }
+        Thread sampler = startSampler();
+        try {
+            for (float ratio : RATIOS) {
+                measure(sphere, ratio);
+            }
+        } finally {
+            sampling = false;
+            sampler.join();
+        }
+        System.out.println("All decimation checks passed");
+    }
+
+    private static void measure(IndexedMesh sphere, float ratio) {
+        System.gc();
+        long baseline = usedHeap();
+        resetPoolPeaks();
+        sampledPeak = baseline;
+
+        long startedNs = System.nanoTime();
+        MeshDecimator.Result result = MeshDecimator.decimate(sphere, ratio);
+        long elapsedMs = (System.nanoTime() - startedNs) / 1000000;
+
+        long poolPeak = poolPeakSum();
+        long sampled = Math.max(sampledPeak, usedHeap());
+        MeshStats stats = MeshStats.analyze(result.mesh);
+        check(stats.boundaryEdges == 0 && stats.nonManifoldEdges == 0 && stats.misorientedEdges == 0
+                && stats.degenerateTriangles == 0, "output at " + ratio + " is not a clean closed mesh: "
+                + stats.summary());
+        check(result.outputTriangles <= Math.ceil(sphere.triangleCount * (double) ratio),
+                "output at " + ratio + " kept " + result.outputTriangles + " triangles");
+        System.out.println(String.format(Locale.US,
+                "%3.0f%%: %,9d triangles  %6d ms  max deviation %.5f  peak heap +%d MB sampled, +%d MB pool peaks",
+                ratio * 100, result.outputTriangles, elapsedMs, result.maxError, (sampled - baseline) >> 20,
+                (poolPeak - baseline) >> 20));
+    }
+
+    // Rings of SLICES vertices between the poles, wound counter-clockwise seen from outside
+    private static IndexedMesh sphere(int slices, int stacks, float radius) {
+        int rings = stacks - 1;
+        float[] positions = new float[(2 + slices * rings) * 3];
+        positions[2] = radius;
+        for (int r = 0; r < rings; r++) {
+            double polar = Math.PI * (r + 1) / stacks;
+            for (int s = 0; s < slices; s++) {
+                double azimuth = 2 * Math.PI * s / slices;
+                int v = 1 + r * slices + s;
+                positions[v * 3] = (float) (radius * Math.sin(polar) * Math.cos(azimuth));
+                positions[v * 3 + 1] = (float) (radius * Math.sin(polar) * Math.sin(azimuth));
+                positions[v * 3 + 2] = (float) (radius * Math.cos(polar));
+            }
+        }
+        int south = 1 + slices * rings;
+        positions[south * 3 + 2] = -radius;
+
+        int[] indices = new int[2 * slices * rings * 3];
+        int i = 0;
+        for (int s = 0; s < slices; s++) {
+            int next = (s + 1) % slices;
+            indices[i++] = 0;
+            indices[i++] = 1 + s;
+            indices[i++] = 1 + next;
+            for (int r = 0; r + 1 < rings; r++) {
+                int a = 1 + r * slices + s;
+                int b = 1 + r * slices + next;
+                int c = 1 + (r + 1) * slices + s;
+                int d = 1 + (r + 1) * slices + next;
+                indices[i++] = a;
+                indices[i++] = c;
+                indices[i++] = d;
+                indices[i++] = a;
+                indices[i++] = d;
+                indices[i++] = b;
+            }
+            indices[i++] = south;
+            indices[i++] = 1 + (rings - 1) * slices + next;
+            indices[i++] = 1 + (rings - 1) * slices + s;
+        }
+        return new IndexedMesh(positions, indices);
+    }
+
+    private static Thread startSampler() {
+        sampling = true;
+        Thread sampler = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (sampling) {
+                    long used = usedHeap();
+                    if (used > sampledPeak) {
+                        sampledPeak = used;
+                    }
+                    try {
+                        Thread.sleep(1);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            }
+        }, "heap-sampler");
+        sampler.setDaemon(true);
+        sampler.start();
+        return sampler;
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static void resetPoolPeaks() {
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                pool.resetPeakUsage();
+            }
+        }
+    }
+
+    private static long poolPeakSum() {
+        long sum = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                sum += pool.getPeakUsage().getUsed();
+            }
+        }
+        return sum;
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            System.err.println("FAILED " + message);
+            System.exit(1);
+        }
+    }
+}
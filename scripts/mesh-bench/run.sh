@@ -0,0 +1,20 @@
+#!/bin/bash
+set -euo pipefail
+
+# Compiles MeshDecimator with its benchmark and runs it on the host JVM. The heap is capped like a large
+# Android app heap by default; override with JAVA_OPTS.
+ROOT_DIR="$(cd "$(dirname "$0")/../.." && pwd)"
+BUILD_DIR="$ROOT_DIR/build/mesh-bench"
+JAVAC_BIN="${JAVAC_BIN:-$(command -v javac)}"
+JAVA_OPTS="${JAVA_OPTS:--Xmx512m}"
+
+rm -rf "$BUILD_DIR"
+mkdir -p "$BUILD_DIR"
+# the mesh classes are plain Java, so no android.jar is needed here
+"$JAVAC_BIN" \
+  --release 8 \
+  -sourcepath "$ROOT_DIR/android-app/src" \
+  -d "$BUILD_DIR" \
+  "$ROOT_DIR/scripts/mesh-bench"/*.java
+
+java $JAVA_OPTS -cp "$BUILD_DIR" com.openscad.standalone.MeshDecimatorBenchmark "$@"